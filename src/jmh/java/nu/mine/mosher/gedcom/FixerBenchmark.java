@@ -0,0 +1,176 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks of the value fixers that run once per line of the file.
+ * Each call takes the next value from a small set of typical (and
+ * typically messy) values, so branch prediction can't learn just one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FixerBenchmark {
+    private static final String[] DATES = {
+        "1880",
+        "12 Mar 1880",
+        "abt 1850",
+        "Bet. 1 Sep 1981–2 Jun 1984",
+        "Bef. 3 June 1799",
+        "@#DJULIAN@ 24 JAN 1701",
+        "3/12/1880",
+        "FROM 1861 TO 1865",
+        "1915-1918",
+        "sometime in the spring",
+    };
+
+    private static final String[] NAMES = {
+        "John /Smith/",
+        "Mary  Ann /Jones/",
+        "Robert/Doe/Jr",
+        " William /Brown/ III",
+        "Elizabeth",
+        "Anna /van der Berg/, Sr",
+    };
+
+    private static final String[] PUBLS = {
+        "Name: Ancestry.com Operations, Inc.;",
+        "Provo, UT, USA: Ancestry.com Operations, Inc., 2010.",
+        "Name: Family History Library;",
+    };
+
+    private static final String[] NOTES = {
+        "A short note.",
+        "Age: 3  Marital status: Single  Relation to Head: Son",
+        "Line one  Line two      Line three  ",
+        "Born at home. \n Baptized a week later. \n\n\n\nBuried in the churchyard.",
+    };
+
+    private static final String[] CUSTOM_TAG_NOTES = {
+        "No custom tags at all in this one.",
+        "Some text\n_MILT Served in the Civil War\nmore text",
+        "_FREL Natural\n_MREL Adopted",
+    };
+
+    private static final GedcomTag[] INDI_TAGS = {
+        GedcomTag.SOUR, GedcomTag.NOTE, GedcomTag.FAMS, GedcomTag.BIRT, GedcomTag.NAME,
+        GedcomTag.OBJE, GedcomTag.SEX, GedcomTag.FAMC, GedcomTag.REFN, GedcomTag.DEAT,
+        GedcomTag.RESI, GedcomTag.NAME, GedcomTag.BURI, GedcomTag.SOUR, GedcomTag.CHR,
+    };
+
+    private static final String[] LINE_TAGS = {
+        "SOUR", "_APID", "NOTE", "DATE", "PLAC", "_UID", "PAGE", "NAME",
+        "_FREL", "BIRT", "_MREL", "FAMS", "DEAT", "OBJE", "FILE", "_PHOTO",
+    };
+
+    /*
+    The lookup that a table of tag codes would need for each line (the
+    library's GedcomLine has no room to keep a code), to compare with
+    just testing the tag string.
+     */
+    private static final Map<String, Integer> TAG_CODES = new ConcurrentHashMap<>();
+    private static final int FREL = 1;
+    private static final int MREL = 2;
+    private static final int PHOTO = 3;
+
+    static {
+        for (final String tag : LINE_TAGS) {
+            TAG_CODES.put(tag, TAG_CODES.size() + 4);
+        }
+        TAG_CODES.put("_FREL", FREL);
+        TAG_CODES.put("_MREL", MREL);
+        TAG_CODES.put("_PHOTO", PHOTO);
+    }
+
+    private int i;
+    private GedcomLine[] lines;
+    private TreeNode<GedcomLine> note;
+    private TreeNode<GedcomLine> person;
+    private List<TreeNode<GedcomLine>> indiChildren;
+
+    @Setup
+    public void setUp() {
+        final TreeNode<GedcomLine> indi = new TreeNode<>(new GedcomLine(0, "@I1@", GedcomTag.INDI.name(), ""));
+        this.note = new TreeNode<>(new GedcomLine(1, "", GedcomTag.NOTE.name(), ""));
+        indi.addChild(this.note);
+
+        this.person = new TreeNode<>(new GedcomLine(0, "@I2@", GedcomTag.INDI.name(), ""));
+        this.indiChildren = new ArrayList<>(INDI_TAGS.length);
+        for (final GedcomTag tag : INDI_TAGS) {
+            this.indiChildren.add(new TreeNode<>(new GedcomLine(1, "", tag.name(), "")));
+        }
+
+        this.lines = new GedcomLine[LINE_TAGS.length];
+        for (int j = 0; j < LINE_TAGS.length; ++j) {
+            this.lines[j] = new GedcomLine(1, "", LINE_TAGS[j], "");
+        }
+    }
+
+    private String next(final String[] values) {
+        return values[this.i++ % values.length];
+    }
+
+    private GedcomLine nextLine() {
+        return this.lines[this.i++ % this.lines.length];
+    }
+
+    @Benchmark
+    public String fixDate() {
+        return GedcomFixer.fixDate(next(DATES));
+    }
+
+    @Benchmark
+    public String formatName() {
+        return GedcomFixer.formatName(next(NAMES));
+    }
+
+    @Benchmark
+    public String formatPubl() {
+        return GedcomFixer.formatPubl(next(PUBLS));
+    }
+
+    @Benchmark
+    public String fixSpacing() {
+        return GedcomFixer.fixSpacing(next(NOTES));
+    }
+
+    @Benchmark
+    public String extractCustomTags() {
+        return GedcomFixer.extractCustomTags(next(CUSTOM_TAG_NOTES), this.note, new PendingEdits());
+    }
+
+    @Benchmark
+    public boolean customTagByString() {
+        final String tag = nextLine().getTagString();
+        return tag.equals("_FREL") || tag.equals("_MREL") || tag.equals("_PHOTO");
+    }
+
+    @Benchmark
+    public boolean customTagByCode() {
+        final int tag = TAG_CODES.get(nextLine().getTagString());
+        return tag == FREL || tag == MREL || tag == PHOTO;
+    }
+
+    /*
+    Sorts the children of an INDI by tag, as deepSort does (but with no
+    events to sort by date). The children are put back in their original
+    order first, each time.
+     */
+    @Benchmark
+    public TreeNode<GedcomLine> sortChildren() {
+        this.person.removeAllChildren();
+        this.indiChildren.forEach(this.person::addChild);
+        GedcomFixer.sortChildren(this.person, TagOrder.DEFAULT.indi, null, false);
+        return this.person;
+    }
+}
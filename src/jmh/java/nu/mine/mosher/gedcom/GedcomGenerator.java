@@ -0,0 +1,355 @@
+package nu.mine.mosher.gedcom;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Writes a synthetic GEDCOM file of any size, in the style of an export
+ * from Ancestry.com or Family Tree Maker, complete with the quirks that
+ * {@link GedcomFixer} is meant to fix: _SEPR and _MILT tags, 5.5-style
+ * inline OBJE with "&amp;pid=" image URLs, multiple DATA under one
+ * citation, double-spaced and run-together census NOTEs, custom tags
+ * inside NOTEs, _UIDs, duplicate citations, _FREL/_MREL, empty REPOs,
+ * and SOUR and NOTE records that nothing points to.
+ *
+ * The output depends only on the number of individuals and the seed.
+ * Nothing is kept in memory: every record is built from its own index
+ * (and its own random number generator), so even a file of ten million
+ * people is written straight to disk.
+ *
+ * The family structure: family F<i>f</i> is husband I<i>2f</i> and wife
+ * I<i>2f+1</i>, and its children are I<i>3f+2</i> through I<i>3f+4</i>
+ * (so every person except the first two has parents).
+ * <pre>
+ *   usage: GedcomGenerator individuals [seed [out.ged]]
+ * </pre>
+ */
+public class GedcomGenerator {
+    private static final String EOL = "\r\n";
+    private static final int CHILDREN_PER_FAMILY = 3;
+
+    private static final String[] GIVEN = {
+        "John", "Mary", "William", "Elizabeth", "James", "Sarah", "Thomas", "Ann", "George", "Margaret",
+        "Charles", "Hannah", "Samuel", "Martha", "Joseph", "Catherine", "Henry", "Susan", "Robert", "Jane",
+    };
+    private static final String[] SURNAME = {
+        "Smith", "Jones", "Brown", "Miller", "Davis", "Wilson", "Moore", "Taylor", "Anderson", "Thomas",
+        "Jackson", "White", "Harris", "Martin", "Thompson", "Garcia", "Clark", "Lewis", "Walker", "Hall",
+        "van der Berg", "O'Brien", "MacDonald", "de la Cruz",
+    };
+    private static final String[] SUFFIX = { "Jr", "Sr", "III", "Jr." };
+    private static final String[] MONTH = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec",
+        "JAN", "March", "june", "Sept", "December",
+    };
+    private static final String[] CITY = {
+        "Hartford", "New Haven", "Shelton", "Boston", "Salem", "Albany", "Philadelphia", "Richmond", "Providence", "Portland",
+    };
+    private static final String[] STATE = { "CT", "MA", "NY", "PA", "VA", "RI", "ME", "NH", "VT", "NJ" };
+    private static final String[] MARITAL = { "Single", "Married", "Widowed", "Divorced" };
+    private static final String[] RELATION = { "Head", "Wife", "Son", "Daughter", "Boarder", "Servant" };
+
+    private final int individuals;
+    private final int families;
+    private final int sources;
+    private final int citedSources;
+    private final int notes;
+    private final int citedNotes;
+    private final long seed;
+
+    public GedcomGenerator(final int individuals, final long seed) {
+        if (individuals < 0) {
+            throw new IllegalArgumentException("number of individuals must not be negative: " + individuals);
+        }
+        this.individuals = individuals;
+        this.families = individuals / 2;
+        this.sources = Math.max(2, individuals / 50);
+        this.citedSources = this.sources - Math.max(1, this.sources / 10);
+        this.notes = Math.max(2, individuals / 20);
+        this.citedNotes = this.notes - Math.max(1, this.notes / 10);
+        this.seed = seed;
+    }
+
+    public static void main(final String... args) throws IOException {
+        if (args.length < 1 || 3 < args.length) {
+            throw new IllegalArgumentException("usage: GedcomGenerator individuals [seed [out.ged]]");
+        }
+        final int individuals = Integer.parseInt(args[0]);
+        final long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+        final GedcomGenerator generator = new GedcomGenerator(individuals, seed);
+        if (args.length > 2) {
+            generator.write(new File(args[2]));
+        } else {
+            final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16);
+            generator.write(out);
+            out.flush();
+        }
+    }
+
+    public void write(final File file) throws IOException {
+        try (final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            write(out);
+        }
+    }
+
+    public void write(final Writer out) throws IOException {
+        final StringBuilder s = new StringBuilder(4096);
+
+        s.append("0 HEAD").append(EOL);
+        line(s, 1, "SOUR", "Ancestry.com Family Trees");
+        line(s, 2, "NAME", "Ancestry.com Member Trees");
+        line(s, 2, "VERS", "2010.3");
+        line(s, 1, "DATE", "1 Jan 2017");
+        line(s, 1, "GEDC", "");
+        line(s, 2, "VERS", "5.5");
+        line(s, 2, "FORM", "LINEAGE-LINKED");
+        line(s, 1, "CHAR", "UTF-8");
+        flush(s, out);
+
+        for (int i = 0; i < this.individuals; ++i) {
+            indi(s, i);
+            flush(s, out);
+        }
+        for (int f = 0; f < this.families; ++f) {
+            fam(s, f);
+            flush(s, out);
+        }
+        for (int i = 0; i < this.sources; ++i) {
+            sour(s, i);
+            flush(s, out);
+        }
+        for (int i = 0; i < this.notes; ++i) {
+            note(s, i);
+            flush(s, out);
+        }
+
+        s.append("0 TRLR").append(EOL);
+        flush(s, out);
+    }
+
+    private void indi(final StringBuilder s, final int i) {
+        final SplittableRandom rnd = random('I', i);
+        final boolean male = i % 2 == 0;
+        final int born = birthYear(i, rnd);
+
+        record(s, "I", i, "INDI", "");
+        line(s, 1, "NAME", name(rnd, male));
+        line(s, 1, "SEX", rnd.nextInt(50) == 0 ? "U" : male ? "M" : "F");
+        line(s, 1, "_UID", uid(rnd));
+
+        event(s, rnd, "BIRT", "", born);
+        if (rnd.nextInt(4) == 0) {
+            event(s, rnd, "RESI", "", born + 10 + rnd.nextInt(40));
+            census(s, rnd, 2);
+        }
+        if (male && rnd.nextInt(8) == 0) {
+            event(s, rnd, "_MILT", "Served in the " + (born + 20) + " campaign", born + 20);
+        }
+        if (rnd.nextInt(3) != 0) {
+            event(s, rnd, "DEAT", "", born + 30 + rnd.nextInt(60));
+            if (rnd.nextInt(2) == 0) {
+                event(s, rnd, "BURI", "", born + 30 + rnd.nextInt(60));
+            }
+        }
+
+        if (i >= 2) {
+            pointer(s, 1, "FAMC", "F", (i - 2) / CHILDREN_PER_FAMILY);
+        }
+        if (i / 2 < this.families) {
+            pointer(s, 1, "FAMS", "F", i / 2);
+        }
+
+        if (rnd.nextInt(3) == 0) {
+            pointer(s, 1, "NOTE", "N", rnd.nextInt(this.citedNotes));
+        }
+        if (rnd.nextInt(10) == 0) {
+            // double-spaced, with a custom tag tucked into the text
+            line(s, 1, "NOTE", "Family  tradition  says  he  came  from  " + CITY[rnd.nextInt(CITY.length)] + ".");
+            line(s, 2, "CONT", "_PRIM Y");
+        }
+        if (rnd.nextInt(6) == 0) {
+            // 5.5-style OBJE, linking straight to the image
+            line(s, 1, "OBJE", "");
+            line(s, 2, "FILE", "http://trees.ancestry.com/rd?f=image&guid=" + uid(rnd) + "&tid=1&pid=" + i);
+            line(s, 2, "FORM", "jpg");
+            line(s, 2, "TITL", "Photo of " + GIVEN[rnd.nextInt(GIVEN.length)]);
+            line(s, 2, "_PHOTO", "Y");
+        }
+    }
+
+    private void fam(final StringBuilder s, final int f) {
+        final SplittableRandom rnd = random('F', f);
+        final int married = birthYear(2 * f, rnd) + 18 + rnd.nextInt(15);
+
+        record(s, "F", f, "FAM", "");
+        pointer(s, 1, "HUSB", "I", 2 * f);
+        pointer(s, 1, "WIFE", "I", 2 * f + 1);
+        for (int c = 0; c < CHILDREN_PER_FAMILY; ++c) {
+            final int child = CHILDREN_PER_FAMILY * f + 2 + c;
+            if (child < this.individuals) {
+                pointer(s, 1, "CHIL", "I", child);
+                if (rnd.nextInt(4) == 0) {
+                    line(s, 2, "_FREL", "Natural");
+                    line(s, 2, "_MREL", "Natural");
+                }
+            }
+        }
+        event(s, rnd, "MARR", "", married);
+        if (rnd.nextInt(20) == 0) {
+            line(s, 1, "_SEPR", "");
+            line(s, 2, "DATE", date(rnd, married + 5 + rnd.nextInt(20)));
+        }
+    }
+
+    private void sour(final StringBuilder s, final int i) {
+        final SplittableRandom rnd = random('S', i);
+        final int year = 1790 + 10 * rnd.nextInt(16);
+
+        record(s, "S", i, "SOUR", "");
+        line(s, 1, "TITL", year + " United States Federal Census, " + STATE[rnd.nextInt(STATE.length)] + ", volume " + i + ".");
+        line(s, 1, "AUTH", "Ancestry.com");
+        line(s, 1, "PUBL", "Name: Ancestry.com Operations, Inc.;");
+        line(s, 1, "NOTE", "Original  data:  United States of America, Bureau of the Census.");
+        if (rnd.nextInt(3) == 0) {
+            line(s, 1, "REPO", "");
+        }
+        line(s, 1, "_UID", uid(rnd));
+    }
+
+    private void note(final StringBuilder s, final int i) {
+        final SplittableRandom rnd = random('N', i);
+
+        record(s, "N", i, "NOTE", "Age: " + rnd.nextInt(90) + "  Marital status: " + MARITAL[rnd.nextInt(MARITAL.length)] + "  Relation to Head: " + RELATION[rnd.nextInt(RELATION.length)]);
+        if (rnd.nextInt(4) == 0) {
+            // a long note, split the way Ancestry splits them (anywhere, even mid-word)
+            final String text = "Transcribed  from  the  original  record,  which  is  faded  and  hard  to  read  in  places;  "
+                + "spelling  of  the  names  follows  the  original  as  closely  as  possible.";
+            for (int p = 0; p < text.length(); p += 60) {
+                line(s, 1, "CONC", text.substring(p, Math.min(text.length(), p + 60)));
+            }
+        }
+        if (rnd.nextInt(10) == 0) {
+            line(s, 1, "CONT", "_FOOT Copied from an unknown family bible");
+        }
+    }
+
+    private void event(final StringBuilder s, final SplittableRandom rnd, final String tag, final String value, final int year) {
+        line(s, 1, tag, value);
+        line(s, 2, "DATE", date(rnd, year));
+        if (rnd.nextInt(4) != 0) {
+            line(s, 2, "PLAC", CITY[rnd.nextInt(CITY.length)] + ", " + STATE[rnd.nextInt(STATE.length)] + ", USA");
+        }
+        final int citations = rnd.nextInt(3);
+        for (int c = 0; c < citations; ++c) {
+            final int sour = rnd.nextInt(this.citedSources);
+            pointer(s, 2, "SOUR", "S", sour);
+            if (rnd.nextInt(2) == 0) {
+                line(s, 3, "PAGE", "Roll: M" + rnd.nextInt(1000) + "_" + rnd.nextInt(100) + "; Page: " + rnd.nextInt(500));
+                // multiple DATA under one citation
+                final int datas = 1 + rnd.nextInt(3);
+                for (int d = 0; d < datas; ++d) {
+                    line(s, 3, "DATA", "");
+                    if (d % 2 == 0) {
+                        line(s, 4, "TEXT", "Birth  date:  abt " + year + "  Birth  place:  " + STATE[rnd.nextInt(STATE.length)]);
+                    } else {
+                        line(s, 4, "DATE", date(rnd, year));
+                    }
+                }
+            } else if (rnd.nextInt(3) == 0) {
+                // the same bare citation again
+                pointer(s, 2, "SOUR", "S", sour);
+            }
+        }
+        if (rnd.nextInt(8) == 0) {
+            census(s, rnd, 2);
+        }
+    }
+
+    private static void census(final StringBuilder s, final SplittableRandom rnd, final int level) {
+        // Ancestry runs the census fields together, with no separators at all
+        line(s, level, "NOTE", "Age: " + rnd.nextInt(90) + "Marital status: " + MARITAL[rnd.nextInt(MARITAL.length)] + "Relation to Head: " + RELATION[rnd.nextInt(RELATION.length)]);
+    }
+
+    private static String name(final SplittableRandom rnd, final boolean male) {
+        final String given = GIVEN[2 * rnd.nextInt(GIVEN.length / 2) + (male ? 0 : 1)];
+        final String surname = SURNAME[rnd.nextInt(SURNAME.length)];
+        switch (rnd.nextInt(10)) {
+            case 0:
+                return given + "  " + GIVEN[rnd.nextInt(GIVEN.length)] + " /" + surname + "/";
+            case 1:
+                return given + "/" + surname + "/" + SUFFIX[rnd.nextInt(SUFFIX.length)];
+            case 2:
+                return " " + given + " /" + surname + "/ " + SUFFIX[rnd.nextInt(SUFFIX.length)];
+            case 3:
+                return given;
+            default:
+                return given + " /" + surname + "/";
+        }
+    }
+
+    private static String date(final SplittableRandom rnd, final int year) {
+        final int day = 1 + rnd.nextInt(28);
+        final String month = MONTH[rnd.nextInt(MONTH.length)];
+        switch (rnd.nextInt(12)) {
+            case 0:
+                return "abt " + year;
+            case 1:
+                return "Bet. " + day + " " + month + " " + year + "–" + (year + 1);
+            case 2:
+                return "Bef. " + day + " " + month + " " + year;
+            case 3:
+                return "Aft. " + year;
+            case 4:
+                return (1 + rnd.nextInt(12)) + "/" + day + "/" + year;
+            case 5:
+                return month + " " + year;
+            case 6:
+                return "@#DJULIAN@ " + day + " " + month + " " + year;
+            case 7:
+                return Integer.toString(year);
+            default:
+                return day + " " + month + " " + year;
+        }
+    }
+
+    private static int birthYear(final int i, final SplittableRandom rnd) {
+        // later people are (roughly) later generations
+        final int generation = Math.min(12, 31 - Integer.numberOfLeadingZeros(i + 1));
+        return 1650 + 25 * generation + rnd.nextInt(20);
+    }
+
+    private static String uid(final SplittableRandom rnd) {
+        return new UUID(rnd.nextLong(), rnd.nextLong()).toString().toUpperCase();
+    }
+
+    private SplittableRandom random(final char kind, final int index) {
+        return new SplittableRandom(this.seed * 0x9E3779B97F4A7C15L + ((long)kind << 32) + index);
+    }
+
+    private static void record(final StringBuilder s, final String prefix, final int index, final String tag, final String value) {
+        s.append("0 @").append(prefix).append(index).append("@ ").append(tag);
+        if (!value.isEmpty()) {
+            s.append(' ').append(value);
+        }
+        s.append(EOL);
+    }
+
+    private static void pointer(final StringBuilder s, final int level, final String tag, final String prefix, final int index) {
+        s.append(level).append(' ').append(tag).append(" @").append(prefix).append(index).append('@').append(EOL);
+    }
+
+    private static void line(final StringBuilder s, final int level, final String tag, final String value) {
+        s.append(level).append(' ').append(tag);
+        if (!value.isEmpty()) {
+            s.append(' ').append(value);
+        }
+        s.append(EOL);
+    }
+
+    private static void flush(final StringBuilder s, final Writer out) throws IOException {
+        out.append(s);
+        s.setLength(0);
+    }
+}
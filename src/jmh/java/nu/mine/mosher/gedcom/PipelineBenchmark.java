@@ -0,0 +1,66 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Macrobenchmark of a whole run of the program (everything {@code main}
+ * does once the options are parsed), on small, medium, and large trees
+ * from {@link GedcomGenerator}.
+ * The fixed GEDCOM output is thrown away; the .ids file is written to a
+ * temporary directory, along with the input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int individuals;
+
+    @Param({ "", "--threads=4", "--stream" })
+    public String option;
+
+    private File dir;
+    private GedcomFixerOptions options;
+
+    private static final BufferedOutputStream DISCARD = new BufferedOutputStream(new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    });
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("gedcom-fixer-bench").toFile();
+        final File in = new File(this.dir, "tree" + this.individuals + ".ged");
+        new GedcomGenerator(this.individuals, 1L).write(in);
+        this.options = this.option.isEmpty() ? GedcomFixerOptions.parse(in.getPath()) : GedcomFixerOptions.parse(this.option, in.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        final File[] files = this.dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        this.dir.delete();
+    }
+
+    @Benchmark
+    public void fix() throws InvalidLevel, IOException {
+        GedcomFixer.run(this.options, DISCARD);
+    }
+}
@@ -0,0 +1,176 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixes many files in one JVM, several at a time, so that JVM startup and
+ * JIT warmup are paid once for the whole batch, and the normalizer caches
+ * (and compiled patterns) are shared by all the files. The fixed copy of
+ * each orig.ged is written next to it, as orig.fixed.ged (the .ids file
+ * goes next to it as usual).
+ *
+ * A file that fails doesn't stop the batch: its exception (or error, such
+ * as running out of stack on a pathological file) is kept, and all the
+ * failures are reported at the end, in the order the files were given.
+ * The messages about each file are held until the file is done, and then
+ * printed all together, each line starting with the file's name, so that
+ * the messages about files being fixed at the same time don't get mixed.
+ * Files are started largest first, so that one big file doesn't end up
+ * running alone at the end of the batch.
+ */
+final class BatchFixer {
+    interface FileFixer {
+        void fix(File in, File out, PrintStream err) throws IOException, InvalidLevel;
+    }
+
+    static final String FIXED_SUFFIX = ".fixed.ged";
+
+    private final List<File> inputs;
+    private final int jobs;
+    private final Throwable[] failures;
+    private long nanos;
+
+    BatchFixer(final List<File> inputs, final int jobs) {
+        this.inputs = new ArrayList<>(inputs);
+        this.jobs = jobs;
+        this.failures = new Throwable[inputs.size()];
+    }
+
+    /**
+     * Finds the files to fix. Each arg is either a directory, in which case
+     * all the .ged files directly in it are fixed (but not .fixed.ged files),
+     * or a list file, with one file name per line (blank lines and lines
+     * starting with # are skipped; relative names are relative to the
+     * directory of the list file).
+     */
+    static List<File> inputs(final List<File> args) throws IOException {
+        final List<File> inputs = new ArrayList<>(256);
+        for (final File arg : args) {
+            if (arg.isDirectory()) {
+                final File[] files = arg.listFiles(f -> f.isFile() && isInput(f.getName()));
+                if (files == null) {
+                    throw new IOException("cannot list directory: " + arg);
+                }
+                Arrays.sort(files);
+                inputs.addAll(Arrays.asList(files));
+            } else if (arg.isFile()) {
+                final File dir = arg.getAbsoluteFile().getParentFile();
+                try (final BufferedReader list = Files.newBufferedReader(arg.toPath(), StandardCharsets.UTF_8)) {
+                    for (String line = list.readLine(); line != null; line = list.readLine()) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            final File file = new File(line);
+                            inputs.add(file.isAbsolute() ? file : new File(dir, line));
+                        }
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("not a directory or list file: " + arg);
+            }
+        }
+        return inputs;
+    }
+
+    private static boolean isInput(final String name) {
+        final String lower = name.toLowerCase();
+        return lower.endsWith(".ged") && !lower.endsWith(FIXED_SUFFIX);
+    }
+
+    /**
+     * orig.ged becomes orig.fixed.ged, in the same directory.
+     */
+    static File outputFile(final File in) {
+        final String name = in.getName();
+        final String base = name.toLowerCase().endsWith(".ged") ? name.substring(0, name.length() - ".ged".length()) : name;
+        return new File(in.getAbsoluteFile().getParentFile(), base + FIXED_SUFFIX);
+    }
+
+    /**
+     * Fixes all the files, jobs at a time, and waits for them all to finish.
+     * The messages about each file are printed to err.
+     */
+    void run(final FileFixer fixer, final PrintStream err) {
+        final Integer[] order = new Integer[this.inputs.size()];
+        final long[] sizes = new long[order.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+            sizes[i] = this.inputs.get(i).length();
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+
+        final long start = System.nanoTime();
+        final ExecutorService pool = Executors.newFixedThreadPool(this.jobs);
+        try {
+            for (final int i : order) {
+                final File in = this.inputs.get(i);
+                pool.execute(() -> {
+                    final ByteArrayOutputStream messages = new ByteArrayOutputStream();
+                    try (final PrintStream fileErr = new PrintStream(messages, true, "UTF-8")) {
+                        fixer.fix(in, outputFile(in), fileErr);
+                    } catch (final Throwable e) {
+                        this.failures[i] = e;
+                    }
+                    printMessages(in, messages, err);
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        this.nanos = System.nanoTime() - start;
+    }
+
+    private static void printMessages(final File in, final ByteArrayOutputStream messages, final PrintStream err) {
+        if (messages.size() == 0) {
+            return;
+        }
+        final String[] lines = new String(messages.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+        synchronized (err) {
+            for (final String line : lines) {
+                err.println(in.getPath() + ": " + line);
+            }
+        }
+    }
+
+    int failed() {
+        int failed = 0;
+        for (final Throwable e : this.failures) {
+            if (e != null) {
+                ++failed;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Prints a summary line, and then each file that failed, with why.
+     */
+    void report(final PrintStream out) {
+        final int failed = failed();
+        out.println(String.format("BATCH: %d files fixed, %d failed, in %.1f s", this.inputs.size() - failed, failed, this.nanos / 1e9));
+        for (int i = 0; i < this.failures.length; ++i) {
+            if (this.failures[i] != null) {
+                out.println("    FAILED: " + this.inputs.get(i) + ": " + this.failures[i]);
+            }
+        }
+    }
+}
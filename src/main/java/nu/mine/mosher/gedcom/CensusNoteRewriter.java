@@ -0,0 +1,213 @@
+package nu.mine.mosher.gedcom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Separates the fields of the census NOTEs that Ancestry.com exports with
+ * everything run together, for example:
+ * <pre>
+ *   Age: 34Marital status: MarriedRelation to Head: Wife
+ *   Age: 34; Marital Status: Married; Relation to Head: Wife
+ * </pre>
+ * Each field label gets "; " put in front of it (if it directly follows a
+ * letter or digit), and each correction replaces the text it matches.
+ *
+ * All the labels and corrections are found in one scan of the value:
+ * a table, indexed by first character, gives the few strings that could
+ * start at each position. So more labels can be added to the table
+ * without adding more passes over the value.
+ *
+ * The results are the same as doing a {@code replaceAll("(\\w)Label", "$1; Label")}
+ * for each label (in the order added), followed by a {@code replace} for
+ * each correction. That includes the quirks of the regular expressions:
+ * matches of one label don't overlap, so a label directly following the
+ * same label, which got a separator, doesn't get one itself ("xAgeAge"
+ * becomes "x; AgeAge"), and neither does one starting inside it ("xaaa"
+ * becomes "x; aaa" for a label "aa"). To keep this true, a label that
+ * could start inside a label added after it isn't allowed: its separator
+ * would break up the later label, before the later label is looked for.
+ * Nor is a semicolon in a label or correction, as it could match part of
+ * a separator.
+ */
+final class CensusNoteRewriter {
+    private static final class Entry {
+        final String text;
+        final String replacement; // null for a label
+        final boolean leading;
+        final int order;
+
+        Entry(final String text, final String replacement, final boolean leading, final int order) {
+            this.text = text;
+            this.replacement = replacement;
+            this.leading = leading;
+            this.order = order;
+        }
+    }
+
+    private static final Entry[] NONE = {};
+
+    private final List<Entry> labels = new ArrayList<>();
+    private final List<Entry> corrections = new ArrayList<>();
+    private final Entry[][] byFirstChar = new Entry[128][];
+
+    CensusNoteRewriter() {
+        Arrays.fill(this.byFirstChar, NONE);
+    }
+
+    /**
+     * Adds a field label. If leading is true, a NOTE that starts with this
+     * label is taken to be a census NOTE (see {@link #appliesTo}).
+     */
+    CensusNoteRewriter label(final String label, final boolean leading) {
+        final Entry entry = new Entry(label, null, leading, this.labels.size());
+        check(entry);
+        for (final Entry earlier : this.labels) {
+            checkStartsInside(earlier.text, label);
+        }
+        for (final Entry correction : this.corrections) {
+            checkInside(label, correction.text);
+        }
+        this.labels.add(entry);
+        index(entry);
+        return this;
+    }
+
+    /**
+     * Adds a correction, which must be the same length as the text it
+     * replaces (for example, a change of case). Corrections shouldn't
+     * overlap each other; where they do, the one that starts first wins.
+     */
+    CensusNoteRewriter correct(final String text, final String replacement) {
+        if (text.length() != replacement.length()) {
+            throw new IllegalArgumentException("correction must not change the length: " + text + " -> " + replacement);
+        }
+        final Entry entry = new Entry(text, replacement, false, this.corrections.size());
+        check(entry);
+        for (final Entry label : this.labels) {
+            checkInside(label.text, text);
+        }
+        this.corrections.add(entry);
+        index(entry);
+        return this;
+    }
+
+    boolean appliesTo(final String value) {
+        for (final Entry label : this.labels) {
+            if (label.leading && value.startsWith(label.text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String rewrite(final String value) {
+        final int len = value.length();
+        StringBuilder out = null;
+
+        // for each label, where it last got a separator
+        final int[] lastEnd = new int[this.labels.size()];
+        Arrays.fill(lastEnd, -1);
+
+        // the correction being copied (if any), and where it ends
+        Entry correcting = null;
+        int correctingStart = 0;
+        int correctingEnd = 0;
+
+        for (int p = 0; p < len; ++p) {
+            final char c = value.charAt(p);
+            final Entry[] candidates = c < 128 ? this.byFirstChar[c] : NONE;
+
+            boolean separate = false;
+            for (final Entry entry : candidates) {
+                if (!value.startsWith(entry.text, p)) {
+                    continue;
+                }
+                if (entry.replacement == null) {
+                    // the first label (in order added) to qualify gets the separator; after that the previous character is a space;
+                    // (the character before the label is part of the regex match, so it can't be part of the last match)
+                    if (!separate && 0 < p && isWordChar(value.charAt(p - 1)) && p > lastEnd[entry.order]) {
+                        separate = true;
+                        lastEnd[entry.order] = p + entry.text.length();
+                    }
+                } else if (p >= correctingEnd) {
+                    correcting = entry;
+                    correctingStart = p;
+                    correctingEnd = p + entry.text.length();
+                }
+            }
+
+            if (separate) {
+                if (out == null) {
+                    out = new StringBuilder(len + 16).append(value, 0, p);
+                }
+                out.append("; ");
+            }
+            final char r = p < correctingEnd ? correcting.replacement.charAt(p - correctingStart) : c;
+            if (out == null && r != c) {
+                out = new StringBuilder(len + 16).append(value, 0, p);
+            }
+            if (out != null) {
+                out.append(r);
+            }
+        }
+
+        return out == null ? value : out.toString();
+    }
+
+    private static boolean isWordChar(final char c) {
+        // same as regex \w
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || ('0' <= c && c <= '9') || c == '_';
+    }
+
+    private static void check(final Entry entry) {
+        if (entry.text.isEmpty() || entry.text.charAt(0) >= 128) {
+            throw new IllegalArgumentException("must start with an ASCII character: " + entry.text);
+        }
+        // (it could match a separator put in by a label)
+        if (entry.text.indexOf(';') >= 0) {
+            throw new IllegalArgumentException("must not contain a semicolon: " + entry.text);
+        }
+    }
+
+    /*
+    Corrections are done after all the separators, in the original; a label
+    starting inside a correction (even if it runs past the end of it) could
+    get a separator that breaks up the text to be corrected. We don't handle
+    that, so don't allow it.
+     */
+    private static void checkInside(final String label, final String correction) {
+        if (startsInside(label, correction)) {
+            throw new IllegalArgumentException("label " + label + " must not start inside correction " + correction);
+        }
+    }
+
+    /*
+    An earlier label's separator is put in before a later label is looked
+    for, so an earlier label starting inside a later one could break up the
+    later one, in the same way.
+     */
+    private static void checkStartsInside(final String earlier, final String label) {
+        if (startsInside(earlier, label)) {
+            throw new IllegalArgumentException("label " + earlier + " must not start inside label " + label + " added after it");
+        }
+    }
+
+    private static boolean startsInside(final String inner, final String outer) {
+        for (int k = 1; k < outer.length(); ++k) {
+            if (outer.regionMatches(k, inner, 0, Math.min(outer.length() - k, inner.length()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void index(final Entry entry) {
+        final char c = entry.text.charAt(0);
+        final Entry[] was = this.byFirstChar[c];
+        final Entry[] now = Arrays.copyOf(was, was.length + 1);
+        now[was.length] = entry;
+        this.byFirstChar[c] = now;
+    }
+}
@@ -0,0 +1,344 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A whole GEDCOM file held compactly: each line is a row in a set of
+ * parallel primitive arrays (level, tag, parent, first child, next
+ * sibling), and the ID, pointer, and value of each line are UTF-8 bytes
+ * in a shared arena, referred to by offset. That is about 40 bytes per
+ * line, plus the text, instead of the several objects per line of a tree
+ * of {@link TreeNode}s.
+ *
+ * The passes still work on {@link TreeNode}s: {@link #record} builds a
+ * tree for one top-level record (a view, not linked to the store), and
+ * {@link #replace} stores a changed record back. The changed record is
+ * stored in new rows, leaving the old ones unused; once more rows are
+ * unused than used, the store is rebuilt without them.
+ *
+ * Tags are stored as the ordinal of their {@link GedcomTag}, or (for
+ * tags that are not in the enum) as a negative index into a small table
+ * of the other tags seen.
+ */
+final class CompactTree {
+    private static final int NONE = -1;
+    private static final long EMPTY = -1L;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final GedcomTag[] TAGS = GedcomTag.values();
+
+    private int size;
+    private int unused;
+    private short[] level = new short[1024];
+    private int[] tag = new int[1024];
+    private int[] parent = new int[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private long[] id = new long[1024];
+    private long[] pointer = new long[1024];
+    private long[] value = new long[1024];
+
+    // row of each top-level record (NONE if deleted), in order
+    private int[] records = new int[256];
+    private int recordCount;
+    private final Map<String, Integer> mapIdToRecord = new HashMap<>(1024);
+
+    private final List<String> otherTags = new ArrayList<>(64);
+    private final Map<String, Integer> mapOtherTag = new HashMap<>(64);
+
+    private final List<byte[]> blocks = new ArrayList<>();
+    private int blockUsed = BLOCK_SIZE;
+
+    /**
+     * Adds a top-level record (and all its descendants) at the end.
+     *
+     * @return the index of the new record
+     */
+    int add(final TreeNode<GedcomLine> record) {
+        final int i = newRecord();
+        this.records[i] = store(record, NONE);
+        indexId(i);
+        return i;
+    }
+
+    private int newRecord() {
+        if (this.recordCount == this.records.length) {
+            this.records = Arrays.copyOf(this.records, this.recordCount * 2);
+        }
+        final int i = this.recordCount++;
+        this.records[i] = NONE;
+        return i;
+    }
+
+    int recordCount() {
+        return this.recordCount;
+    }
+
+    boolean isDeleted(final int i) {
+        return this.records[i] == NONE;
+    }
+
+    /**
+     * Finds the (last) top-level record with the given ID.
+     *
+     * @return the record's index, or -1 if there is none
+     */
+    int find(final String id) {
+        final Integer i = this.mapIdToRecord.get(id);
+        return i == null || isDeleted(i) ? NONE : i;
+    }
+
+    /**
+     * Builds a tree of the given record, which can be changed freely and
+     * then stored back with {@link #replace}.
+     */
+    TreeNode<GedcomLine> record(final int i) {
+        if (isDeleted(i)) {
+            throw new IllegalArgumentException("record " + i + " has been deleted");
+        }
+        return view(this.records[i]);
+    }
+
+    /**
+     * Stores the given record in place of record i, unless it is the same.
+     */
+    void replace(final int i, final TreeNode<GedcomLine> record) {
+        final int old = this.records[i];
+        if (old != NONE && same(old, record)) {
+            return;
+        }
+        unindexId(i);
+        this.records[i] = store(record, NONE);
+        indexId(i);
+        release(old);
+    }
+
+    void delete(final int i) {
+        unindexId(i);
+        final int old = this.records[i];
+        this.records[i] = NONE;
+        release(old);
+    }
+
+    /**
+     * @return number of rows (lines) stored, including unused ones
+     */
+    int rows() {
+        return this.size;
+    }
+
+    private void release(final int row) {
+        if (row != NONE) {
+            this.unused += count(row);
+            if (this.unused > this.size - this.unused) {
+                rebuild();
+            }
+        }
+    }
+
+    private int count(final int row) {
+        int n = 1;
+        for (int c = this.firstChild[row]; c != NONE; c = this.nextSibling[c]) {
+            n += count(c);
+        }
+        return n;
+    }
+
+    /*
+    Copies the records into a new store, leaving the unused rows and text
+    behind, and takes over its arrays.
+     */
+    private void rebuild() {
+        final CompactTree fresh = new CompactTree();
+        for (int i = 0; i < this.recordCount; ++i) {
+            if (isDeleted(i)) {
+                fresh.newRecord();
+            } else {
+                fresh.add(record(i));
+            }
+        }
+        this.size = fresh.size;
+        this.unused = 0;
+        this.level = fresh.level;
+        this.tag = fresh.tag;
+        this.parent = fresh.parent;
+        this.firstChild = fresh.firstChild;
+        this.nextSibling = fresh.nextSibling;
+        this.id = fresh.id;
+        this.pointer = fresh.pointer;
+        this.value = fresh.value;
+        this.records = fresh.records;
+        this.mapIdToRecord.clear();
+        this.mapIdToRecord.putAll(fresh.mapIdToRecord);
+        this.blocks.clear();
+        this.blocks.addAll(fresh.blocks);
+        this.blockUsed = fresh.blockUsed;
+        this.otherTags.clear();
+        this.otherTags.addAll(fresh.otherTags);
+        this.mapOtherTag.clear();
+        this.mapOtherTag.putAll(fresh.mapOtherTag);
+    }
+
+    /*
+    Checks whether the rows under row hold the same lines as the tree.
+     */
+    private boolean same(final int row, final TreeNode<GedcomLine> node) {
+        final GedcomLine line = node.getObject();
+        if (this.level[row] != line.getLevel() ||
+            !tagString(this.tag[row]).equals(line.getTagString()) ||
+            !string(this.id[row]).equals(line.getID()) ||
+            !string(this.pointer[row]).equals(line.getPointer()) ||
+            !string(this.value[row]).equals(line.getValue())) {
+            return false;
+        }
+        int c = this.firstChild[row];
+        for (final TreeNode<GedcomLine> child : node) {
+            if (c == NONE || !same(c, child)) {
+                return false;
+            }
+            c = this.nextSibling[c];
+        }
+        return c == NONE;
+    }
+
+    /*
+    Drops the index entry for record i's ID, if it is for record i (and
+    not for a later record with the same ID).
+     */
+    private void unindexId(final int i) {
+        final int row = this.records[i];
+        if (row != NONE && this.id[row] != EMPTY) {
+            this.mapIdToRecord.remove(string(this.id[row]), i);
+        }
+    }
+
+    private void indexId(final int i) {
+        final long offset = this.id[this.records[i]];
+        if (offset != EMPTY) {
+            this.mapIdToRecord.put(string(offset), i);
+        }
+    }
+
+    private int store(final TreeNode<GedcomLine> node, final int parentRow) {
+        final GedcomLine line = node.getObject();
+        final int row = newRow();
+        this.level[row] = (short)line.getLevel();
+        this.tag[row] = tagSymbol(line);
+        this.parent[row] = parentRow;
+        this.id[row] = put(line.getID());
+        this.pointer[row] = put(line.getPointer());
+        this.value[row] = put(line.getValue());
+
+        int prev = NONE;
+        for (final TreeNode<GedcomLine> child : node) {
+            final int c = store(child, row);
+            if (prev == NONE) {
+                this.firstChild[row] = c;
+            } else {
+                this.nextSibling[prev] = c;
+            }
+            prev = c;
+        }
+        return row;
+    }
+
+    private int newRow() {
+        if (this.size == this.level.length) {
+            final int n = this.size * 2;
+            this.level = Arrays.copyOf(this.level, n);
+            this.tag = Arrays.copyOf(this.tag, n);
+            this.parent = Arrays.copyOf(this.parent, n);
+            this.firstChild = Arrays.copyOf(this.firstChild, n);
+            this.nextSibling = Arrays.copyOf(this.nextSibling, n);
+            this.id = Arrays.copyOf(this.id, n);
+            this.pointer = Arrays.copyOf(this.pointer, n);
+            this.value = Arrays.copyOf(this.value, n);
+        }
+        final int row = this.size++;
+        this.firstChild[row] = NONE;
+        this.nextSibling[row] = NONE;
+        return row;
+    }
+
+    private int tagSymbol(final GedcomLine line) {
+        final GedcomTag t = line.getTag();
+        if (t != GedcomTag.UNKNOWN) {
+            return t.ordinal();
+        }
+        return -1 - this.mapOtherTag.computeIfAbsent(line.getTagString(), s -> {
+            this.otherTags.add(s);
+            return this.otherTags.size() - 1;
+        });
+    }
+
+    private String tagString(final int symbol) {
+        return symbol >= 0 ? TAGS[symbol].name() : this.otherTags.get(-1 - symbol);
+    }
+
+    private TreeNode<GedcomLine> view(final int row) {
+        final long p = this.pointer[row];
+        final TreeNode<GedcomLine> node = new TreeNode<>(new GedcomLine(
+            this.level[row],
+            "@" + string(this.id[row]) + "@",
+            tagString(this.tag[row]),
+            p != EMPTY ? "@" + string(p) + "@" : string(this.value[row])));
+        for (int c = this.firstChild[row]; c != NONE; c = this.nextSibling[c]) {
+            node.addChild(view(c));
+        }
+        return node;
+    }
+
+    /*
+    Each string is stored as its length (as a variable-length number)
+    followed by its UTF-8 bytes, all within one block; the offset has the
+    block number in the high 32 bits.
+     */
+    private long put(final String s) {
+        if (s.isEmpty()) {
+            return EMPTY;
+        }
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        final int need = bytes.length + 5;
+        if (this.blockUsed + need > BLOCK_SIZE || this.blocks.isEmpty()) {
+            this.blocks.add(new byte[Math.max(BLOCK_SIZE, need)]);
+            this.blockUsed = 0;
+        }
+        final int b = this.blocks.size() - 1;
+        final byte[] block = this.blocks.get(b);
+        final long offset = ((long)b << 32) | this.blockUsed;
+        int pos = this.blockUsed;
+        int n = bytes.length;
+        while (n >= 0x80) {
+            block[pos++] = (byte)(n | 0x80);
+            n >>>= 7;
+        }
+        block[pos++] = (byte)n;
+        System.arraycopy(bytes, 0, block, pos, bytes.length);
+        // (a block bigger than BLOCK_SIZE holds just the one string)
+        this.blockUsed = block.length > BLOCK_SIZE ? BLOCK_SIZE : pos + bytes.length;
+        return offset;
+    }
+
+    private String string(final long offset) {
+        if (offset == EMPTY) {
+            return "";
+        }
+        final byte[] block = this.blocks.get((int)(offset >>> 32));
+        int pos = (int)offset;
+        int n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = block[pos++];
+            n |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return new String(block, pos, n, StandardCharsets.UTF_8);
+    }
+}
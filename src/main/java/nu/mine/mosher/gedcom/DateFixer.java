@@ -0,0 +1,479 @@
+package nu.mine.mosher.gedcom;
+
+/**
+ * Converts the value of a DATE line into standard GEDCOM form, for example
+ * "Bet. 1 Sep 1981–2 Jun 1984" becomes "BET 01 SEP 1981 AND 02 JUN 1984".
+ *
+ * This is a hand-written recognizer that makes one pass over the value for
+ * each form of date it checks, working in a character buffer that is reused
+ * from one call to the next. It accepts exactly the forms that the original
+ * series of regular expressions did:
+ * <pre>
+ *   BET|BTW[.] x–|-| AND y     BEF[.]|BEFORE x     AFT[.]|AFTER x
+ *   FROM x TO y     TO x     FROM x     ABT|C[.] x     yyyy–|-yyyy     x
+ * </pre>
+ * where each x or y is one of: d/d/d, d MON y, MON y, MON, d MON, or a
+ * number (a day if 31 or less, otherwise a year). Values that aren't
+ * recognized are returned in upper case, but otherwise unchanged.
+ *
+ * Instances are not thread-safe; use {@link #fixDate}, which keeps one
+ * instance per thread.
+ */
+final class DateFixer {
+    private static final String monthName[] = {
+            "UNKNOWN_MONTH",
+            "JAN",
+            "FEB",
+            "MAR",
+            "APR",
+            "MAY",
+            "JUN",
+            "JUL",
+            "AUG",
+            "SEP",
+            "OCT",
+            "NOV",
+            "DEC",
+    };
+
+    private static final char EN_DASH = '–';
+
+    private static volatile MonthNames monthNames = MonthNames.ENGLISH_ONLY;
+
+    private static final ThreadLocal<DateFixer> fixers = ThreadLocal.withInitial(DateFixer::new);
+
+    private char[] buf = new char[64];
+    private int len;
+    private final StringBuilder out = new StringBuilder(48);
+
+    // result of the most recent call to parseSingle
+    private int year;
+    private int month;
+    private int day;
+
+    /**
+     * Sets which month names are recognized (English only, by default).
+     */
+    static void setMonthNames(final MonthNames names) {
+        monthNames = names;
+    }
+
+    static String fixDate(final String value) {
+        return fixers.get().fix(value);
+    }
+
+    String fix(final String value) {
+        load(value);
+        removeJulianEscapes();
+
+        this.out.setLength(0);
+        if (hasLineTerminator() || !(bet() || bef() || aft() || fromTo() || to() || from() || abt() || yearToYear() || single())) {
+            this.out.setLength(0);
+            this.out.append(this.buf, 0, this.len);
+        }
+
+        return value.contentEquals(this.out) ? value : this.out.toString();
+    }
+
+    /*
+    Copy the value into buf, in upper case. Plain ASCII (by far the most
+    common case) is converted here, one character at a time.
+     */
+    private void load(final String value) {
+        boolean ascii = true;
+        for (int i = 0; i < value.length() && ascii; ++i) {
+            final char c = value.charAt(i);
+            ascii = c < 0x80 || c == EN_DASH;
+        }
+        final String s = ascii ? value : value.toUpperCase();
+
+        this.len = s.length();
+        if (this.buf.length < this.len) {
+            this.buf = new char[Math.max(this.len, this.buf.length * 2)];
+        }
+        for (int i = 0; i < this.len; ++i) {
+            char c = s.charAt(i);
+            if ('a' <= c && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            this.buf[i] = c;
+        }
+    }
+
+    /*
+    Remove all "@#DJULIAN@ " escapes (with any number of @ on each side).
+     */
+    private void removeJulianEscapes() {
+        int w = 0;
+        int i = 0;
+        while (i < this.len) {
+            if (this.buf[i] == '@') {
+                final int endEscape = julianEscapeEnd(i);
+                if (endEscape >= 0) {
+                    i = endEscape;
+                } else {
+                    final int endAts = runOfAtsEnd(i);
+                    while (i < endAts) {
+                        this.buf[w++] = this.buf[i++];
+                    }
+                }
+            } else {
+                this.buf[w++] = this.buf[i++];
+            }
+        }
+        this.len = w;
+    }
+
+    private int julianEscapeEnd(final int start) {
+        final int endAts = runOfAtsEnd(start);
+        if (!startsWith(endAts, "#DJULIAN")) {
+            return -1;
+        }
+        final int startAts2 = endAts + "#DJULIAN".length();
+        final int endAts2 = runOfAtsEnd(startAts2);
+        if (endAts2 == startAts2 || endAts2 >= this.len || this.buf[endAts2] != ' ') {
+            return -1;
+        }
+        return endAts2 + 1;
+    }
+
+    private int runOfAtsEnd(int i) {
+        while (i < this.len && this.buf[i] == '@') {
+            ++i;
+        }
+        return i;
+    }
+
+    private boolean hasLineTerminator() {
+        for (int i = 0; i < this.len; ++i) {
+            final char c = this.buf[i];
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    BET|BTW[.] x (–|-| AND ) y
+    The separator is the last one in the value.
+     */
+    private boolean bet() {
+        if (!(startsWith(0, "BET") || startsWith(0, "BTW"))) {
+            return false;
+        }
+        final int start1 = afterOptionalDotAndSpace(3);
+        if (start1 < 0) {
+            return false;
+        }
+
+        int sep = this.len - 1;
+        int lenSep = 0;
+        while (sep >= start1 && lenSep == 0) {
+            if (this.buf[sep] == EN_DASH || this.buf[sep] == '-') {
+                lenSep = 1;
+            } else if (startsWith(sep, " AND ")) {
+                lenSep = " AND ".length();
+            } else {
+                --sep;
+            }
+        }
+        if (lenSep == 0) {
+            return false;
+        }
+
+        range("BET ", " AND ", "BEF ", "AFT ", start1, sep, sep + lenSep);
+        return true;
+    }
+
+    /*
+    FROM x TO y
+    The TO is the last one in the value.
+     */
+    private boolean fromTo() {
+        if (!startsWith(0, "FROM ")) {
+            return false;
+        }
+        final int start1 = "FROM ".length();
+        for (int sep = this.len - " TO ".length(); sep >= start1; --sep) {
+            if (startsWith(sep, " TO ")) {
+                range("FROM ", " TO ", "TO ", "FROM ", start1, sep, sep + " TO ".length());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    Writes a range of two dates. The second date provides the year and month
+    for the first, if it doesn't have them. If either date is missing, just
+    the other one is written, with the given prefix.
+     */
+    private void range(final String prefix, final String infix, final String prefixOnly2, final String prefixOnly1, final int start1, final int end1, final int start2) {
+        parseSingle(start2, this.len, 0, 0);
+        final int year2 = this.year;
+        final int month2 = this.month;
+        final int day2 = this.day;
+        parseSingle(start1, end1, year2, month2);
+
+        if (isMissing(this.year, this.month)) {
+            this.out.append(prefixOnly2);
+            appendDate(year2, month2, day2);
+        } else if (isMissing(year2, month2)) {
+            this.out.append(prefixOnly1);
+            appendDate(this.year, this.month, this.day);
+        } else {
+            this.out.append(prefix);
+            appendDate(this.year, this.month, this.day);
+            this.out.append(infix);
+            appendDate(year2, month2, day2);
+        }
+    }
+
+    private boolean bef() {
+        return prefixed("BEF ", "BEF. ", "BEF ", "BEFORE ");
+    }
+
+    private boolean aft() {
+        return prefixed("AFT ", "AFT. ", "AFT ", "AFTER ");
+    }
+
+    private boolean to() {
+        return prefixed("TO ", "TO ");
+    }
+
+    private boolean from() {
+        return prefixed("FROM ", "FROM ");
+    }
+
+    private boolean abt() {
+        return prefixed("ABT ", "ABT. ", "ABT ", "C. ", "C ");
+    }
+
+    /*
+    If the value starts with any of the given prefixes, write the date
+    that follows it, with the given standard prefix.
+     */
+    private boolean prefixed(final String standard, final String... prefixes) {
+        for (final String prefix : prefixes) {
+            if (startsWith(0, prefix)) {
+                parseSingle(prefix.length(), this.len, 0, 0);
+                this.out.append(standard);
+                appendDate(this.year, this.month, this.day);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    yyyy–yyyy
+     */
+    private boolean yearToYear() {
+        final int end1 = digitsEnd(0, this.len);
+        if (end1 == 0 || end1 >= this.len || !(this.buf[end1] == EN_DASH || this.buf[end1] == '-')) {
+            return false;
+        }
+        final int end2 = digitsEnd(end1 + 1, this.len);
+        if (end2 == end1 + 1 || end2 != this.len) {
+            return false;
+        }
+
+        this.out.append("FROM ");
+        parseSingle(0, end1, 0, 0);
+        appendDate(this.year, this.month, this.day);
+        this.out.append(" TO ");
+        parseSingle(end1 + 1, end2, 0, 0);
+        appendDate(this.year, this.month, this.day);
+        return true;
+    }
+
+    private boolean single() {
+        parseSingle(0, this.len, 0, 0);
+        if (isMissing(this.year, this.month)) {
+            return false;
+        }
+        appendDate(this.year, this.month, this.day);
+        return true;
+    }
+
+    /*
+    Parses one date in buf[start,end), into year, month, and day:
+        d/d/d  (as y/m/d, d/m/y, or m/d/y)
+        d MON y
+        MON y
+        MON
+        d MON
+        d  (a day if 31 or less, otherwise a year)
+    Any missing year or month is taken from the hints, unless the date is
+    not recognized at all.
+     */
+    private void parseSingle(final int start, final int end, int hintYear, int hintMonth) {
+        int y = 0, m = 0, d = 0;
+        boolean recognized = false;
+
+        final int endNum = digitsEnd(start, end);
+        if (endNum > start) {
+            if (endNum == end) {
+                final int x = number(start, endNum);
+                if (x <= 31) {
+                    d = x;
+                } else {
+                    y = x;
+                    hintMonth = 0;
+                }
+                recognized = true;
+            } else if (this.buf[endNum] == '/') {
+                final int end2 = digitsEnd(endNum + 1, end);
+                if (end2 > endNum + 1 && end2 < end && this.buf[end2] == '/') {
+                    final int end3 = digitsEnd(end2 + 1, end);
+                    if (end3 > end2 + 1 && end3 == end) {
+                        final int g1 = number(start, endNum);
+                        final int g2 = number(endNum + 1, end2);
+                        final int g3 = number(end2 + 1, end3);
+                        /* y/m/d,  m/d/y,  or  d/m/y */
+                        if (g1 >= 31) {
+                            y = g1;
+                            m = g2;
+                            d = g3;
+                        } else if (g1 > 12) {
+                            d = g1;
+                            m = g2;
+                            y = g3;
+                        } else {
+                            /* TODO: warn if g2 <= 12 */
+                            m = g1;
+                            d = g2;
+                            y = g3;
+                        }
+                        recognized = true;
+                    }
+                }
+            } else if (this.buf[endNum] == ' ') {
+                final int endMonth = monthEnd(endNum + 1, end);
+                if (endMonth > endNum + 1) {
+                    if (endMonth == end) {
+                        d = number(start, endNum);
+                        m = monthNames.lookup(this.buf, endNum + 1, endMonth);
+                        recognized = true;
+                    } else if (this.buf[endMonth] == ' ') {
+                        final int endYear = digitsEnd(endMonth + 1, end);
+                        if (endYear > endMonth + 1 && endYear == end) {
+                            d = number(start, endNum);
+                            m = monthNames.lookup(this.buf, endNum + 1, endMonth);
+                            y = number(endMonth + 1, endYear);
+                            recognized = true;
+                        }
+                    }
+                }
+            }
+        } else {
+            final int endMonth = monthEnd(start, end);
+            if (endMonth > start) {
+                if (endMonth == end) {
+                    m = monthNames.lookup(this.buf, start, endMonth);
+                    recognized = true;
+                } else if (this.buf[endMonth] == ' ') {
+                    final int endYear = digitsEnd(endMonth + 1, end);
+                    if (endYear > endMonth + 1 && endYear == end) {
+                        m = monthNames.lookup(this.buf, start, endMonth);
+                        y = number(endMonth + 1, endYear);
+                        recognized = true;
+                    }
+                }
+            }
+        }
+
+        if (!recognized) {
+            hintMonth = 0;
+            hintYear = 0;
+        }
+        if (y == 0) {
+            y = hintYear;
+        }
+        if (m == 0) {
+            m = hintMonth;
+        }
+        this.year = y;
+        this.month = m;
+        this.day = d;
+    }
+
+    private static boolean isMissing(final int y, final int m) {
+        return m == 0 && y == 0;
+    }
+
+    /*
+    Formats as "dd MON yyyy", "MON yyyy", or "yyyy".
+     */
+    private void appendDate(final int y, final int m, final int d) {
+        if (m > 0 && d > 0) {
+            if (d < 10) {
+                this.out.append('0');
+            }
+            this.out.append(d).append(' ').append(monthName[m]).append(' ').append(y);
+        } else if (m > 0) {
+            this.out.append(monthName[m]).append(' ').append(y);
+        } else {
+            this.out.append(y);
+        }
+    }
+
+    private int afterOptionalDotAndSpace(final int i) {
+        if (i + 1 < this.len && this.buf[i] == '.' && this.buf[i + 1] == ' ') {
+            return i + 2;
+        }
+        if (i < this.len && this.buf[i] == ' ') {
+            return i + 1;
+        }
+        return -1;
+    }
+
+    private boolean startsWith(final int i, final String s) {
+        if (i + s.length() > this.len) {
+            return false;
+        }
+        for (int j = 0; j < s.length(); ++j) {
+            if (this.buf[i + j] != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int digitsEnd(int i, final int end) {
+        while (i < end && '0' <= this.buf[i] && this.buf[i] <= '9') {
+            ++i;
+        }
+        return i;
+    }
+
+    /*
+    Returns the end of the month name starting at i, or i if there isn't one.
+    A month name is a run of ASCII letters (even if it is not a known month),
+    or else a run of any letters that is a known month.
+     */
+    private int monthEnd(final int start, final int end) {
+        boolean ascii = true;
+        int i = start;
+        while (i < end && Character.isLetter(this.buf[i])) {
+            ascii &= 'A' <= this.buf[i] && this.buf[i] <= 'Z';
+            ++i;
+        }
+        if (ascii || monthNames.lookup(this.buf, start, i) != 0) {
+            return i;
+        }
+        return start;
+    }
+
+    private int number(final int start, final int end) {
+        long n = 0;
+        for (int i = start; i < end; ++i) {
+            n = n * 10 + (this.buf[i] - '0');
+            if (n > Integer.MAX_VALUE) {
+                throw new NumberFormatException("For input string: \"" + new String(this.buf, start, end - start) + "\"");
+            }
+        }
+        return (int)n;
+    }
+}
@@ -0,0 +1,135 @@
+package nu.mine.mosher.gedcom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client for {@link FixerDaemon}: takes the same command line as
+ * {@link GedcomFixer} (after the socket), has the daemon fix the file, and
+ * writes the fixed GEDCOM to stdout and the .ids file next to the input,
+ * just as GedcomFixer would. It loads only a few small classes, so it
+ * starts quickly. See {@link FixerDaemon} for the protocol.
+ */
+public final class FixerClient {
+    static final String USAGE =
+        "\n\nusage:\n" +
+        "    gedcom-fixer-client SOCKET [--ids=FILE] [gedcom-fixer options] orig.ged [uid-remap-file] >fixed.ged\n" +
+        "orig.ged may be - to send stdin; then the .ids file is only written if --ids=FILE is given\n";
+
+    private FixerClient() {
+        throw new IllegalStateException();
+    }
+
+    public static void main(final String... args) throws IOException {
+        final BufferedOutputStream stdout = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+        final int status = run(args, new BufferedInputStream(new FileInputStream(FileDescriptor.in)), stdout, System.err);
+        stdout.close();
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /*
+    Sends one request, and copies the response to stdout (and the .ids file).
+    Returns the exit status: 0 if the file was fixed, 1 if the daemon reported
+    an error (which is printed on stderr).
+     */
+    static int run(final String[] args, final InputStream stdin, final OutputStream stdout, final PrintStream stderr) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        final List<String> request = new ArrayList<>(args.length);
+        File fileIds = null;
+        String gedcom = null;
+        for (int i = 1; i < args.length; ++i) {
+            final String arg = args[i];
+            if (arg.startsWith("--ids=")) {
+                fileIds = new File(arg.substring("--ids=".length()));
+            } else {
+                if (gedcom == null && !arg.startsWith("--")) {
+                    gedcom = arg;
+                }
+                request.add(arg);
+            }
+        }
+        if (gedcom == null) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        final boolean sendStdin = gedcom.equals("-");
+        if (request.contains("--stream")) {
+            // (--stream doesn't make a .ids file)
+            fileIds = null;
+        } else if (fileIds == null && !sendStdin) {
+            fileIds = new File(new File(gedcom).getCanonicalPath() + ".ids");
+        }
+
+        try (final SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]))) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            out.writeUTF(FixerDaemon.MAGIC);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(request.size());
+            for (final String arg : request) {
+                out.writeUTF(arg);
+            }
+            out.writeBoolean(sendStdin);
+            if (sendStdin) {
+                FixerDaemon.writeChunks(stdin, out);
+            }
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+            final ByteArrayOutputStream ids = new ByteArrayOutputStream();
+            byte[] buf = new byte[64 * 1024];
+            while (true) {
+                final byte type;
+                try {
+                    type = in.readByte();
+                } catch (final EOFException e) {
+                    throw new IOException("the daemon closed the connection without finishing", e);
+                }
+                final int len = in.readInt();
+                if (buf.length < len) {
+                    buf = new byte[len];
+                }
+                in.readFully(buf, 0, len);
+
+                if (type == FixerDaemon.OUT) {
+                    stdout.write(buf, 0, len);
+                } else if (type == FixerDaemon.IDS) {
+                    ids.write(buf, 0, len);
+                } else if (type == FixerDaemon.DONE) {
+                    stdout.flush();
+                    if (fileIds != null) {
+                        Files.write(fileIds.toPath(), ids.toByteArray());
+                    }
+                    return 0;
+                } else if (type == FixerDaemon.ERROR) {
+                    stdout.flush();
+                    stderr.println(new String(buf, 0, len, StandardCharsets.UTF_8));
+                    return 1;
+                } else {
+                    throw new IOException("unknown response from the daemon: " + type);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves fix requests over a Unix domain socket, so that a tool that fixes
+ * small files one at a time doesn't pay for JVM startup, class loading, and
+ * JIT warmup each time. Everything that is static in the fixer (the
+ * normalizer caches and the compiled patterns) stays warm between requests.
+ * Requests are served jobs at a time; {@link FixerClient} is the client.
+ *
+ * A request is:
+ * <pre>
+ *   UTF      MAGIC
+ *   UTF      working directory of the client (relative file names are relative to it)
+ *   int      number of arguments, then each argument as UTF (the gedcom-fixer command line)
+ *   boolean  true if the GEDCOM itself follows (the GEDCOM file argument is "-")
+ *   chunks   if so, the GEDCOM, as chunks
+ * </pre>
+ * where a chunk is an int length and then that many bytes, and a chunk of
+ * length 0 ends them. (UTF is as written by {@link DataOutputStream#writeUTF}.)
+ *
+ * The response is a series of frames, each a byte type, an int length, and
+ * that many bytes: {@link #OUT} frames carry the fixed GEDCOM, {@link #IDS}
+ * frames the contents of the .ids file, and then either an empty {@link #DONE}
+ * frame or an {@link #ERROR} frame with the error message in UTF-8.
+ */
+final class FixerDaemon implements Closeable {
+    interface Handler {
+        void fix(String cwd, List<String> args, InputStream gedcom, OutputStream out, OutputStream ids) throws IOException, InvalidLevel;
+    }
+
+    static final String MAGIC = "GEDCOM-FIXER/1";
+
+    static final byte OUT = 'O';
+    static final byte IDS = 'I';
+    static final byte DONE = 'X';
+    static final byte ERROR = 'E';
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Path socket;
+    private final int jobs;
+    private final ServerSocketChannel server;
+
+    /**
+     * Listens on the socket (replacing any socket file left by an earlier
+     * daemon that didn't shut down cleanly).
+     */
+    FixerDaemon(final Path socket, final int jobs) throws IOException {
+        this.socket = socket;
+        this.jobs = jobs;
+        Files.deleteIfExists(socket);
+        this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.server.bind(UnixDomainSocketAddress.of(socket));
+    }
+
+    /**
+     * Serves requests until this daemon is closed.
+     */
+    void serve(final Handler handler) throws IOException {
+        final ExecutorService pool = Executors.newFixedThreadPool(this.jobs);
+        try {
+            while (true) {
+                final SocketChannel client;
+                try {
+                    client = this.server.accept();
+                } catch (final AsynchronousCloseException e) {
+                    return;
+                }
+                pool.execute(() -> serve(client, handler));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        Files.deleteIfExists(this.socket);
+    }
+
+    private static void serve(final SocketChannel client, final Handler handler) {
+        try (final SocketChannel channel = client) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), CHUNK_SIZE));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), CHUNK_SIZE));
+            if (!in.readUTF().equals(MAGIC)) {
+                throw new IOException("not a " + MAGIC + " request");
+            }
+            final String cwd = in.readUTF();
+            final int n = in.readInt();
+            final List<String> args = new ArrayList<>(n);
+            for (int i = 0; i < n; ++i) {
+                args.add(in.readUTF());
+            }
+
+            final ChunkInputStream gedcom = new ChunkInputStream(in, in.readBoolean());
+            String error = null;
+            try {
+                handler.fix(cwd, args, gedcom, new FrameOutputStream(out, OUT), new FrameOutputStream(out, IDS));
+            } catch (final Exception e) {
+                error = e.toString();
+            }
+            // (the client sends all of the GEDCOM before it reads anything)
+            gedcom.skipRest();
+
+            if (error == null) {
+                writeFrame(out, DONE, new byte[0], 0, 0);
+            } else {
+                final byte[] message = error.getBytes(StandardCharsets.UTF_8);
+                writeFrame(out, ERROR, message, 0, message.length);
+            }
+            out.flush();
+        } catch (final IOException e) {
+            // the client went away, or didn't speak the protocol; there's no one to tell
+            System.err.println("gedcom-fixer daemon: " + e);
+        }
+    }
+
+    static void writeFrame(final DataOutputStream out, final byte type, final byte[] b, final int off, final int len) throws IOException {
+        out.writeByte(type);
+        out.writeInt(len);
+        out.write(b, off, len);
+    }
+
+    static void writeChunks(final InputStream from, final DataOutputStream out) throws IOException {
+        final byte[] buf = new byte[CHUNK_SIZE];
+        for (int n = from.read(buf); n >= 0; n = from.read(buf)) {
+            if (n > 0) {
+                out.writeInt(n);
+                out.write(buf, 0, n);
+            }
+        }
+        out.writeInt(0);
+    }
+
+    /*
+    Sends everything written to it as frames of one type.
+     */
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(final DataOutputStream out, final byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len > 0) {
+                writeFrame(this.out, this.type, b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+    }
+
+    /*
+    Reads the GEDCOM chunks of a request (if it has any).
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private final DataInputStream in;
+        private boolean ended;
+        private int left;
+
+        ChunkInputStream(final DataInputStream in, final boolean hasChunks) {
+            this.in = in;
+            this.ended = !hasChunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (this.left == 0 && !this.ended) {
+                this.left = this.in.readInt();
+                this.ended = this.left == 0;
+            }
+            if (this.ended) {
+                return -1;
+            }
+            final int n = this.in.read(b, off, Math.min(len, this.left));
+            if (n < 0) {
+                throw new IOException("request ended in the middle of the GEDCOM");
+            }
+            this.left -= n;
+            return n;
+        }
+
+        void skipRest() throws IOException {
+            final byte[] buf = new byte[CHUNK_SIZE];
+            while (read(buf, 0, buf.length) >= 0) {
+                // just skipping
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several node-level passes over a tree in one recursive walk.
+ *
+ * At each node, every pre-order hook runs (in registration order), then
+ * the children are walked, then every post-order hook runs (in registration
+ * order). Fusing passes this way gives the same result as running them one
+ * after another only if each hook reads and changes nothing but the node
+ * it is given and that node's subtree; any other structural edit must be
+ * queued and applied after the walk.
+ */
+class FusedTraversal {
+    interface NodeVisitor {
+        void visit(TreeNode<GedcomLine> node);
+    }
+
+    private final List<NodeVisitor> pre = new ArrayList<>(4);
+    private final List<NodeVisitor> post = new ArrayList<>(8);
+
+    FusedTraversal pre(final NodeVisitor visitor) {
+        this.pre.add(visitor);
+        return this;
+    }
+
+    FusedTraversal post(final NodeVisitor visitor) {
+        this.post.add(visitor);
+        return this;
+    }
+
+    void traverse(final TreeNode<GedcomLine> node) {
+        runPreHooks(node);
+        node.forEach(this::traverse);
+        runPostHooks(node);
+    }
+
+    /**
+     * Runs the pre-order hooks on the given node only (not its children).
+     */
+    void runPreHooks(final TreeNode<GedcomLine> node) {
+        for (final NodeVisitor visitor : this.pre) {
+            visitor.visit(node);
+        }
+    }
+
+    /**
+     * Runs the post-order hooks on the given node only (not its children).
+     */
+    void runPostHooks(final TreeNode<GedcomLine> node) {
+        for (final NodeVisitor visitor : this.post) {
+            visitor.visit(node);
+        }
+    }
+}
@@ -6,61 +6,31 @@ import nu.mine.mosher.gedcom.exception.InvalidLevel;
 import nu.mine.mosher.gedcom.model.Event;
 import nu.mine.mosher.gedcom.model.Loader;
 import nu.mine.mosher.gedcom.model.Person;
+import nu.mine.mosher.gedcom.model.Source;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * Created by user on 1/13/16.
  */
 public class GedcomFixer {
-    private static final Map<String, Integer> mapMonthNameToNumber = new HashMap<>(24,1);
-
-    static {
-        mapMonthNameToNumber.put("JAN", 1);
-        mapMonthNameToNumber.put("FEB", 2);
-        mapMonthNameToNumber.put("MAR", 3);
-        mapMonthNameToNumber.put("APR", 4);
-        mapMonthNameToNumber.put("MAY", 5);
-        mapMonthNameToNumber.put("JUN", 6);
-        mapMonthNameToNumber.put("JUL", 7);
-        mapMonthNameToNumber.put("AUG", 8);
-        mapMonthNameToNumber.put("SEP", 9);
-        mapMonthNameToNumber.put("OCT", 10);
-        mapMonthNameToNumber.put("NOV", 11);
-        mapMonthNameToNumber.put("DEC", 12);
-        mapMonthNameToNumber.put("JANUARY", 1);
-        mapMonthNameToNumber.put("FEBRUARY", 2);
-        mapMonthNameToNumber.put("MARCH", 3);
-        mapMonthNameToNumber.put("APRIL", 4);
-        mapMonthNameToNumber.put("MAY", 5);
-        mapMonthNameToNumber.put("JUNE", 6);
-        mapMonthNameToNumber.put("JULY", 7);
-        mapMonthNameToNumber.put("AUGUST", 8);
-        mapMonthNameToNumber.put("SEPTEMBER", 9);
-        mapMonthNameToNumber.put("OCTOBER", 10);
-        mapMonthNameToNumber.put("NOVEMBER", 11);
-        mapMonthNameToNumber.put("DECEMBER", 12);
-    }
-
-    private static final String monthName[] = {
-            "UNKNOWN_MONTH",
-            "JAN",
-            "FEB",
-            "MAR",
-            "APR",
-            "MAY",
-            "JUN",
-            "JUL",
-            "AUG",
-            "SEP",
-            "OCT",
-            "NOV",
-            "DEC",
-    };
+    /* longest value written on one line; the rest goes in CONC lines */
+    private static final int MAX_LENGTH = 60;
 
     private static final Map<String, String> mapUsaStateCodeToName = new HashMap<>(51,1);
 
@@ -118,14 +88,137 @@ public class GedcomFixer {
         mapUsaStateCodeToName.put("WY", "Wyoming");
     }
 
+    /*
+    Memos in front of the pure value normalizers; they are static so
+    they are shared by all threads and all files fixed in this JVM.
+     */
+    private static final NormalizerCache dates = new NormalizerCache("DATE", GedcomFixer::fixDate);
+    private static final NormalizerCache names = new NormalizerCache("NAME", GedcomFixer::formatName);
+    private static final NormalizerCache places = new NormalizerCache("PLAC", GedcomFixer::fixPlace);
+
     public static void main(final String... args) throws InvalidLevel, IOException {
-        if (args.length < 1) {
-            throw new IllegalArgumentException("\n\nusage:\n    gedcom-fixer orig.ged [uid-remap-file] >fixed.ged");
+        final GedcomFixerOptions options = GedcomFixerOptions.parse(args);
+        DateFixer.setMonthNames(MonthNames.of(options.monthLanguages));
+        dates.clear();
+        setCacheCapacity(options.cacheSize);
+
+        if (options.daemonSocket != null) {
+            if (options.cacheStats) {
+                Runtime.getRuntime().addShutdownHook(new Thread(GedcomFixer::showCacheStats));
+            }
+            final FixerDaemon daemon = new FixerDaemon(options.daemonSocket.toPath(), options.jobs);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    daemon.close();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            daemon.serve((cwd, request, gedcom, out, ids) -> fixRequest(options, cwd, request, gedcom, out, ids));
+            return;
         }
 
+        if (options.batch) {
+            final BatchFixer batch = new BatchFixer(BatchFixer.inputs(options.batchArgs), options.jobs);
+            batch.run((in, fixed, err) -> writeIfChanged(fixed, out -> run(options.forFile(in, err), out)), System.err);
+            batch.report(System.err);
+            if (options.cacheStats) {
+                showCacheStats();
+            }
+            if (batch.failed() > 0) {
+                throw new IllegalStateException("files failed: " + batch.failed());
+            }
+            return;
+        }
+
+        if (options.fileOutput == null) {
+            final FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+            final BufferedOutputStream out = new BufferedOutputStream(stdout);
+            run(options, out, stdout.getChannel());
+            out.close();
+        } else {
+            writeIfChanged(options.fileOutput, out -> run(options, out));
+        }
+
+        if (options.cacheStats) {
+            showCacheStats();
+        }
+    }
+
+    /*
+    Fixes one file for a request to the daemon. A GEDCOM sent in the request
+    (file name "-") is first saved to a temporary file. The .ids file is
+    written to a temporary file too, and then sent back (if there is one);
+    the fixed GEDCOM is sent back as it is written (unless the request gives
+    --output).
+     */
+    static void fixRequest(final GedcomFixerOptions daemon, final String cwd, final List<String> args, final InputStream gedcom, final OutputStream out, final OutputStream ids) throws InvalidLevel, IOException {
+        final GedcomFixerOptions options = GedcomFixerOptions.parse(args.toArray(new String[0])).forDaemon(new File(cwd), daemon);
+        final Path dir = Files.createTempDirectory("gedcom-fixer");
+        try {
+            if (options.fileGedcom.getPath().equals("-")) {
+                options.fileGedcom = dir.resolve("stdin.ged").toFile();
+                Files.copy(gedcom, options.fileGedcom.toPath());
+            }
+            options.fileIds = dir.resolve("ids").toFile();
+
+            if (options.fileOutput == null) {
+                final BufferedOutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+                run(options, buffered);
+            } else {
+                writeIfChanged(options.fileOutput, o -> run(options, o));
+            }
+            // (--stream doesn't make a .ids file)
+            if (options.fileIds.exists()) {
+                Files.copy(options.fileIds.toPath(), ids);
+                ids.flush();
+            }
+        } finally {
+            try (final Stream<Path> files = Files.list(dir)) {
+                for (final Path file : (Iterable<Path>)files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /*
+    Fixes one file, writing the fixed GEDCOM to out (which is flushed, but
+    not closed). The .ids file is written next to the input file (or to
+    options.fileIds).
+     */
+    static void run(final GedcomFixerOptions options, final BufferedOutputStream out) throws InvalidLevel, IOException {
+        run(options, out, null);
+    }
+
+    /*
+    As above; channel, if not null, is the file that out writes to, which
+    the parallel writer can write to directly.
+     */
+    static void run(final GedcomFixerOptions options, final BufferedOutputStream out, final FileChannel channel) throws InvalidLevel, IOException {
+        final PassStats stats = new PassStats(options.stats);
+        try {
+            if (options.stream) {
+                if (options.compact) {
+                    stats.run("stream", null, () -> streamCompact(options.fileGedcom, out, options.err));
+                } else {
+                    stats.run("stream", null, () -> stream(options.fileGedcom, out, options.err));
+                }
+            } else {
+                run(options, out, channel, stats);
+            }
+        } finally {
+            stats.print(options.err);
+        }
+    }
+
+    private static void run(final GedcomFixerOptions options, final BufferedOutputStream out, final FileChannel channel, final PassStats stats) throws InvalidLevel, IOException {
+        final TagOrder tagOrder = TagOrder.read(options.fileTagOrder);
+
         final Map<UUID, String> mapRemapUidToId = new HashMap<>(512);
-        if (args.length > 1) {
-            final File fileIdsToRemap = new File(args[1]);
+        if (options.fileUidRemap != null) {
+            final File fileIdsToRemap = options.fileUidRemap;
             final BufferedReader f = new BufferedReader(new InputStreamReader(new FileInputStream(fileIdsToRemap)));
             for (String line = f.readLine(); line != null; line = f.readLine()) {
                 final String[] rf = line.split(",");
@@ -133,27 +226,54 @@ public class GedcomFixer {
             }
         }
 
-        final File in = new File(args[0]);
-        final GedcomTree gt = Gedcom.readFile(new BufferedInputStream(new FileInputStream(in)));
-        new GedcomConcatenator(gt).concatenate();
+        final File in = options.fileGedcom;
+        final GedcomTree gt = stats.read("readFile", () -> options.mmap
+            ? MappedGedcomReader.read(in, options.threads)
+            : Gedcom.readFile(new BufferedInputStream(new FileInputStream(in))));
+        final TreeNode<GedcomLine> root = gt.getRoot();
+        if (!options.mmap) {
+            // (the memory-mapped reader joins CONC and CONT lines as it reads them)
+            stats.run("concatenate", root, () -> new GedcomConcatenator(gt).concatenate());
+        }
         gt.setCharset(StandardCharsets.UTF_8);
+        if (options.shareLines) {
+            final LinePool pool = new LinePool();
+            stats.run("shareLines", root, () -> pool.intern(root));
+            options.err.println(pool);
+        }
 
-        fix(gt.getRoot(), gt);
-        removeFrelMrelPhoto(gt.getRoot());
-        removeDuplicateCitations(gt.getRoot());
-        combineMultipleDataRecords(gt.getRoot());
-        removeOrphanedSourAndNote(gt);
-        removeEmptyNotes(gt);
-        changeSourNoteToSourText(gt);
-        improveCensusNotesFromAncestry(gt);
-        convertObje55LinksToRecords(gt);
-        convertFhObjeTo551(gt);
-        addNewNodes();
-        delOldNodes();
-
-        final Map<String, String> mapRemapIds = new HashMap<>(mapRemapUidToId.size());
+        final ReferenceIndex refs = new ReferenceIndex(root);
+        stats.run("indexReferences", root, () -> refs.add(root));
 
-        gt.getRoot().forEach(top -> {
+        final PendingEdits edits = new PendingEdits();
+
+        if (options.incremental) {
+            final RecordCache cache = new RecordCache("months=" + String.join(",", options.monthLanguages));
+            final File fileCache = getCacheFile(in);
+            stats.run("readCache", null, () -> cache.read(fileCache));
+            stats.run("fixRecords", root, () -> fixRecords(root, refs, edits, cache, options.threads));
+            stats.run("writeCache", null, () -> cache.write(fileCache));
+            if (options.cacheStats) {
+                options.err.println(cache);
+            }
+        } else {
+            stats.run("fixRecords", root, () -> fixRecords(gt, refs, edits, options.threads));
+        }
+        stats.run("removeOrphanedSourAndNote", root, () -> removeOrphanedSourAndNote(gt, refs, edits, options.err));
+
+        // second walk: these must also see the nodes that fix() added
+        stats.run("cleanUpRecords", root, () -> new FusedTraversal()
+            .post(node -> removeEmptyNotes(node, refs, edits))
+            .post(GedcomFixer::changeSourNoteToSourText)
+            .post(GedcomFixer::improveCensusNotesFromAncestry)
+            .traverse(root));
+        stats.run("convertObje55LinksToRecords", root, () -> convertObje55LinksToRecords(gt, refs, edits, options.err));
+        stats.run("convertFhObjeTo551", root, () -> convertFhObjeTo551(gt));
+        stats.run("applyEdits", root, () -> edits.apply(refs));
+
+        final IdRemap remap = new IdRemap();
+
+        stats.run("findRemappedUids", root, () -> root.forEach(top -> {
             top.forEach(lev1 -> {
                 final GedcomLine gedcomLine = lev1.getObject();
                 if (gedcomLine.getTagString().equals("_UID") || gedcomLine.getTag().equals(GedcomTag.REFN)) {
@@ -162,44 +282,268 @@ public class GedcomFixer {
                         final String sRemapId = mapRemapUidToId.get(candidate);
                         if (sRemapId != null) {
                             // TODO check to make sure sRemapID doesn't already exist; or, maybe use Gedcom-Uid first!
-                            mapRemapIds.put(top.getObject().getID(), sRemapId);
+                            remap.rename(top.getObject().getID(), sRemapId);
                         }
                     } catch (final Throwable e) {
-                        e.printStackTrace();
+                        e.printStackTrace(options.err);
                     }
                 }
             });
+        }));
+
+
+
+        final Loader loader = new Loader(gt, in.getPath());
+        stats.run("Loader.parse", root, loader::parse);
+        stats.run("addEmptyRins", root, () -> addEmptyRins(gt));
+        stats.run("deepSort", root, () -> deepSort(root, loader, tagOrder, options.threads));
+        stats.run("buildWellFormedFamilyIds", root, () -> buildWellFormedFamilyIds(gt, remap));
+        remap.endRound();
+        stats.run("addUidsToFams", root, () -> addUidsToFams(gt, remap, mapRemapUidToId));
+        stats.run("changeUidToRefn", root, () -> changeUidToRefn(gt));
+        stats.run("fixSexRecords", root, () -> fixSexRecords(gt));
+        stats.run("addRins", root, () -> addRins(gt, remap));
+        remap.endRound();
+        stats.run("remapIds", root, () -> remapIds(refs, remap, options.err));
+        stats.run("addFamilyHistorianRootIndi", root, () -> addFamilyHistorianRootIndi(gt));
+        final Collator collator = options.collation == null ? null : Collator.getInstance(options.collation);
+        stats.run("sort", root, () -> sort(loader, tagOrder, collator, options.threads > 1));
+
+        stats.run("showSourDups", root, () -> showSourDups(gt, options.err));
+
+        // long values are split into CONC and CONT lines as they are written, not in the tree
+        final File fileIds = options.fileIds != null ? options.fileIds : getIdsFile(in);
+        if (options.threads > 1) {
+            stats.run("writeFileAndIds", root, () -> {
+                try (final BufferedWriter writerIds = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileIds), "UTF-8"))) {
+                    ParallelRecordWriter.write(root, MAX_LENGTH, options.threads, out, channel, writerIds, GedcomFixer::appendIds);
+                }
+            });
+            return;
+        }
+
+        stats.run("writeFile", root, () -> {
+            final GedcomRecordWriter writer = new GedcomRecordWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), MAX_LENGTH);
+            writer.write(root);
+            writer.flush();
+        });
+
+        stats.run("writeIds", root, () -> {
+            BufferedWriter writerIds = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileIds), "UTF-8"));
+            writeIds(gt, writerIds);
+            writerIds.flush();
+            writerIds.close();
+        });
+    }
+
+    static void setCacheCapacity(final int capacity) {
+        dates.setCapacity(capacity);
+        names.setCapacity(capacity);
+        places.setCapacity(capacity);
+    }
+
+    private static void showCacheStats() {
+        System.err.println(dates);
+        System.err.println(names);
+        System.err.println(places);
+    }
+
+    /*
+    Streaming mode: read, fix, and write one top-level record at a time,
+    so memory use does not grow with the size of the file. Only the passes
+    that look at nothing outside the record are run. In particular, NOTE
+    records are fixed when they are read, not via the pointers to them.
+     */
+    private static void stream(final File in, final OutputStream out, final PrintStream err) throws IOException {
+        final PendingEdits edits = new PendingEdits();
+        final FusedTraversal fixes = recordFixes(null, edits, false);
+        final FusedTraversal cleanups = new FusedTraversal()
+            .post(node -> removeEmptyNotes(node, null, edits))
+            .post(GedcomFixer::changeSourNoteToSourText)
+            .post(GedcomFixer::improveCensusNotesFromAncestry);
+
+        final GedcomRecordWriter writer = new GedcomRecordWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), MAX_LENGTH);
+        try (final GedcomRecordReader reader = new GedcomRecordReader(new BufferedReader(new InputStreamReader(new FileInputStream(in), StandardCharsets.UTF_8)), err)) {
+            for (TreeNode<GedcomLine> record = reader.next(); record != null; record = reader.next()) {
+                // give the record a root, so it can be treated just like a whole tree
+                final TreeNode<GedcomLine> root = new TreeNode<>();
+                root.addChild(record);
+
+                fixes.traverse(root);
+                edits.apply();
+
+                cleanups.traverse(root);
+                edits.apply();
+
+                fixCharset(root);
+                writer.write(root);
+            }
+            writer.flush();
+        }
+    }
+
+    /*
+    Streaming mode, but with the whole file held in a compact store first,
+    so that (as in a full run) a NOTE pointer can be followed to its NOTE
+    record, wherever that is in the file. Each record is fixed through a
+    tree view of it, along with the NOTE records it points to, and then
+    stored back; the clean-ups are done in a second sweep, after all the
+    NOTE records have been fixed.
+     */
+    private static void streamCompact(final File in, final OutputStream out, final PrintStream err) throws IOException {
+        final CompactTree store = new CompactTree();
+        try (final GedcomRecordReader reader = new GedcomRecordReader(new BufferedReader(new InputStreamReader(new FileInputStream(in), StandardCharsets.UTF_8)), err)) {
+            for (TreeNode<GedcomLine> record = reader.next(); record != null; record = reader.next()) {
+                store.add(record);
+            }
+        }
+
+        final PendingEdits edits = new PendingEdits();
+        forEachRecordWithNotes(store, (record, refs) -> {
+            recordFixes(refs, edits, false).traverse(record);
+            edits.apply(refs);
+        });
+        forEachRecordWithNotes(store, (record, refs) -> {
+            new FusedTraversal()
+                .post(node -> removeEmptyNotes(node, refs, edits))
+                .post(GedcomFixer::changeSourNoteToSourText)
+                .post(GedcomFixer::improveCensusNotesFromAncestry)
+                .traverse(record);
+            edits.apply(refs);
         });
 
+        final GedcomRecordWriter writer = new GedcomRecordWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), MAX_LENGTH);
+        for (int i = 0; i < store.recordCount(); ++i) {
+            if (!store.isDeleted(i)) {
+                final TreeNode<GedcomLine> root = new TreeNode<>();
+                root.addChild(store.record(i));
+                fixCharset(root);
+                writer.write(root);
+            }
+        }
+        writer.flush();
+    }
+
+    private interface RecordVisitor {
+        void visit(TreeNode<GedcomLine> record, ReferenceIndex refs);
+    }
+
+    /*
+    Calls the visitor for each record in the store, in order. The record
+    is under a root along with the NOTE records it points to, and refs
+    indexes them all; afterwards they are all stored back (or deleted,
+    if the visitor removed them from the root).
+     */
+    private static void forEachRecordWithNotes(final CompactTree store, final RecordVisitor visitor) {
+        for (int i = 0; i < store.recordCount(); ++i) {
+            if (store.isDeleted(i)) {
+                continue;
+            }
+            final int self = i;
+            final TreeNode<GedcomLine> root = new TreeNode<>();
+            final TreeNode<GedcomLine> record = store.record(i);
+            root.addChild(record);
 
+            final Map<Integer, TreeNode<GedcomLine>> notes = new LinkedHashMap<>();
+            new FusedTraversal().post(node -> {
+                final GedcomLine gedcomLine = node.getObject();
+                if (gedcomLine.getTag().equals(GedcomTag.NOTE) && gedcomLine.isPointer()) {
+                    final int j = store.find(gedcomLine.getPointer());
+                    if (j >= 0 && j != self && !notes.containsKey(j)) {
+                        notes.put(j, store.record(j));
+                    }
+                }
+            }).traverse(record);
+            notes.values().forEach(root::addChild);
 
-        final Loader loader = new Loader(gt, args[0]);
-        loader.parse();
-        addEmptyRins(gt);
-        deepSort(gt.getRoot(), loader);
-        buildWellFormedFamilyIds(gt, mapRemapIds);
-        remapIds(gt.getRoot(), mapRemapIds);
-        addUidsToFams(gt, mapRemapUidToId);
-        changeUidToRefn(gt);
-        fixSexRecords(gt);
-        addRins(gt);
-        addFamilyHistorianRootIndi(gt);
-        sort(loader);
+            final ReferenceIndex refs = new ReferenceIndex(root);
+            refs.add(root);
+            visitor.visit(record, refs);
 
-        showSourDups(gt);
+            storeBack(store, i, record, root);
+            notes.forEach((j, note) -> storeBack(store, j, note, root));
+        }
+    }
 
-        gt.setMaxLength(60);
-        new GedcomUnconcatenator(gt).unconcatenate();
-        final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
-        Gedcom.writeFile(gt, out);
-        out.flush();
-        out.close();
+    private static void storeBack(final CompactTree store, final int i, final TreeNode<GedcomLine> record, final TreeNode<GedcomLine> root) {
+        if (record.parent() == root) {
+            store.replace(i, record);
+        } else {
+            store.delete(i);
+        }
+    }
 
-        final File fileIds = getIdsFile(in);
-        BufferedWriter writerIds = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileIds), "UTF-8"));
-        writeIds(gt, writerIds);
-        writerIds.flush();
-        writerIds.close();
+    /*
+    The record-local passes, fused into one walk of the tree.
+     */
+    private static FusedTraversal recordFixes(final ReferenceIndex refs, final PendingEdits edits, final boolean deferSharedNotes) {
+        return new FusedTraversal()
+            .post(node -> {
+                if (deferSharedNotes && isSharedNote(node)) {
+                    // by the time this runs, the parent event's fix may have
+                    // turned a NOTE pointer into an inline NOTE, so keep the pointer
+                    final GedcomLine visited = node.getObject();
+                    edits.defer(target -> fix(node, visited.isPointer() ? visited : node.getObject(), refs, target));
+                } else {
+                    fix(node, refs, edits);
+                }
+            })
+            .post(node -> removeFrelMrelPhoto(node, edits))
+            .post(node -> removeDuplicateCitations(node, edits))
+            .post(GedcomFixer::combineMultipleDataRecords);
+    }
+
+    /*
+    Runs the record-local passes. With more than one thread, each top-level
+    record is fixed as a separate task. A NOTE record can be changed by
+    fixing any NOTE pointer to it, though, so fixing those is deferred and
+    done afterwards, in the same order a sequential run would do it.
+     */
+    private static void fixRecords(final GedcomTree gt, final ReferenceIndex refs, final PendingEdits edits, final int threads) {
+        final TreeNode<GedcomLine> root = gt.getRoot();
+        if (threads <= 1) {
+            recordFixes(refs, edits, false).traverse(root);
+            return;
+        }
+
+        final FusedTraversal rootFixes = recordFixes(refs, edits, false);
+        rootFixes.runPreHooks(root);
+
+        final List<TreeNode<GedcomLine>> records = new ArrayList<>(root.getChildCount());
+        root.forEach(records::add);
+        final PendingEdits[] recordEdits = new PendingEdits[records.size()];
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ParallelRecords.forEach(records, pool, (i, record) -> {
+                final PendingEdits e = new PendingEdits();
+                recordFixes(refs, e, true).traverse(record);
+                recordEdits[i] = e;
+            });
+        } finally {
+            pool.shutdown();
+        }
+        for (final PendingEdits e : recordEdits) {
+            e.replayInto(edits);
+        }
+
+        rootFixes.runPostHooks(root);
+    }
+
+    /*
+    Runs the record-local passes incrementally: groups of records that are
+    the same as in the previous run get their fixed versions from the
+    cache, and only the rest are fixed.
+     */
+    private static void fixRecords(final TreeNode<GedcomLine> root, final ReferenceIndex refs, final PendingEdits edits, final RecordCache cache, final int threads) throws IOException {
+        final FusedTraversal rootFixes = recordFixes(refs, edits, false);
+        rootFixes.runPreHooks(root);
+        cache.fixRecords(root, refs, edits, (record, e) -> recordFixes(refs, e, false).traverse(record), threads);
+        rootFixes.runPostHooks(root);
+    }
+
+    private static boolean isSharedNote(final TreeNode<GedcomLine> node) {
+        final GedcomLine gedcomLine = node.getObject();
+        return gedcomLine != null && gedcomLine.getTag().equals(GedcomTag.NOTE) && (gedcomLine.getLevel() == 0 || gedcomLine.isPointer());
     }
 
     private static void convertObje55To551(GedcomTree gt) {
@@ -221,7 +565,7 @@ public class GedcomFixer {
         });
     }
 
-    private static void showSourDups(final GedcomTree gt) {
+    private static void showSourDups(final GedcomTree gt, final PrintStream err) {
         final Map<String, List<TreeNode<GedcomLine>>> mapTitleToListSour = new HashMap<>();
 
         gt.getRoot().forEach(top -> {
@@ -243,12 +587,12 @@ public class GedcomFixer {
         for (final Map.Entry<String, List<TreeNode<GedcomLine>>> e : mapTitleToListSour.entrySet()) {
             final List<TreeNode<GedcomLine>> r = e.getValue();
             if (r.size() > 1) {
-                System.err.println("DUPLICATES: "+e.getKey());
+                err.println("DUPLICATES: "+e.getKey());
 
                 int cApid = 0;
                 String apidSourId = "";
                 for (final TreeNode<GedcomLine> node : r) {
-                    printDupSour(node);
+                    printDupSour(node, err);
                     final String apid = findChild(node, "_APID");
                     if (!apid.isEmpty()) {
                         ++cApid;
@@ -260,7 +604,7 @@ public class GedcomFixer {
                         final String apid = findChild(node, "_APID");
                         if (apid.isEmpty()) {
                             final String id = node.getObject().getID();
-                            System.err.println("    FIX WITH: sed -i 's/"+id+"/"+apidSourId+"/'");
+                            err.println("    FIX WITH: sed -i 's/"+id+"/"+apidSourId+"/'");
                         }
                     }
                 }
@@ -268,21 +612,21 @@ public class GedcomFixer {
         }
     }
 
-    private static void printDupSour(final TreeNode<GedcomLine> node) {
-        System.err.print("    ");
-        System.err.print(node.getObject().getID());
+    private static void printDupSour(final TreeNode<GedcomLine> node, final PrintStream err) {
+        err.print("    ");
+        err.print(node.getObject().getID());
         final String apid = findChild(node, "_APID");
         if (!apid.isEmpty()) {
-            System.err.print("[");
-            System.err.print(apid);
-            System.err.print("]");
+            err.print("[");
+            err.print(apid);
+            err.print("]");
         }
         final String publ = findChild(node, GedcomTag.PUBL);
         if (!publ.isEmpty()) {
-            System.err.print(" PUBL: ");
-            System.err.print(publ);
+            err.print(" PUBL: ");
+            err.print(publ);
         }
-        System.err.println();
+        err.println();
     }
 
     private static String findChild(final TreeNode<GedcomLine> item, final GedcomTag tag) {
@@ -299,25 +643,26 @@ public class GedcomFixer {
         return "";
     }
 
-    private static void improveCensusNotesFromAncestry(final GedcomTree gt) {
-        improveCensusNotesFromAncestryHelper(gt.getRoot(), gt);
-    }
-
-    private static void improveCensusNotesFromAncestryHelper(final TreeNode<GedcomLine> node, final GedcomTree gt) {
-        node.forEach(child -> improveCensusNotesFromAncestryHelper(child, gt));
+    /*
+    Field labels in Ancestry.com census NOTEs; add any others here.
+     */
+    private static final CensusNoteRewriter censusNotes = new CensusNoteRewriter()
+        .label("Age", true)
+        .label("Marital", true)
+        .label("Relation", true)
+        .label("Census Post", false)
+        .correct("Marital status", "Marital Status");
+
+    private static void improveCensusNotesFromAncestry(final TreeNode<GedcomLine> node) {
         final GedcomLine gedcomLine = node.getObject();
         if (gedcomLine != null) {
             final GedcomTag tag = gedcomLine.getTag();
             // if NOTE structure (not NOTE record)
             if (tag.equals(GedcomTag.NOTE) && gedcomLine.getLevel() > 0) {
                 String value = gedcomLine.getValue();
-                if (value.startsWith("Age") || value.startsWith("Marital") || value.startsWith("Relation")) {
+                if (censusNotes.appliesTo(value)) {
                     String origValue = value;
-                    value = value.replaceAll("(\\w)Age", "$1; Age");
-                    value = value.replaceAll("(\\w)Marital", "$1; Marital");
-                    value = value.replaceAll("(\\w)Relation", "$1; Relation");
-                    value = value.replaceAll("(\\w)Census Post", "$1; Census Post");
-                    value = value.replaceAll("Marital status", "Marital Status");
+                    value = censusNotes.rewrite(value);
                     if (!value.equals(origValue)) {
                         node.setObject(new GedcomLine(gedcomLine.getLevel(), "@" + gedcomLine.getID() + "@", gedcomLine.getTag().name(), value));
                     }
@@ -326,12 +671,7 @@ public class GedcomFixer {
         }
     }
 
-    private static void removeEmptyNotes(final GedcomTree gt) {
-        removeEmptyNotesHelper(gt.getRoot(), gt);
-    }
-
-    private static void removeEmptyNotesHelper(final TreeNode<GedcomLine> node, final GedcomTree gt) {
-        node.forEach(child -> removeEmptyNotesHelper(child, gt));
+    private static void removeEmptyNotes(final TreeNode<GedcomLine> node, final ReferenceIndex refs, final PendingEdits edits) {
         final GedcomLine gedcomLine = node.getObject();
         if (gedcomLine != null) {
             final GedcomTag tag = gedcomLine.getTag();
@@ -339,7 +679,11 @@ public class GedcomFixer {
             if (tag.equals(GedcomTag.NOTE) && gedcomLine.getLevel() > 0) {
                 String value = "";
                 if (gedcomLine.isPointer()) {
-                    final TreeNode<GedcomLine> topLevelNode = gt.getNode(gedcomLine.getPointer());
+                    if (refs == null) {
+                        // can't see the NOTE record, so leave it alone
+                        return;
+                    }
+                    final TreeNode<GedcomLine> topLevelNode = refs.record(gedcomLine.getPointer());
                     if (topLevelNode != null) {
                         value = topLevelNode.getObject().getValue();
                     }
@@ -349,15 +693,15 @@ public class GedcomFixer {
                 value = value.trim();
                 if (value.isEmpty()) {
                     if (gedcomLine.isPointer()) {
-                        final TreeNode<GedcomLine> topLevelNode = gt.getNode(gedcomLine.getPointer());
+                        final TreeNode<GedcomLine> topLevelNode = refs.record(gedcomLine.getPointer());
                         if (topLevelNode != null) {
                             if (!hasChild(topLevelNode,GedcomTag.SOUR)) {
-                                delNodes.add(topLevelNode);
+                                edits.delete(topLevelNode);
                             }
                         }
                     }
                     if (!hasChild(node,GedcomTag.SOUR)) {
-                        delNodes.add(node);
+                        edits.delete(node);
                     }
                 }
             }
@@ -373,35 +717,32 @@ public class GedcomFixer {
         return false;
     }
 
-    private static void removeOrphanedSourAndNote(final GedcomTree gt) {
-        final Set<String> setPointers = new HashSet<>(8192);
-        findPointers(gt.getRoot(), setPointers);
-
+    /*
+    A SOUR or NOTE record is an orphan if no SOUR or NOTE line points to it.
+     */
+    private static void removeOrphanedSourAndNote(final GedcomTree gt, final ReferenceIndex refs, final PendingEdits edits, final PrintStream err) {
         gt.getRoot().forEach(top -> {
             final GedcomLine gedcomLine = top.getObject();
             if (gedcomLine != null) {
                 final GedcomTag tag = gedcomLine.getTag();
                 if (tag.equals(GedcomTag.SOUR) || tag.equals(GedcomTag.NOTE)) {
-                    if (!setPointers.contains(gedcomLine.getID())) {
-                        System.err.println("Deleting orphaned top-level item: " + gedcomLine);
-                        delNodes.add(top);
+                    if (!isPointedToBySourOrNote(gedcomLine.getID(), refs)) {
+                        err.println("Deleting orphaned top-level item: " + gedcomLine);
+                        edits.delete(top);
                     }
                 }
             }
         });
     }
 
-    private static void findPointers(final TreeNode<GedcomLine> node, final Set<String> setPointers) {
-        node.forEach(child -> findPointers(child, setPointers));
-        final GedcomLine gedcomLine = node.getObject();
-        if (gedcomLine != null) {
-            final GedcomTag tag = gedcomLine.getTag();
+    private static boolean isPointedToBySourOrNote(final String id, final ReferenceIndex refs) {
+        for (final TreeNode<GedcomLine> node : refs.referrers(id)) {
+            final GedcomTag tag = node.getObject().getTag();
             if (tag.equals(GedcomTag.SOUR) || tag.equals(GedcomTag.NOTE)) {
-                if (gedcomLine.isPointer()) {
-                    setPointers.add(gedcomLine.getPointer());
-                }
+                return true;
             }
         }
+        return false;
     }
 
 /*
@@ -529,12 +870,12 @@ end
         }
     }
 
-    private static void convertObje55LinksToRecords(final GedcomTree gt) {
+    private static void convertObje55LinksToRecords(final GedcomTree gt, final ReferenceIndex refs, final PendingEdits edits, final PrintStream err) {
         final HashMap<String, String> mapFileToId = new HashMap<>(256);
-        convertObje55LinksToRecordsRecurse(gt.getRoot(),new ObjeIdManager(gt), mapFileToId, gt);
+        convertObje55LinksToRecordsRecurse(gt.getRoot(),new ObjeIdManager(gt), mapFileToId, gt, refs, edits, err);
     }
 
-    private static void convertObje55LinksToRecordsRecurse(TreeNode<GedcomLine> node, ObjeIdManager objeIdManager, HashMap<String, String> mapFileToId, GedcomTree gt) {
+    private static void convertObje55LinksToRecordsRecurse(TreeNode<GedcomLine> node, ObjeIdManager objeIdManager, HashMap<String, String> mapFileToId, GedcomTree gt, ReferenceIndex refs, PendingEdits edits, PrintStream err) {
         final Iterator<TreeNode<GedcomLine>> children = node.children();
         while (children.hasNext()) {
             final TreeNode<GedcomLine> child = children.next();
@@ -553,7 +894,7 @@ end
                     }
                 }
                 if (oldFileNode == null) {
-                    System.err.println("Could not find FILE for OBJE; will not move this OBJE.");
+                    err.println("Could not find FILE for OBJE; will not move this OBJE.");
                 } else {
                     final String file = oldFileNode.getObject().getValue();
                     String id = "";
@@ -564,7 +905,7 @@ end
                         mapFileToId.put(file, id);
 
                         final TreeNode<GedcomLine> topObje = new TreeNode<>(new GedcomLine(0, id, GedcomTag.OBJE.name(), ""));
-                        newNodes.add(new ChildToBeAdded(gt.getRoot(), topObje));
+                        edits.add(gt.getRoot(), topObje);
 
                         final TreeNode<GedcomLine> newFileNode = new TreeNode<>(new GedcomLine(1, "", GedcomTag.FILE.name(), fixAncestryImageUrl(file)));
                         topObje.addChild(newFileNode);
@@ -585,12 +926,13 @@ end
                     }
                     child.removeAllChildren();
                     child.setObject(new GedcomLine(gedcomLine.getLevel(), "", GedcomTag.OBJE.name(), id));
+                    refs.changed(child);
                 }
 
 
 
             } else {
-                convertObje55LinksToRecordsRecurse(child, objeIdManager, mapFileToId, gt);
+                convertObje55LinksToRecordsRecurse(child, objeIdManager, mapFileToId, gt, refs, edits, err);
             }
         }
     }
@@ -664,30 +1006,43 @@ end
         }
     }
 
-    private static void addRins(GedcomTree gt) {
-        final HashMap<String, String> remap = new HashMap<>();
-
+    /*
+    Fills in each empty RIN with its record's ID, and renames each record
+    that has a RIN to that RIN. The IDs here are as renamed by the earlier
+    rounds of the remap, which haven't been applied to the tree yet.
+     */
+    private static void addRins(GedcomTree gt, IdRemap remap) {
         gt.getRoot().forEach(top -> {
             final GedcomLine gedcomLine = top.getObject();
             if (gedcomLine != null && gedcomLine.hasID()) {
+                final String id = remap.current(gedcomLine.getID());
                 for (final TreeNode<GedcomLine> c : top) {
                     final GedcomLine gedcomLine1 = c.getObject();
                     if (gedcomLine1.getTag().equals(GedcomTag.RIN)) {
                         final String rin = gedcomLine1.getValue();
                         if (rin.isEmpty()) {
-                            c.setObject(new GedcomLine(gedcomLine1.getLevel(), "", GedcomTag.RIN.name(), gedcomLine.getID()));
+                            c.setObject(new GedcomLine(gedcomLine1.getLevel(), "", GedcomTag.RIN.name(), id));
                         } else {
-                            // TODO: safety check, make sure ID doesn't already exist
-                            if (!rin.equals(gedcomLine.getID())) {
-                                remap.put(gedcomLine.getID(), rin);
+                            if (!rin.equals(id)) {
+                                remap.rename(id, rin);
                             }
                         }
                     }
                 }
             }
         });
+    }
 
-        remapIds(gt.getRoot(), remap);
+    /*
+    Applies all the renames, in one pass over just the lines that have
+    (or point to) a renamed ID. Renaming two records to the same ID is
+    not prevented, but it is reported.
+     */
+    private static void remapIds(final ReferenceIndex refs, final IdRemap remap, final PrintStream err) {
+        for (final String id : remap.collisions(refs)) {
+            err.println("More than one record will have ID @" + id + "@ after remapping IDs.");
+        }
+        refs.remap(remap.toMap());
     }
 
     /*
@@ -699,8 +1054,6 @@ end
                 4 TEXT OBITUARY.CHARLOTTE LOVEJOY.On Saturday, September 19, 1885 p  <----- sub
      */
     private static void combineMultipleDataRecords(final TreeNode<GedcomLine> node) {
-        node.forEach(top -> combineMultipleDataRecords(top));
-
         TreeNode<GedcomLine> prev = null;
         final ListIterator<TreeNode<GedcomLine>> i = node.childrenList();
         while (i.hasNext()) {
@@ -763,7 +1116,7 @@ end
         });
     }
 
-    private static void addUidsToFams(final GedcomTree gt, Map<UUID, String> mapRemapUidToId) {
+    private static void addUidsToFams(final GedcomTree gt, final IdRemap remap, Map<UUID, String> mapRemapUidToId) {
         final Map<String, UUID> mapRemapIdToUid = new HashMap<>();
         mapRemapUidToId.forEach((uuid, id) -> {
             mapRemapIdToUid.put(id, uuid);
@@ -771,7 +1124,7 @@ end
         gt.getRoot().forEach(top -> {
             final GedcomLine gedcomLine = top.getObject();
             if (gedcomLine.getTag().equals(GedcomTag.FAM)) {
-                final String famId = gedcomLine.getID();
+                final String famId = remap.current(gedcomLine.getID());
                 if (mapRemapIdToUid.containsKey(famId)) {
                     final UUID famUuid = mapRemapIdToUid.get(famId);
                     top.addChild(new TreeNode<GedcomLine>(new GedcomLine(gedcomLine.getLevel()+1, "", "_UID", famUuid.toString())));
@@ -780,9 +1133,7 @@ end
         });
     }
 
-    private static void removeDuplicateCitations(TreeNode<GedcomLine> node) {
-        node.forEach(child -> removeDuplicateCitations(child));
-
+    private static void removeDuplicateCitations(TreeNode<GedcomLine> node, PendingEdits edits) {
         String sourPointer = "";
         for (final TreeNode<GedcomLine> child : node) {
             final GedcomLine gedcomLine = child.getObject();
@@ -792,41 +1143,41 @@ end
                     if (sourPointer.isEmpty()) {
                         sourPointer = gedcomLine.getPointer();
                     } else if (sourPointer.equals(gedcomLine.getPointer())) {
-                        delNodes.add(child);
+                        edits.delete(child);
                     }
                 }
             }
         }
     }
 
-    private static void removeFrelMrelPhoto(TreeNode<GedcomLine> node) {
-        node.forEach(child -> removeFrelMrelPhoto(child));
+    private static void removeFrelMrelPhoto(TreeNode<GedcomLine> node, PendingEdits edits) {
         final GedcomLine gedcomLine = node.getObject();
         if (gedcomLine != null) {
             final String tagString = gedcomLine.getTagString();
             if (tagString.equals("_FREL") || tagString.equals("_MREL") || tagString.equals("_PHOTO")) {
-                delNodes.add(node);
+                edits.delete(node);
             }
         }
     }
 
-    private static void changeSourNoteToSourText(GedcomTree gt) {
-        gt.getRoot().forEach(top -> {
-            final GedcomLine gedcomLine = top.getObject();
-            if (gedcomLine != null) {
-                if (gedcomLine.getTag().equals(GedcomTag.SOUR)) {
-                    top.forEach(lev1 -> {
-                        final GedcomLine line = lev1.getObject();
-                        if (line.getTag().equals(GedcomTag.NOTE)) {
-                            lev1.setObject(new GedcomLine(line.getLevel(), "@"+line.getID()+"@", GedcomTag.TEXT.name(), line.getValue()));
-                        }
-                    });
+    private static void changeSourNoteToSourText(final TreeNode<GedcomLine> lev1) {
+        final TreeNode<GedcomLine> top = lev1.parent();
+        if (top == null || top.parent() == null || top.parent().parent() != null) {
+            // only look at level-1 lines (children of top-level records)
+            return;
+        }
+        final GedcomLine gedcomLine = top.getObject();
+        if (gedcomLine != null) {
+            if (gedcomLine.getTag().equals(GedcomTag.SOUR)) {
+                final GedcomLine line = lev1.getObject();
+                if (line.getTag().equals(GedcomTag.NOTE)) {
+                    lev1.setObject(new GedcomLine(line.getLevel(), "@"+line.getID()+"@", GedcomTag.TEXT.name(), line.getValue()));
                 }
             }
-        });
+        }
     }
 
-    private static void buildWellFormedFamilyIds(GedcomTree gt, Map<String, String> mapRemapIds) {
+    private static void buildWellFormedFamilyIds(GedcomTree gt, IdRemap remap) {
         gt.getRoot().forEach(top -> {
             final GedcomLine gedcomLine = top.getObject();
             if (gedcomLine != null) {
@@ -851,31 +1202,27 @@ end
                     }
                     final String wellFormedId;
                     if (!h.isEmpty() && !w.isEmpty()) {
-                        wellFormedId = buildWellFormedId(h,w,mapRemapIds);
+                        wellFormedId = buildWellFormedId(h,w, remap);
                     } else if (!h.isEmpty() && !c1.isEmpty()) {
-                        wellFormedId = buildWellFormedId(h,c1, mapRemapIds);
+                        wellFormedId = buildWellFormedId(h,c1, remap);
                     } else if (!w.isEmpty() && !c1.isEmpty()) {
-                        wellFormedId = buildWellFormedId(w,c1, mapRemapIds);
+                        wellFormedId = buildWellFormedId(w,c1, remap);
                     } else {
-                        wellFormedId = buildWellFormedId(c1,c2, mapRemapIds);
+                        wellFormedId = buildWellFormedId(c1,c2, remap);
                     }
                     String existingId = gedcomLine.getID();
-                    if (mapRemapIds.containsKey(existingId)) {
-                        existingId = mapRemapIds.get(existingId);
+                    if (remap.isRenamed(existingId)) {
+                        existingId = remap.renamed(existingId);
                     }
-                    mapRemapIds.put(existingId, wellFormedId);
+                    remap.rename(existingId, wellFormedId);
                 }
             }
         });
     }
 
-    private static String buildWellFormedId(String a, String b, Map<String, String> mapRemapIds) {
-        if (mapRemapIds.containsKey(a)) {
-            a = mapRemapIds.get(a);
-        }
-        if (mapRemapIds.containsKey(b)) {
-            b = mapRemapIds.get(b);
-        }
+    private static String buildWellFormedId(String a, String b, IdRemap remap) {
+        a = remap.renamed(a);
+        b = remap.renamed(b);
         return "F_"+a+"_"+b;
     }
     private static void fixCharset(TreeNode<GedcomLine> root) {
@@ -892,212 +1239,180 @@ end
         }
     }
 
-    private static void remapIds(final TreeNode<GedcomLine> node, final Map<String, String> mapRemapIds) {
-        node.forEach(c -> remapIds(c, mapRemapIds));
-        final GedcomLine gedcomLine = node.getObject();
-        if (gedcomLine != null) {
-            if (gedcomLine.hasID()) {
-                final String newId = mapRemapIds.get(gedcomLine.getID());
-                if (newId != null) {
-                    node.setObject(new GedcomLine(gedcomLine.getLevel(), "@"+newId+"@", gedcomLine.getTagString(), gedcomLine.getValue()));
-                }
-            }
-            if (gedcomLine.isPointer()) {
-                final String newId = mapRemapIds.get(gedcomLine.getPointer());
-                if (newId != null) {
-                    // assume that no line with a pointer also has an ID (true as of Gedcom 5.5)
-                    node.setObject(new GedcomLine(gedcomLine.getLevel(), "", gedcomLine.getTagString(), "@"+newId+"@"));
-                }
+    private static void writeIds(final GedcomTree gt, final BufferedWriter writerIds) {
+        gt.getRoot().forEach(top -> {
+            try {
+                appendIds(top, writerIds);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
             }
-        }
+        });
     }
 
-    private static void writeIds(final GedcomTree gt, final BufferedWriter writerIds) {
-        gt.getRoot().forEach(top -> {
-            top.forEach(lev1 -> {
-                try {
-                    final GedcomLine gedcomLine = lev1.getObject();
-                    if (gedcomLine.getTag().equals(GedcomTag.REFN)) {
-                        final String id = top.getObject().getID();
-                        if (!id.isEmpty()) {
-                            writerIds.write(gedcomLine.getValue());
-                            writerIds.write(",");
-                            writerIds.write(id);
-                            writerIds.newLine();
-                        }
-                    }
-                } catch (final IOException e) {
-                    throw new IllegalStateException(e);
+    /*
+    Appends the .ids lines (REFN value, then ID) for one top-level record.
+     */
+    private static void appendIds(final TreeNode<GedcomLine> top, final Appendable ids) throws IOException {
+        for (final TreeNode<GedcomLine> lev1 : top) {
+            final GedcomLine gedcomLine = lev1.getObject();
+            if (gedcomLine.getTag().equals(GedcomTag.REFN)) {
+                final String id = top.getObject().getID();
+                if (!id.isEmpty()) {
+                    ids.append(gedcomLine.getValue());
+                    ids.append(",");
+                    ids.append(id);
+                    ids.append(System.lineSeparator());
                 }
-            });
-        });
+            }
+        }
     }
 
     private static File getIdsFile(final File in) throws IOException {
         return new File(in.getCanonicalPath()+".ids");
     }
 
-    private static void addNewNodes() {
-        newNodes.forEach(a -> {
-            a.parent.addChild(a.child);
-        });
+    private static File getCacheFile(final File in) throws IOException {
+        return new File(in.getCanonicalPath()+".cache");
     }
 
-    private static void delOldNodes() {
-        delNodes.forEach(TreeNode::removeFromParent);
+    private interface Output {
+        void write(BufferedOutputStream out) throws IOException, InvalidLevel;
     }
 
-    private static final Map<GedcomTag, Integer> mapTopLevelOrder = Collections.unmodifiableMap(new HashMap<GedcomTag, Integer>() {{
-        int i = 0;
-        put(GedcomTag.HEAD, i++); put(GedcomTag.SUBN, i++); put(GedcomTag.SUBM, i++);
-        put(GedcomTag.INDI, i++); put(GedcomTag.FAM, i++);
-        put(GedcomTag.REPO, i++); put(GedcomTag.SOUR, i++); put(GedcomTag.NOTE, i++); put(GedcomTag.OBJE, i++);
-        put(GedcomTag.TRLR, i++);
-    }});
-
-    private static final Map<GedcomTag, Integer> mapHeadOrder = Collections.unmodifiableMap(new HashMap<GedcomTag, Integer>() {{
-        int i = 0;
-        put(GedcomTag.CHAR, i++);
-        put(GedcomTag.LANG, i++);
-        put(GedcomTag.PLAC, i++);
-        put(GedcomTag.COPR, i++);
-
-        put(GedcomTag.SOUR, i++);
-        put(GedcomTag.DESI, i++);
-        put(GedcomTag.DATE, i++);
-        put(GedcomTag.SUBM, i++);
-        put(GedcomTag.SUBN, i++);
-        put(GedcomTag.FILE, i++);
-        put(GedcomTag.NOTE, i++);
-
-        put(GedcomTag.GEDC, i++);
-    }});
-
-    private static final Map<GedcomTag, Integer> mapEventOrder = Collections.unmodifiableMap(new HashMap<GedcomTag, Integer>() {{
-        int i = 0;
-        put(GedcomTag.TYPE, i++);
-        put(GedcomTag.DATE, i++);
-        put(GedcomTag.PLAC, i++);
-        put(GedcomTag.ADDR, i++);
-        put(GedcomTag.PHON, i++);
-        put(GedcomTag.AGE, i++);
-        put(GedcomTag.AGNC, i++);
-        put(GedcomTag.CAUS, i++);
-        put(GedcomTag.SOUR, i++);
-        put(GedcomTag.OBJE, i++);
-        put(GedcomTag.NOTE, i++);
-    }});
-
-    private static final Map<GedcomTag, Integer> mapIndiOrder = Collections.unmodifiableMap(new HashMap<GedcomTag, Integer>() {{
-        int i = 0;
-        put(GedcomTag.REFN, i++);
-        put(GedcomTag.RIN, i++);
-        put(GedcomTag.CHAN, i++);
-
-        put(GedcomTag.RFN, i++);
-        put(GedcomTag.AFN, i++);
-        put(GedcomTag.RESN, i++);
-
-        put(GedcomTag.NAME, i++);
-        put(GedcomTag.ALIA, i++);
-        put(GedcomTag.SEX, i++);
-        put(GedcomTag.FAMC, i++);
-        put(GedcomTag.FAMS, i++);
-        put(GedcomTag.ASSO, i++);
-        put(GedcomTag.DESI, i++);
-        put(GedcomTag.ANCI, i++);
-
-        put(GedcomTag.SOUR, i++);
-        put(GedcomTag.OBJE, i++);
-        put(GedcomTag.NOTE, i++);
-        put(GedcomTag.SUBM, i++);
-    }});
-
-    private static final Map<GedcomTag, Integer> mapFamOrder = Collections.unmodifiableMap(new HashMap<GedcomTag, Integer>() {{
-        int i = 0;
-        put(GedcomTag.REFN, i++);
-        put(GedcomTag.RIN, i++);
-        put(GedcomTag.CHAN, i++);
-
-        put(GedcomTag.HUSB, i++);
-        put(GedcomTag.WIFE, i++);
-        put(GedcomTag.NCHI, i++);
-        put(GedcomTag.CHIL, i++);
-
-        put(GedcomTag.SOUR, i++);
-        put(GedcomTag.OBJE, i++);
-        put(GedcomTag.NOTE, i++);
-        put(GedcomTag.SUBM, i++);
-    }});
-
-    private static final Map<GedcomTag, Integer> mapSourOrder = Collections.unmodifiableMap(new HashMap<GedcomTag, Integer>() {{
-        int i = 0;
-        put(GedcomTag.REFN, i++);
-        put(GedcomTag.RIN, i++);
-        put(GedcomTag.CHAN, i++);
+    /*
+    Writes to a temporary file, and then replaces the given file with it,
+    but only if what was written is different (by SHA-256 digest) from
+    what is already in the file. Otherwise the file is left untouched
+    (including its modification time), so tools that watch it don't see
+    a change.
+     */
+    private static void writeIfChanged(final File file, final Output body) throws IOException, InvalidLevel {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File temp = File.createTempFile(".gedcom-fixer-", ".tmp", dir);
+        try {
+            final MessageDigest digest = RecordCache.sha256();
+            try (final BufferedOutputStream out = new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(temp), digest))) {
+                body.write(out);
+            }
+            if (!(file.exists() && Arrays.equals(digest.digest(), digestOf(file)))) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
 
-        put(GedcomTag.REPO, i++);
+    private static byte[] digestOf(final File file) throws IOException {
+        final MessageDigest digest = RecordCache.sha256();
+        try (final InputStream in = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest)) {
+            final byte[] buf = new byte[8192];
+            while (in.read(buf) >= 0) {
+                // just digesting
+            }
+        }
+        return digest.digest();
+    }
 
-        put(GedcomTag.TITL, i++);
-        put(GedcomTag.AUTH, i++);
-        put(GedcomTag.PUBL, i++);
-        put(GedcomTag.ABBR, i++);
+    /*
+    Sorts the top-level records: by tag, then (depending on the tag) by
+    name, birth date, ID, title, and so on. Everything a comparison needs
+    is looked up once per record, into a TopLevelKey, and then the keys are
+    sorted. The sort is stable, so records that compare equal keep their
+    order. If a collator is given, names are compared by its collation keys,
+    rather than char by char.
+     */
+    private static void sort(final Loader loader, final TagOrder order, final Collator collator, final boolean parallel) {
+        final GedcomTree gedcom = loader.getGedcom();
+        final TreeNode<GedcomLine> root = gedcom.getRoot();
 
-        put(GedcomTag.DATA, i++);
-        put(GedcomTag.TEXT, i++);
+        final TopLevelKey[] keys = new TopLevelKey[root.getChildCount()];
+        int i = 0;
+        for (final TreeNode<GedcomLine> node : root) {
+            keys[i++] = new TopLevelKey(node, order.top, loader, collator);
+        }
 
-        put(GedcomTag.OBJE, i++);
-        put(GedcomTag.NOTE, i++);
-    }});
+        if (parallel) {
+            Arrays.parallelSort(keys);
+        } else {
+            Arrays.sort(keys);
+        }
 
-    private static final Map<GedcomTag, Integer> mapCitationOrder = Collections.unmodifiableMap(new HashMap<GedcomTag, Integer>() {{
-        int i = 0;
-        put(GedcomTag.PAGE, i++);
-        put(GedcomTag.QUAY, i++);
-        put(GedcomTag.EVEN, i++);
-        put(GedcomTag.DATA, i++);
-        put(GedcomTag.OBJE, i++);
-        put(GedcomTag.NOTE, i++);
-    }});
-
-    private static void sort(final Loader loader) {
-        final GedcomTree gedcom = loader.getGedcom();
-        final TreeNode<GedcomLine> root = gedcom.getRoot();
+        root.removeAllChildren();
+        for (final TopLevelKey key : keys) {
+            root.addChild(key.node);
+        }
+    }
 
-        root.sort((node1, node2) -> {
-            int c = 0;
-            if (c == 0) {
-                c = compareTags(node1, node2, mapTopLevelOrder);
+    private static final class TopLevelKey implements Comparable<TopLevelKey> {
+        private final TreeNode<GedcomLine> node;
+        private final GedcomTag tag;
+        private final int rank;
+
+        // only the ones needed for this tag are filled in
+        private String name;
+        private CollationKey collationKey;
+        private DatePeriod birth;
+        private String id;
+        private String title;
+        private String author;
+
+        TopLevelKey(final TreeNode<GedcomLine> node, final int[] order, final Loader loader, final Collator collator) {
+            this.node = node;
+            this.tag = node.getObject().getTag();
+            this.rank = TagOrder.rank(order, this.tag);
+
+            if (this.rank == TagOrder.UNKNOWN) {
+                return;
             }
-            if (c == 0) {
-                final GedcomTag tag = node1.getObject().getTag();
-                if (tag.equals(GedcomTag.INDI)) {
-                    c = loader.lookUpPerson(node1).getNameSortable().compareTo(loader.lookUpPerson(node2).getNameSortable());
+            if (this.tag.equals(GedcomTag.INDI)) {
+                final Person person = loader.lookUpPerson(node);
+                if (person != null) {
+                    this.name = person.getNameSortable();
+                    this.birth = person.getBirth();
+                    this.id = person.getID();
+                    if (collator != null && this.name != null) {
+                        this.collationKey = collator.getCollationKey(this.name);
+                    }
+                }
+            } else if (this.tag.equals(GedcomTag.SOUR)) {
+                final Source source = loader.lookUpSource(node);
+                if (source != null) {
+                    this.title = source.getTitle();
+                    this.author = source.getAuthor();
+                }
+            } else if (this.tag.equals(GedcomTag.FAM) || this.tag.equals(GedcomTag.NOTE)) {
+                this.id = node.getObject().getID();
+            } else if (this.tag.equals(GedcomTag.OBJE)) {
+                this.title = getTitlFromObje(node);
+            }
+        }
+
+        @Override
+        public int compareTo(final TopLevelKey that) {
+            int c = Integer.compare(this.rank, that.rank);
+            if (c == 0 && this.rank != TagOrder.UNKNOWN) {
+                // same rank means same tag
+                if (this.tag.equals(GedcomTag.INDI)) {
+                    c = this.collationKey != null ? this.collationKey.compareTo(that.collationKey) : this.name.compareTo(that.name);
                     if (c == 0) {
-                        c = loader.lookUpPerson(node1).getBirth().compareTo(loader.lookUpPerson(node2).getBirth());
+                        c = this.birth.compareTo(that.birth);
                     }
                     if (c == 0) {
-                        c = loader.lookUpPerson(node1).getID().compareTo(loader.lookUpPerson(node2).getID());
+                        c = this.id.compareTo(that.id);
                     }
-                } else if (tag.equals(GedcomTag.SOUR)) {
-                    c = loader.lookUpSource(node1).getTitle().compareTo(loader.lookUpSource(node2).getTitle());
+                } else if (this.tag.equals(GedcomTag.SOUR)) {
+                    c = this.title.compareTo(that.title);
                     if (c == 0) {
-                        c = loader.lookUpSource(node1).getAuthor().compareTo(loader.lookUpSource(node2).getAuthor());
+                        c = this.author.compareTo(that.author);
                     }
-                } else if (tag.equals(GedcomTag.FAM)) {
-                    c = node1.getObject().getID().compareTo(node2.getObject().getID());
-                } else if (tag.equals(GedcomTag.NOTE)) {
-                    c = node1.getObject().getID().compareTo(node2.getObject().getID());
-                } else if (tag.equals(GedcomTag.OBJE)) {
-                    c = compareObjes(node1, node2);
+                } else if (this.tag.equals(GedcomTag.FAM) || this.tag.equals(GedcomTag.NOTE)) {
+                    c = this.id.compareTo(that.id);
+                } else if (this.tag.equals(GedcomTag.OBJE)) {
+                    c = this.title.compareToIgnoreCase(that.title);
                 }
             }
             return c;
-        });
-    }
-
-    private static int compareObjes(TreeNode<GedcomLine> node1, TreeNode<GedcomLine> node2) {
-        return getTitlFromObje(node1).compareToIgnoreCase(getTitlFromObje(node2));
+        }
     }
 
     private static String getTitlFromObje(TreeNode<GedcomLine> node1) {
@@ -1111,168 +1426,168 @@ end
         return titl;
     }
 
-    private static void deepSort(final TreeNode<GedcomLine> node, final Loader loader) {
-        node.forEach(c -> deepSort(c, loader));
+    /*
+    Sorting the lines within one top-level record never affects any other
+    record, so with more than one thread each record is sorted as a
+    separate task. (The Loader is only read from, here.)
+     */
+    private static void deepSort(final TreeNode<GedcomLine> root, final Loader loader, final TagOrder order, final int threads) {
+        if (threads <= 1) {
+            deepSort(root, loader, order);
+            return;
+        }
+
+        final List<TreeNode<GedcomLine>> records = new ArrayList<>(root.getChildCount());
+        root.forEach(records::add);
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ParallelRecords.forEach(records, pool, (i, record) -> deepSort(record, loader, order));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void deepSort(final TreeNode<GedcomLine> node, final Loader loader, final TagOrder order) {
+        node.forEach(c -> deepSort(c, loader, order));
 
         if (node.getChildCount() > 0 && node.getObject() != null) {
             final GedcomTag tag = node.getObject().getTag();
             if (tag.equals(GedcomTag.INDI)) {
-                node.sort((node1, node2) -> {
-                    int c = 0;
-                    // TODO: We really should NOT change the order of multiple BIRT or DEAT records.
-                    final Event event1 = loader.lookUpEvent(node1);
-                    final Event event2 = loader.lookUpEvent(node2);
-                    if (event1 == null && event2 == null) {
-                        c = compareTags(node1, node2, mapIndiOrder);
-                    } else if (event1 == null) {
-                        c = -1;
-                        // TODO heuristic event ordering, such as BIRT < CHR, DEAT < PROB, DEAT < BURI, BIRT < other < DEAT
-                    } else if (event2 == null) {
-                        c = +1;
-                        // TODO heuristic event ordering, such as BIRT < CHR, DEAT < PROB, DEAT < BURI, BIRT < other < DEAT
-                    } else {
-                        final DatePeriod d1 = event1.getDate();
-                        final DatePeriod d2 = event2.getDate();
-                        if (d1 == null && d2 == null) {
-                            c = 0;
-                        } else if (d2 == null) {
-                            c = -1;
-                        } else if (d1 == null) {
-                            c = +1;
-                        } else {
-                            c = event1.getDate().compareTo(event2.getDate());
-                        }
-                        if (c == 0 ) {
-                            // TODO heuristic event ordering, such as BIRT < CHR, DEAT < PROB, DEAT < BURI, BIRT < other < DEAT
-                        }
-                    }
-                    return c;
-                });
+                // TODO: We really should NOT change the order of multiple BIRT or DEAT records.
+                sortChildren(node, order.indi, loader, false);
             } else if (tag.equals(GedcomTag.HEAD) && node.getObject().getLevel() == 0) {
-                node.sort((node1, node2) -> compareTags(node1, node2, mapHeadOrder));
+                sortChildren(node, order.head, null, false);
             } else if (tag.equals(GedcomTag.SOUR) && node.getObject().getLevel() == 0) {
-                node.sort((node1, node2) -> compareTags(node1, node2, mapSourOrder));
+                sortChildren(node, order.sour, null, false);
             } else if (tag.equals(GedcomTag.SOUR) && node.getObject().getLevel() > 0) {
-                node.sort((node1, node2) -> compareTags(node1, node2, mapCitationOrder));
+                sortChildren(node, order.citation, null, false);
             } else if (tag.equals(GedcomTag.FAM)) {
-                node.sort((node1, node2) -> {
-                    int c = 0;
-                    final Event event1 = loader.lookUpEvent(node1);
-                    final Event event2 = loader.lookUpEvent(node2);
-                    if (event1 == null && event2 == null) {
-                        c = compareTags(node1, node2, mapFamOrder);
-                        if (c == 0) {
-                            final GedcomLine line1 = node1.getObject();
-                            final GedcomLine line2 = node2.getObject();
-                            if (line1.getTag().equals(GedcomTag.CHIL)) {
-                                final TreeNode<GedcomLine> indi1 = loader.getGedcom().getNode(line1.getPointer());
-                                final Person person1 = loader.lookUpPerson(indi1);
-                                final TreeNode<GedcomLine> indi2 = loader.getGedcom().getNode(line2.getPointer());
-                                final Person person2 = loader.lookUpPerson(indi2);
-                                c = person1.getBirth().compareTo(person2.getBirth());
-                            }
-                            if (c == 0) {
-                                final String v1 = line1.isPointer() ? line1.getPointer() : line1.getValue();
-                                final String v2 = line2.isPointer() ? line2.getPointer() : line2.getValue();
-                                c = v1.compareTo(v2);
-                            }
-                        }
-                    } else if (event1 == null) {
-                        c = -1;
-                    } else if (event2 == null) {
-                        c = +1;
-                    } else {
-                        final DatePeriod d1 = event1.getDate();
-                        final DatePeriod d2 = event2.getDate();
-                        if (d1 == null && d2 == null) {
-                            c = 0;
-                        } else if (d2 == null) {
-                            c = -1;
-                        } else if (d1 == null) {
-                            c = +1;
-                        } else {
-                            c = event1.getDate().compareTo(event2.getDate());
-                        }
-                    }
-                    return c;
-                });
+                sortChildren(node, order.fam, loader, true);
             } else if (GedcomTag.setIndividualEvent.contains(tag) || GedcomTag.setIndividualAttribute.contains(tag) || GedcomTag.setFamilyEvent.contains(tag)) {
-                node.sort((node1, node2) -> compareTags(node1, node2, mapEventOrder));
+                sortChildren(node, order.event, null, false);
             }
         }
     }
 
-    private static int compareTags(TreeNode<GedcomLine> node1, TreeNode<GedcomLine> node2, final Map<GedcomTag, Integer> mapOrder) {
-        final GedcomLine line1 = node1.getObject();
-        final Integer o1 = mapOrder.get(line1.getTag());
-        final GedcomLine line2 = node2.getObject();
-        final Integer o2 = mapOrder.get(line2.getTag());
+    /*
+    Sorts the children of node (stably): events first, by date; then
+    everything else, by tag (in the given order); then, within a family,
+    children by birth date, and any remaining ties by value. Everything
+    the comparison needs is looked up once per child, into a ChildKey.
+    Without a loader there are no events, so it's just by tag.
+     */
+    static void sortChildren(final TreeNode<GedcomLine> node, final int[] order, final Loader loader, final boolean family) {
+        final ChildKey[] keys = new ChildKey[node.getChildCount()];
+        int i = 0;
+        for (final TreeNode<GedcomLine> child : node) {
+            keys[i++] = new ChildKey(child, order, loader, family);
+        }
+
+        Arrays.sort(keys, family ? GedcomFixer::compareFamilyChildren : GedcomFixer::compareChildren);
+
+        node.removeAllChildren();
+        for (final ChildKey key : keys) {
+            node.addChild(key.node);
+        }
+    }
+
+    private static final class ChildKey {
+        private final TreeNode<GedcomLine> node;
+        private final int rank;
+        private final Event event;
+        private final DatePeriod date;
+
+        // for children of a FAM, that aren't events
+        private DatePeriod birth;
+        private String value;
+
+        ChildKey(final TreeNode<GedcomLine> node, final int[] order, final Loader loader, final boolean family) {
+            this.node = node;
+            final GedcomLine line = node.getObject();
+            this.rank = TagOrder.rank(order, line.getTag());
+            this.event = loader == null ? null : loader.lookUpEvent(node);
+            this.date = this.event == null ? null : this.event.getDate();
+
+            if (family && this.event == null) {
+                if (line.getTag().equals(GedcomTag.CHIL)) {
+                    final Person person = loader.lookUpPerson(loader.getGedcom().getNode(line.getPointer()));
+                    this.birth = person == null ? null : person.getBirth();
+                }
+                this.value = line.isPointer() ? line.getPointer() : line.getValue();
+            }
+        }
+    }
 
-        if (o1 == null && o2 == null) {
-            return 0;
+    private static int compareChildren(final ChildKey key1, final ChildKey key2) {
+        if (key1.event == null && key2.event == null) {
+            return Integer.compare(key1.rank, key2.rank);
         }
-        if (o1 == null) {
+        return compareEvents(key1, key2);
+    }
+
+    private static int compareFamilyChildren(final ChildKey key1, final ChildKey key2) {
+        if (key1.event == null && key2.event == null) {
+            int c = Integer.compare(key1.rank, key2.rank);
+            if (c == 0) {
+                if (key1.node.getObject().getTag().equals(GedcomTag.CHIL)) {
+                    c = key1.birth.compareTo(key2.birth);
+                }
+                if (c == 0) {
+                    c = key1.value.compareTo(key2.value);
+                }
+            }
+            return c;
+        }
+        return compareEvents(key1, key2);
+    }
+
+    private static int compareEvents(final ChildKey key1, final ChildKey key2) {
+        if (key1.event == null) {
+            // TODO heuristic event ordering, such as BIRT < CHR, DEAT < PROB, DEAT < BURI, BIRT < other < DEAT
             return -1;
         }
-        if (o2 == null) {
+        if (key2.event == null) {
+            // TODO heuristic event ordering, such as BIRT < CHR, DEAT < PROB, DEAT < BURI, BIRT < other < DEAT
             return +1;
         }
-        if (o1 < o2) {
+        if (key1.date == null && key2.date == null) {
+            return 0;
+        }
+        if (key2.date == null) {
             return -1;
         }
-        if (o2 < o1) {
+        if (key1.date == null) {
             return +1;
         }
-        return 0;
-//        final String s1 = line1.isPointer() ? line1.getPointer() : line1.getValue();
-//        final String s2 = line2.isPointer() ? line2.getPointer() : line2.getValue();
-//        return s1.compareTo(s2);
+        // TODO heuristic event ordering, such as BIRT < CHR, DEAT < PROB, DEAT < BURI, BIRT < other < DEAT
+        return key1.date.compareTo(key2.date);
     }
 
-    private static final Pattern DATE_BET = Pattern.compile("(?:BET|BTW)\\.? (.*)(?:–|-| AND )(.*)");
-    private static final Pattern DATE_BEF = Pattern.compile("(?:BEF\\.?|BEFORE) (.*)");
-    private static final Pattern DATE_AFT = Pattern.compile("(?:AFT\\.?|AFTER) (.*)");
-    private static final Pattern DATE_ABT = Pattern.compile("(?:ABT|C)\\.? (.*)");
-    private static final Pattern DATE_FROMTO = Pattern.compile("FROM (.*) TO (.*)");
-    private static final Pattern DATE_FROM = Pattern.compile("FROM (.*)");
-    private static final Pattern DATE_TO = Pattern.compile("TO (.*)");
-    private static final Pattern DATE_Y_TO_Y = Pattern.compile("([0-9]+)(?:–|-)([0-9]+)");
-
-    static class dt {
-        String s;
-        int m;
-        int y;
-    }
-    static class ChildToBeAdded {
-        TreeNode<GedcomLine> parent;
-        TreeNode<GedcomLine> child;
-        ChildToBeAdded(TreeNode<GedcomLine> parent, TreeNode<GedcomLine> child) {
-            this.parent = parent; this.child = child;
-        }
-    }
-
-    private static final List<ChildToBeAdded> newNodes = new ArrayList<>(256);
-    private static final List<TreeNode<GedcomLine>> delNodes = new ArrayList<>(256);
-
     private static final Pattern NAME_WITH_SLASHED_SURNAME = Pattern.compile("^(.*)/(.*)/(.*)$");
     private static final Pattern USA_STATE_CODE = Pattern.compile("(.*)([A-Z]{2}), USA$");
 
-    private static void fix(final TreeNode<GedcomLine> origNode, final GedcomTree gt) {
-        origNode.forEach(child -> fix(child, gt));
+    private static void fix(final TreeNode<GedcomLine> origNode, final ReferenceIndex refs, final PendingEdits edits) {
+        fix(origNode, origNode.getObject(), refs, edits);
+    }
 
+    /*
+    Fixes the given node, taking its line to be origLine (which is what it
+    was when the node was visited).
+     */
+    private static void fix(final TreeNode<GedcomLine> origNode, final GedcomLine origLine, final ReferenceIndex refs, final PendingEdits edits) {
         TreeNode<GedcomLine> node = origNode;
 
-        GedcomLine gedcomLine = node.getObject();
+        GedcomLine gedcomLine = origLine;
         if (gedcomLine != null) {
             final GedcomTag tag = gedcomLine.getTag();
             String value = gedcomLine.getValue();
             String valueOrig = value;
             value = value.trim();
             if (tag.equals(GedcomTag.DATE)) {
-                value = fixDate(value);
+                value = dates.apply(value);
             } else if (tag.equals(GedcomTag.NOTE)) {
-                if (gedcomLine.isPointer()) {
-                    final TreeNode<GedcomLine> topLevelNode = gt.getNode(gedcomLine.getPointer());
+                if (gedcomLine.isPointer() && refs != null) {
+                    final TreeNode<GedcomLine> topLevelNode = refs.record(gedcomLine.getPointer());
                     if (topLevelNode != null) {
                         node = topLevelNode;
                         gedcomLine = node.getObject();
@@ -1281,20 +1596,14 @@ end
                     }
                 }
                 value = fixSpacing(value);
-                value = extractCustomTags(value, origNode).trim();
+                value = extractCustomTags(value, origNode, edits).trim();
             } else if (tag.equals(GedcomTag.TEXT)) {
                 value = fixSpacing(value);
             } else if (tag.equals(GedcomTag.PLAC)) {
-                final Matcher matcher = USA_STATE_CODE.matcher(value);
-                if (matcher.matches()) {
-                    final String nameState = mapUsaStateCodeToName.get(matcher.group(2));
-                    if (nameState != null) {
-                        value = matcher.group(1) + nameState + ", USA";
-                    }
-                }
+                value = places.apply(value);
             } else if (tag.equals(GedcomTag.NAME)) {
                 if (node.parent().getObject().getTag().equals(GedcomTag.INDI)) {
-                    value = formatName(value);
+                    value = names.apply(value);
                 }
             } else if (tag.equals(GedcomTag.TITL)) {
                 if (value.endsWith(".")) {
@@ -1305,7 +1614,7 @@ end
             } else if (tag.equals(GedcomTag.REPO)) {
                 /* sometimes ancestry exports empty REPO pointers; remove them */
                 if (gedcomLine.getPointer().isEmpty() && gedcomLine.getID().isEmpty()) {
-                    delNodes.add(node);
+                    edits.delete(node);
                 }
             } else if (tag.equals(GedcomTag.SOUR)) {
                 /* this is to remove the HEAD.SOUR record indicating this is from ancestry.com,
@@ -1313,7 +1622,7 @@ end
                 some of their own fixes, which could conflict with what this program is fixing
                 (like the automatic CONC fixing) */
                 if (value.startsWith("Ancestry.com")) {
-                    delNodes.add(node);
+                    edits.delete(node);
                 }
             } else if (tag.equals(GedcomTag.UNKNOWN)) {
                 final String tagString = gedcomLine.getTagString();
@@ -1394,27 +1703,90 @@ move data out of RESI (etc.) tags into NOTEs
             }
             if (!value.equals(valueOrig)) {
                 node.setObject(new GedcomLine(gedcomLine.getLevel(), "@" + gedcomLine.getID() + "@", gedcomLine.getTag().name(), value));
+                if (refs != null && node.getObject().isPointer()) {
+                    // a value that now looks like "@X@" reads as a pointer
+                    refs.changed(node);
+                }
             }
         }
     }
 
-    private static String fixSpacing(String value) {
+    /*
+    Ancestry.com converts each newline to two spaces; turn them back into
+    newlines, then tidy up: at most one blank line in a row, and no spaces
+    at the start or end of any line. (Any single space that is left over
+    from an odd number of spaces goes after the newlines, so it becomes
+    leading space, and is removed.)
+
+    This is one scan, with a little state: a run of newlines isn't written
+    until we know how long it is (only two are kept), and a single space
+    isn't written until we know it isn't followed by a newline.
+     */
+    static String fixSpacing(final String value) {
         // TODO: can we preserve original spacing any better here?
-//        while (value.contains("   ")) {
-//            value = value.replace("   ", " \n");
-//        }
-        // Ancestry.com converts each newline to two spaces
-        while (value.contains("  ")) {
-            value = value.replace("  ", "\n");
+        final int len = value.length();
+        final StringBuilder out = new StringBuilder(len);
+        int newlines = 0;
+        boolean space = false;
+        int i = 0;
+        while (i < len) {
+            final char c = value.charAt(i);
+            if (c == ' ') {
+                int end = i + 1;
+                while (end < len && value.charAt(end) == ' ') {
+                    ++end;
+                }
+                final int pairs = (end - i) / 2;
+                // pairs of spaces become newlines
+                newlines += pairs;
+                if ((end - i) % 2 != 0) {
+                    if (newlines > 0) {
+                        // leading space on a line: drop it (but it does end the run of newlines)
+                        appendNewlines(out, newlines);
+                        newlines = 0;
+                    } else {
+                        space = true;
+                    }
+                }
+                i = end;
+            } else if (c == '\n') {
+                // trailing space on a line: drop it
+                space = false;
+                ++newlines;
+                ++i;
+            } else {
+                appendNewlines(out, newlines);
+                newlines = 0;
+                if (space) {
+                    out.append(' ');
+                    space = false;
+                }
+                out.append(c);
+                ++i;
+            }
         }
-        while (value.contains("\n\n\n")) {
-            value = value.replace("\n\n\n", "\n\n");
+        appendNewlines(out, newlines);
+        if (space) {
+            out.append(' ');
         }
-        while (value.contains("\n ")) {
-            value = value.replace("\n ", "\n");
+
+        // nothing is ever added, so if nothing was removed then nothing changed
+        return out.length() == len ? value : out.toString();
+    }
+
+    private static void appendNewlines(final StringBuilder out, final int newlines) {
+        for (int n = Math.min(newlines, 2); n > 0; --n) {
+            out.append('\n');
         }
-        while (value.contains(" \n")) {
-            value = value.replace(" \n", "\n");
+    }
+
+    public static String fixPlace(String value) {
+        final Matcher matcher = USA_STATE_CODE.matcher(value);
+        if (matcher.matches()) {
+            final String nameState = mapUsaStateCodeToName.get(matcher.group(2));
+            if (nameState != null) {
+                value = matcher.group(1) + nameState + ", USA";
+            }
         }
         return value;
     }
@@ -1460,172 +1832,112 @@ move data out of RESI (etc.) tags into NOTEs
         return value;
     }
 
-    private static final Pattern CUSTOM_TAG = Pattern.compile("(_\\p{Alnum}+) +(.*)");
-
-    private static String extractCustomTags(final String value, final TreeNode<GedcomLine> node) {
-        try {
-            final BufferedReader reader = new BufferedReader(new StringReader(value));
-            final StringWriter ret = new StringWriter();
-            final BufferedWriter writer = new BufferedWriter(ret);
-            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                final Matcher matcher = CUSTOM_TAG.matcher(line.trim());
-                if (matcher.matches()) {
-                    final GedcomLine extracted = new GedcomLine(node.getObject().getLevel(), "", matcher.group(1), matcher.group(2));
-                    newNodes.add(new ChildToBeAdded(node.parent(),new TreeNode<GedcomLine>(extracted)));
-                } else {
-                    writer.write(line);
-                    writer.newLine();
-                }
-            }
-            writer.flush();
-            return  ret.toString();
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+    /*
+    Moves lines of the form "_TAG value" out of the note, into lines of
+    their own (siblings of the note). Most notes don't have any, so first
+    just look for a line that starts with an underscore; if there isn't one,
+    the note is returned as is. Otherwise each line is sliced out by index,
+    and checked by hand against what the old regular expression matched:
+        (_\p{Alnum}+) +(.*)
+    on the trimmed line. Lines that stay in the note each end with a newline.
+     */
+    static String extractCustomTags(final String value, final TreeNode<GedcomLine> node, final PendingEdits edits) {
+        if (!mayHaveCustomTags(value)) {
+            return value;
         }
-    }
 
-    public static String fixDate(String value) {
-        Matcher matcher;
-
-        value = value.toUpperCase();
-
-        if (value.contains("#D")) {
-            value = value.replaceAll("@+#DJULIAN@+ ", "");
-        }
+        final int len = value.length();
+        final StringBuilder ret = new StringBuilder(len + 1);
+        int start = 0;
+        while (start < len) {
+            // find the end of the line, the same way BufferedReader.readLine does
+            int end = start;
+            while (end < len && value.charAt(end) != '\n' && value.charAt(end) != '\r') {
+                ++end;
+            }
 
-        if ((matcher = DATE_BET.matcher(value)).matches()) {
-            final dt d2 = fixSingleDate(matcher.group(2));
-            final dt d1 = fixSingleDate(matcher.group(1), d2.y, d2.m);
-            if (d1.s.equals("0")) {
-                value = "BEF " + d2.s;
-            } else if (d2.s.equals("0")) {
-                value = "AFT " + d1.s;
-            } else {
-                value = "BET " + d1.s + " AND " + d2.s;
-            }
-        } else if ((matcher = DATE_BEF.matcher(value)).matches()) {
-            final dt d = fixSingleDate(matcher.group(1));
-            value = "BEF " + d.s;
-        } else if ((matcher = DATE_AFT.matcher(value)).matches()) {
-            final dt d = fixSingleDate(matcher.group(1));
-            value = "AFT " + d.s;
-        } else if ((matcher = DATE_FROMTO.matcher(value)).matches()) {
-            final dt d2 = fixSingleDate(matcher.group(2));
-            final dt d1 = fixSingleDate(matcher.group(1), d2.y, d2.m);
-            if (d1.s.equals("0")) {
-                value = "TO " + d2.s;
-            } else if (d2.s.equals("0")) {
-                value = "FROM " + d1.s;
+            int ts = start;
+            int te = end;
+            while (ts < te && value.charAt(ts) <= ' ') {
+                ++ts;
+            }
+            while (ts < te && value.charAt(te - 1) <= ' ') {
+                --te;
+            }
+            final int endTag = customTagEnd(value, ts, te);
+            if (endTag >= 0) {
+                int startValue = endTag;
+                while (value.charAt(startValue) == ' ') {
+                    ++startValue;
+                }
+                final GedcomLine extracted = new GedcomLine(node.getObject().getLevel(), "", value.substring(ts, endTag), value.substring(startValue, te));
+                edits.add(node.parent(), new TreeNode<GedcomLine>(extracted));
             } else {
-                value = "FROM " + d1.s + " TO " + d2.s;
-            }
-        } else if ((matcher = DATE_TO.matcher(value)).matches()) {
-            final dt d = fixSingleDate(matcher.group(1));
-            value = "TO " + d.s;
-        } else if ((matcher = DATE_FROM.matcher(value)).matches()) {
-            final dt d = fixSingleDate(matcher.group(1));
-            value = "FROM " + d.s;
-        } else if ((matcher = DATE_ABT.matcher(value)).matches()) {
-            final dt d = fixSingleDate(matcher.group(1));
-            value = "ABT " + d.s;
-        } else if ((matcher = DATE_Y_TO_Y.matcher(value)).matches()) {
-            final dt d1 = fixSingleDate(matcher.group(1));
-            final dt d2 = fixSingleDate(matcher.group(2));
-            value = "FROM " + d1.s + " TO " + d2.s;
-        } else {
-            final dt d = fixSingleDate(value);
-            if (!d.s.equals("0")) {
-                value = d.s;
+                ret.append(value, start, end).append('\n');
             }
-        }
-        return value;
-    }
-
-    private static final Pattern DATE_SLASHES = Pattern.compile("([0-9]+)/([0-9]+)/([0-9]+)");
-    private static final Pattern DATE_DMY = Pattern.compile("([0-9]+) ([A-Za-z]+) ([0-9]+)");
-    private static final Pattern DATE_MY = Pattern.compile("([A-Za-z]+) ([0-9]+)");
-    private static final Pattern DATE_M = Pattern.compile("([A-Za-z]+)");
-    private static final Pattern DATE_DM = Pattern.compile("([0-9]+) ([A-Za-z]+)");
-    private static final Pattern DATE_Y_OR_D = Pattern.compile("([0-9]+)");
 
-    private static dt fixSingleDate(final String date) {
-        return fixSingleDate(date, 0, 0);
+            if (end < len && value.charAt(end) == '\r' && end + 1 < len && value.charAt(end + 1) == '\n') {
+                ++end;
+            }
+            start = end + 1;
+        }
+        return ret.toString();
     }
 
-    private static dt fixSingleDate(final String date, int hintYear, int hintMonth) {
-        int year = 0, month = 0, day = 0;
-        Matcher m;
-
-
-        if ((m = DATE_SLASHES.matcher(date)).matches()) {
-            int g1 = Integer.parseInt(m.group(1));
-            int g2 = Integer.parseInt(m.group(2));
-            int g3 = Integer.parseInt(m.group(3));
-            /* y/m/d,  m/d/y,  or  d/m/y */
-            if (g1 >= 31) {
-                year = g1;
-                month = g2;
-                day = g3;
-            } else if (g1 > 12) {
-                day = g1;
-                month = g2;
-                year = g3;
-            } else {
-                /* TODO: warn if g2 <= 12 */
-                month = g1;
-                day = g2;
-                year = g3;
-            }
-        } else if ((m = DATE_DMY.matcher(date)).matches()) {
-            day = Integer.parseInt(m.group(1));
-            month = fixMonth(m.group(2));
-            year = Integer.parseInt(m.group(3));
-        } else if ((m = DATE_MY.matcher(date)).matches()) {
-            month = fixMonth(m.group(1));
-            year = Integer.parseInt(m.group(2));
-        } else if ((m = DATE_M.matcher(date)).matches()) {
-            month = fixMonth(m.group(1));
-        } else if ((m = DATE_DM.matcher(date)).matches()) {
-            day = Integer.parseInt(m.group(1));
-            month = fixMonth(m.group(2));
-        } else if ((m = DATE_Y_OR_D.matcher(date)).matches()) {
-            int x = Integer.parseInt(m.group(1));
-            if (x <= 31) {
-                day = x;
-            } else {
-                year = x;
-                hintMonth = 0;
+    /*
+    Is there any line that starts with an underscore (after any leading
+    white space), or a carriage return (which readLine used to normalize)?
+     */
+    private static boolean mayHaveCustomTags(final String value) {
+        boolean atStart = true;
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c == '\r') {
+                return true;
+            }
+            if (c == '\n') {
+                atStart = true;
+            } else if (c == '_' && atStart) {
+                return true;
+            } else if (c > ' ') {
+                atStart = false;
             }
-        } else {
-            hintMonth = 0;
-            hintYear = 0;
         }
+        return false;
+    }
 
-        if (year == 0) {
-            year = hintYear;
+    /*
+    If the (trimmed) line [start,end) is "_TAG value", returns the end of
+    the tag, otherwise -1. The tag is an underscore and ASCII letters and
+    digits, followed by at least one space; the value can't contain any
+    line terminator that the regex "." wouldn't have matched.
+     */
+    private static int customTagEnd(final String value, final int start, final int end) {
+        if (start >= end || value.charAt(start) != '_') {
+            return -1;
         }
-        if (month == 0) {
-            month = hintMonth;
+        int i = start + 1;
+        while (i < end && isAsciiAlnum(value.charAt(i))) {
+            ++i;
         }
-        dt ret = new dt();
-        if (month > 0 && day > 0) {
-            ret.s = String.format("%02d %s %d", day, monthName[month], year);
-        } else if (month > 0) {
-            ret.s = String.format("%s %d", monthName[month], year);
-        } else {
-            ret.s = String.format("%d", year);
+        if (i == start + 1 || i >= end || value.charAt(i) != ' ') {
+            return -1;
         }
-        ret.m = month;
-        ret.y = year;
-        return ret;
+        final int endTag = i;
+        for (; i < end; ++i) {
+            final char c = value.charAt(i);
+            if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return -1;
+            }
+        }
+        return endTag;
     }
 
-    private static int fixMonth(String month) {
-        final Integer m = mapMonthNameToNumber.get(month);
-        if (m == null) {
-            /* TODO: warning invalid month name */
-            return 0;
-        }
-        return m;
+    private static boolean isAsciiAlnum(final char c) {
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || ('0' <= c && c <= '9');
+    }
+
+    public static String fixDate(final String value) {
+        return DateFixer.fixDate(value);
     }
 }
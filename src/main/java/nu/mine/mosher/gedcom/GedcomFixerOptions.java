@@ -0,0 +1,264 @@
+package nu.mine.mosher.gedcom;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line options for {@link GedcomFixer}.
+ */
+class GedcomFixerOptions implements Cloneable {
+    static final String USAGE =
+        "\n\nusage:\n" +
+        "    gedcom-fixer [options] orig.ged [uid-remap-file] >fixed.ged\n" +
+        "    gedcom-fixer [options] --output=fixed.ged orig.ged [uid-remap-file]\n" +
+        "    gedcom-fixer [options] --batch dir-or-list-file...\n" +
+        "    gedcom-fixer [--jobs=N] [--month-names=...] [--cache-size=N] [--cache-stats] --daemon=SOCKET\n" +
+        "options:\n" +
+        "    --stream    fix one record at a time (record-local fixes only;\n" +
+        "                input must be UTF-8; no uid-remap-file allowed)\n" +
+        "    --compact   with --stream: first read the whole file into a compact store\n" +
+        "                (about 40 bytes per line, plus text), so that NOTE pointers\n" +
+        "                can be followed from one record to another\n" +
+        "    --threads=N fix records on N threads (default 1); if more than one,\n" +
+        "                top-level records are also sorted in parallel\n" +
+        "    --mmap      read the input by memory-mapping it, and parse it on --threads\n" +
+        "                threads (input must be UTF-8; not with --stream)\n" +
+        "    --incremental\n" +
+        "                keep the fixed records in orig.ged.cache, and on later runs\n" +
+        "                only fix the records that have changed (not with --stream)\n" +
+        "    --output=FILE\n" +
+        "                write the fixed GEDCOM to FILE, instead of stdout; FILE is\n" +
+        "                left untouched if its contents would be the same\n" +
+        "    --batch     fix many files in one run: each argument is a directory (all\n" +
+        "                its .ged files) or a list file (one file name per line); each\n" +
+        "                orig.ged is fixed to orig.fixed.ged next to it (no uid-remap-file\n" +
+        "                or --output allowed); failures are listed at the end\n" +
+        "    --daemon=SOCKET\n" +
+        "                stay running, and fix the files that FixerClient sends to the\n" +
+        "                Unix domain socket SOCKET (requests use the same command line,\n" +
+        "                but the month names and caches are the daemon's; orig.ged may\n" +
+        "                be - for stdin); messages go to the daemon's stderr\n" +
+        "    --jobs=N    with --batch: fix N files at a time; with --daemon: serve N\n" +
+        "                requests at a time (default: the number of CPUs)\n" +
+        "    --month-names=fr,de,la\n" +
+        "                also recognize French, German, and/or Latin month names in dates\n" +
+        "    --cache-size=N\n" +
+        "                remember up to N fixed dates, names, and places each\n" +
+        "                (default " + NormalizerCache.DEFAULT_CAPACITY + "; 0 turns off caching)\n" +
+        "    --cache-stats\n" +
+        "                show cache hits and misses on stderr when done\n" +
+        "    --share-lines\n" +
+        "                keep just one copy of each repeated place, date, and pointer\n" +
+        "                line in memory, and show the memory saved on stderr\n" +
+        "    --collate=LANG\n" +
+        "                sort people by name using the collation rules of a language\n" +
+        "                (e.g. en-US, de-DE), instead of plain character order\n" +
+        "    --tag-order=FILE\n" +
+        "                sort lines by tag in the order given in FILE; each line of\n" +
+        "                FILE is a table name (" + tableNames() + ")\n" +
+        "                followed by its tags in order; unlisted tables keep the built-in order\n" +
+        "    --stats     show the time taken by (and the changes made by) each pass\n" +
+        "                on stderr when done (the changes are also put in the Flight\n" +
+        "                Recorder events only with this)\n";
+
+    File fileGedcom;
+    File fileUidRemap;
+    boolean stream;
+    boolean compact;
+    boolean mmap;
+    boolean incremental;
+    File fileOutput;
+    int threads = 1;
+    String[] monthLanguages = { "en" };
+    int cacheSize = NormalizerCache.DEFAULT_CAPACITY;
+    boolean cacheStats;
+    boolean shareLines;
+    boolean stats;
+    Locale collation;
+    File fileTagOrder;
+    boolean batch;
+    List<File> batchArgs;
+    int jobs;
+    File daemonSocket;
+    // where to write the .ids file, if not next to fileGedcom (not on the command line)
+    File fileIds;
+    // where to write messages about the file (not on the command line)
+    PrintStream err = System.err;
+
+    static GedcomFixerOptions parse(final String... args) {
+        final GedcomFixerOptions options = new GedcomFixerOptions();
+        final List<String> positional = new ArrayList<>(2);
+        for (final String arg : args) {
+            if (arg.equals("--stream")) {
+                options.stream = true;
+            } else if (arg.equals("--compact")) {
+                options.compact = true;
+            } else if (arg.equals("--mmap")) {
+                options.mmap = true;
+            } else if (arg.equals("--incremental")) {
+                options.incremental = true;
+            } else if (arg.startsWith("--output=")) {
+                options.fileOutput = new File(arg.substring("--output=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                options.threads = parsePositive(arg, "--threads=".length());
+            } else if (arg.startsWith("--month-names=")) {
+                options.monthLanguages = ("en," + arg.substring("--month-names=".length())).split(",");
+            } else if (arg.startsWith("--cache-size=")) {
+                options.cacheSize = parseNonNegative(arg, "--cache-size=".length());
+            } else if (arg.equals("--cache-stats")) {
+                options.cacheStats = true;
+            } else if (arg.equals("--share-lines")) {
+                options.shareLines = true;
+            } else if (arg.startsWith("--collate=")) {
+                options.collation = Locale.forLanguageTag(arg.substring("--collate=".length()));
+            } else if (arg.startsWith("--tag-order=")) {
+                options.fileTagOrder = new File(arg.substring("--tag-order=".length()));
+            } else if (arg.equals("--batch")) {
+                options.batch = true;
+            } else if (arg.startsWith("--daemon=")) {
+                options.daemonSocket = new File(arg.substring("--daemon=".length()));
+            } else if (arg.startsWith("--jobs=")) {
+                options.jobs = parsePositive(arg, "--jobs=".length());
+            } else if (arg.equals("--stats")) {
+                options.stats = true;
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("unknown option: " + arg + USAGE);
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (options.daemonSocket != null) {
+            if (!positional.isEmpty() || options.batch || options.fileOutput != null) {
+                throw new IllegalArgumentException("--daemon takes files from its clients" + USAGE);
+            }
+            if (options.jobs == 0) {
+                options.jobs = Runtime.getRuntime().availableProcessors();
+            }
+        } else if (options.batch) {
+            if (positional.isEmpty()) {
+                throw new IllegalArgumentException(USAGE);
+            }
+            if (options.fileOutput != null) {
+                throw new IllegalArgumentException("--batch writes each file next to its input; no --output allowed" + USAGE);
+            }
+            options.batchArgs = new ArrayList<>(positional.size());
+            for (final String arg : positional) {
+                options.batchArgs.add(new File(arg));
+            }
+            if (options.jobs == 0) {
+                options.jobs = Runtime.getRuntime().availableProcessors();
+            }
+        } else {
+            if (positional.size() < 1 || 2 < positional.size()) {
+                throw new IllegalArgumentException(USAGE);
+            }
+            if (options.jobs != 0) {
+                throw new IllegalArgumentException("--jobs is only for --batch or --daemon" + USAGE);
+            }
+            options.fileGedcom = new File(positional.get(0));
+            if (positional.size() > 1) {
+                options.fileUidRemap = new File(positional.get(1));
+            }
+        }
+
+        if (options.stream && options.fileUidRemap != null) {
+            throw new IllegalArgumentException("--stream cannot remap IDs" + USAGE);
+        }
+        if (options.compact && !options.stream) {
+            throw new IllegalArgumentException("--compact is only for --stream" + USAGE);
+        }
+        if (options.stream && options.mmap) {
+            throw new IllegalArgumentException("--stream cannot memory-map the input" + USAGE);
+        }
+        if (options.stream && options.incremental) {
+            throw new IllegalArgumentException("--stream cannot be incremental" + USAGE);
+        }
+
+        return options;
+    }
+
+    /**
+     * A copy of these (--batch) options, for fixing one of the files, with
+     * its messages going to err.
+     */
+    GedcomFixerOptions forFile(final File file, final PrintStream err) {
+        final GedcomFixerOptions options;
+        try {
+            options = (GedcomFixerOptions)clone();
+        } catch (final CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        options.fileGedcom = file;
+        options.err = err;
+        return options;
+    }
+
+    /**
+     * Checks these options, from a request sent to the daemon, and fills in
+     * what the daemon decides: relative file names are made relative to the
+     * client's directory, and the month names are the daemon's. Month names
+     * and cache settings are shared by all requests, so a request can't
+     * give them.
+     */
+    GedcomFixerOptions forDaemon(final File cwd, final GedcomFixerOptions daemon) {
+        if (this.batch || this.daemonSocket != null || this.jobs != 0) {
+            throw new IllegalArgumentException("--batch, --daemon, and --jobs are not allowed in a request to the daemon");
+        }
+        if (!Arrays.equals(this.monthLanguages, new GedcomFixerOptions().monthLanguages) ||
+            this.cacheSize != NormalizerCache.DEFAULT_CAPACITY || this.cacheStats) {
+            throw new IllegalArgumentException("--month-names, --cache-size, and --cache-stats must be given to the daemon, not in a request");
+        }
+        this.monthLanguages = daemon.monthLanguages;
+        if (!this.fileGedcom.getPath().equals("-")) {
+            this.fileGedcom = resolve(cwd, this.fileGedcom);
+        }
+        this.fileUidRemap = resolve(cwd, this.fileUidRemap);
+        this.fileOutput = resolve(cwd, this.fileOutput);
+        this.fileTagOrder = resolve(cwd, this.fileTagOrder);
+        return this;
+    }
+
+    private static File resolve(final File dir, final File file) {
+        return file == null || file.isAbsolute() ? file : new File(dir, file.getPath());
+    }
+
+    private static String tableNames() {
+        final StringBuilder s = new StringBuilder();
+        for (final TagOrder.Table table : TagOrder.Table.values()) {
+            if (s.length() > 0) {
+                s.append(", ");
+            }
+            s.append(table);
+        }
+        return s.toString();
+    }
+
+    private static int parsePositive(final String arg, final int start) {
+        final int n = parseNumber(arg, start);
+        if (n <= 0) {
+            throw new IllegalArgumentException("must be positive: " + arg + USAGE);
+        }
+        return n;
+    }
+
+    private static int parseNonNegative(final String arg, final int start) {
+        final int n = parseNumber(arg, start);
+        if (n < 0) {
+            throw new IllegalArgumentException("must not be negative: " + arg + USAGE);
+        }
+        return n;
+    }
+
+    private static int parseNumber(final String arg, final int start) {
+        try {
+            return Integer.parseInt(arg.substring(start));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number: " + arg + USAGE, e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a GEDCOM file one top-level record at a time, so that the whole
+ * file never needs to be held in memory. CONC and CONT lines are joined
+ * into the value of the line they continue as they are read, so the
+ * returned records never contain them.
+ */
+class GedcomRecordReader implements Closeable {
+    private final BufferedReader reader;
+    private final PrintStream err;
+    private GedcomLine nextRecordLine;
+    private boolean first = true;
+
+    private final List<TreeNode<GedcomLine>> stack = new ArrayList<>(16);
+    private TreeNode<GedcomLine> continued;
+    private StringBuilder continuedValue;
+
+    /**
+     * @param err where to report lines that are skipped
+     */
+    GedcomRecordReader(final BufferedReader reader, final PrintStream err) {
+        this.reader = reader;
+        this.err = err;
+    }
+
+    /**
+     * @return the next level-0 record (with all its descendants), or null at end of file
+     */
+    TreeNode<GedcomLine> next() throws IOException {
+        GedcomLine line = this.nextRecordLine;
+        this.nextRecordLine = null;
+        if (line == null) {
+            line = readLine();
+            while (line != null && line.getLevel() != 0) {
+                this.err.println("Skipping line outside of any record: " + line);
+                line = readLine();
+            }
+            if (line == null) {
+                return null;
+            }
+        }
+
+        final TreeNode<GedcomLine> record = new TreeNode<>(line);
+        this.stack.clear();
+        this.stack.add(record);
+
+        for (line = readLine(); line != null; line = readLine()) {
+            final int level = line.getLevel();
+            if (level == 0) {
+                this.nextRecordLine = line;
+                break;
+            }
+            if (level > this.stack.size()) {
+                throw new IOException("invalid level number in GEDCOM line: " + line);
+            }
+            final TreeNode<GedcomLine> parent = this.stack.get(level - 1);
+            final String tag = line.getTagString();
+            if (tag.equals("CONT") || tag.equals("CONC")) {
+                continueValue(parent, tag.equals("CONT"), line.getValue());
+            } else {
+                flushContinuation();
+                final TreeNode<GedcomLine> node = new TreeNode<>(line);
+                parent.addChild(node);
+                while (this.stack.size() > level) {
+                    this.stack.remove(this.stack.size() - 1);
+                }
+                this.stack.add(node);
+            }
+        }
+        flushContinuation();
+
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    private void continueValue(final TreeNode<GedcomLine> node, final boolean newline, final String value) {
+        if (this.continued != node) {
+            flushContinuation();
+            this.continued = node;
+            this.continuedValue = new StringBuilder(node.getObject().getValue());
+        }
+        if (newline) {
+            this.continuedValue.append('\n');
+        }
+        this.continuedValue.append(value);
+    }
+
+    private void flushContinuation() {
+        if (this.continued != null) {
+            final GedcomLine line = this.continued.getObject();
+            this.continued.setObject(new GedcomLine(line.getLevel(), "@" + line.getID() + "@", line.getTagString(), this.continuedValue.toString()));
+            this.continued = null;
+            this.continuedValue = null;
+        }
+    }
+
+    private GedcomLine readLine() throws IOException {
+        for (String s = this.reader.readLine(); s != null; s = this.reader.readLine()) {
+            if (this.first) {
+                this.first = false;
+                if (s.startsWith("\uFEFF")) {
+                    s = s.substring(1);
+                }
+            }
+            final GedcomLine line = parseLine(s);
+            if (line != null) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses one line of GEDCOM: level [@id@] tag [value]
+     *
+     * @param s the line, without its line terminator
+     * @return the parsed line, or null if the line is blank
+     */
+    static GedcomLine parseLine(final String s) throws IOException {
+        final int n = s.length();
+        int i = 0;
+        while (i < n && Character.isWhitespace(s.charAt(i))) {
+            ++i;
+        }
+        if (i >= n) {
+            return null;
+        }
+
+        int level = 0;
+        final int startLevel = i;
+        while (i < n && '0' <= s.charAt(i) && s.charAt(i) <= '9') {
+            level = level * 10 + (s.charAt(i++) - '0');
+        }
+        if (i == startLevel) {
+            throw new IOException("missing level number in GEDCOM line: " + s);
+        }
+        while (i < n && s.charAt(i) == ' ') {
+            ++i;
+        }
+
+        String id = "";
+        if (i < n && s.charAt(i) == '@') {
+            final int endId = s.indexOf('@', i + 1);
+            if (endId < 0) {
+                throw new IOException("invalid ID in GEDCOM line: " + s);
+            }
+            id = s.substring(i, endId + 1);
+            i = endId + 1;
+            while (i < n && s.charAt(i) == ' ') {
+                ++i;
+            }
+        }
+
+        final int startTag = i;
+        while (i < n && s.charAt(i) != ' ') {
+            ++i;
+        }
+        final String tag = s.substring(startTag, i);
+        final String value = i < n ? s.substring(i + 1) : "";
+
+        return new GedcomLine(level, id, tag, value);
+    }
+}
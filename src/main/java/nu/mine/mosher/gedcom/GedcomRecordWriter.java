@@ -0,0 +1,128 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes GEDCOM records one at a time. Values containing newlines or longer
+ * than the maximum length are split into CONT and CONC lines as they are
+ * written, so the tree itself never needs to hold CONT or CONC nodes.
+ */
+class GedcomRecordWriter implements Closeable {
+    private static final String EOL = "\r\n";
+
+    private final BufferedWriter writer;
+    private final int maxLength;
+
+    GedcomRecordWriter(final BufferedWriter writer, final int maxLength) {
+        this.writer = writer;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Writes the given node's line and all of its descendants.
+     */
+    void write(final TreeNode<GedcomLine> node) throws IOException {
+        final GedcomLine line = node.getObject();
+        if (line != null) {
+            writeLine(line);
+        }
+        for (final TreeNode<GedcomLine> child : node) {
+            write(child);
+        }
+    }
+
+    void flush() throws IOException {
+        this.writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+
+    private void writeLine(final GedcomLine line) throws IOException {
+        final int level = line.getLevel();
+        this.writer.write(Integer.toString(level));
+        if (line.hasID()) {
+            this.writer.write(" @");
+            this.writer.write(line.getID());
+            this.writer.write('@');
+        }
+        this.writer.write(' ');
+        this.writer.write(line.getTagString());
+
+        if (line.isPointer()) {
+            this.writer.write(" @");
+            this.writer.write(line.getPointer());
+            this.writer.write('@');
+            this.writer.write(EOL);
+            return;
+        }
+
+        final String value = line.getValue();
+        int start = 0;
+        boolean firstPiece = true;
+        while (start <= value.length()) {
+            int end = value.indexOf('\n', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            writeValue(value, start, end, level, firstPiece);
+            firstPiece = false;
+            start = end + 1;
+        }
+    }
+
+    private void writeValue(final String value, int start, final int end, final int level, final boolean firstPiece) throws IOException {
+        if (!firstPiece) {
+            writeContinuation(level, "CONT");
+        }
+        boolean firstChunk = true;
+        do {
+            final int split = splitPoint(value, start, end);
+            if (!firstChunk) {
+                writeContinuation(level, "CONC");
+            }
+            if (split > start) {
+                this.writer.write(' ');
+                this.writer.write(value, start, split - start);
+            }
+            this.writer.write(EOL);
+            firstChunk = false;
+            start = split;
+        } while (start < end);
+    }
+
+    private void writeContinuation(final int level, final String tag) throws IOException {
+        this.writer.write(Integer.toString(level + 1));
+        this.writer.write(' ');
+        this.writer.write(tag);
+    }
+
+    /*
+     * Find where to end the chunk that starts at start, so that no chunk is
+     * longer than maxLength, and (where possible) no chunk starts or ends
+     * with a space, or splits a surrogate pair.
+     */
+    private int splitPoint(final String value, final int start, final int end) {
+        if (this.maxLength <= 0 || end - start <= this.maxLength) {
+            return end;
+        }
+        final int limit = start + this.maxLength;
+        int split = limit;
+        while (split > start + 1 && (value.charAt(split - 1) == ' ' || value.charAt(split) == ' ' || Character.isHighSurrogate(value.charAt(split - 1)))) {
+            --split;
+        }
+        if (split <= start + 1) {
+            split = limit;
+            if (Character.isHighSurrogate(value.charAt(split - 1))) {
+                --split;
+            }
+        }
+        return split;
+    }
+}
@@ -0,0 +1,105 @@
+package nu.mine.mosher.gedcom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All the renaming of IDs in a run, collected so that it can be applied
+ * to the tree in one pass at the end.
+ *
+ * Renames are made in rounds. Within a round, each rename is from an ID
+ * as it is after the earlier rounds, and they all take effect at the
+ * same time: a line is renamed by at most one of them, so chains within
+ * a round (A to B, B to C) are not followed, and a cycle (A to B, B to A)
+ * is just a swap. Ending a round composes its renames onto those of the
+ * earlier rounds, so {@link #toMap} always gives one map, from the IDs
+ * in the tree to their final IDs, and no lookup ever needs to be repeated
+ * (or can loop).
+ *
+ * Until the map is applied, the lines in the tree still have their
+ * original IDs; use {@link #current} to see what an ID has become.
+ */
+final class IdRemap {
+    // this round's renames, from IDs as they are after the earlier rounds
+    private final Map<String, String> round = new HashMap<>(512);
+    // original ID -> ID after all the ended rounds
+    private final Map<String, String> composed = new HashMap<>(512);
+
+    /**
+     * Renames an ID in this round, replacing any earlier rename of the
+     * same ID in this round.
+     */
+    void rename(final String from, final String to) {
+        this.round.put(from, to);
+    }
+
+    /**
+     * Gets what this round renames the ID to, or the ID itself.
+     */
+    String renamed(final String id) {
+        return this.round.getOrDefault(id, id);
+    }
+
+    boolean isRenamed(final String id) {
+        return this.round.containsKey(id);
+    }
+
+    void endRound() {
+        if (this.round.isEmpty()) {
+            return;
+        }
+        final Map<String, String> before = new HashMap<>(this.composed);
+        // IDs already renamed are renamed again, from what they had become...
+        before.forEach((original, current) -> this.composed.put(original, this.round.getOrDefault(current, current)));
+        // ...and IDs not yet renamed just get this round's rename
+        this.round.forEach((from, to) -> {
+            if (!before.containsKey(from)) {
+                this.composed.put(from, to);
+            }
+        });
+        this.composed.entrySet().removeIf(e -> e.getKey().equals(e.getValue()));
+        this.round.clear();
+    }
+
+    /**
+     * Gets what an original ID has become, after all the ended rounds.
+     */
+    String current(final String original) {
+        return this.composed.getOrDefault(original, original);
+    }
+
+    /**
+     * Gets the original IDs that are renamed, mapped to their final IDs.
+     */
+    Map<String, String> toMap() {
+        if (!this.round.isEmpty()) {
+            throw new IllegalStateException("round of renames has not been ended");
+        }
+        return Collections.unmodifiableMap(this.composed);
+    }
+
+    /**
+     * Finds the final IDs that would be shared by more than one node:
+     * renamed to from two IDs in the tree, or renamed to while some node
+     * in the tree keeps it.
+     */
+    List<String> collisions(final ReferenceIndex refs) {
+        final Map<String, Integer> targets = new HashMap<>(this.composed.size() * 2);
+        toMap().forEach((from, to) -> {
+            if (refs.record(from) != null) {
+                targets.merge(to, 1, Integer::sum);
+            }
+        });
+        final List<String> collisions = new ArrayList<>(0);
+        targets.forEach((to, n) -> {
+            if (n > 1 || (refs.record(to) != null && !this.composed.containsKey(to))) {
+                collisions.add(to);
+            }
+        });
+        Collections.sort(collisions);
+        return collisions;
+    }
+}
@@ -0,0 +1,70 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares one {@link GedcomLine} among all the nodes that have identical
+ * lines, for the kinds of lines that repeat the most: places, dates, and
+ * pointers (such as citations of the same source). A line is immutable
+ * (passes change a node by giving it a new line), so sharing it is safe.
+ * This saves the line object and its strings for every repeat.
+ *
+ * The saving is estimated from typical object sizes on a 64-bit JVM with
+ * compressed references, so it is only approximate.
+ */
+final class LinePool {
+    private final Map<String, GedcomLine> pool = new HashMap<>(8192);
+    private long shared;
+    private long bytesSaved;
+
+    /**
+     * Replaces each poolable line under root with the pooled copy of it.
+     */
+    void intern(final TreeNode<GedcomLine> root) {
+        new FusedTraversal().post(this::share).traverse(root);
+    }
+
+    private void share(final TreeNode<GedcomLine> node) {
+        final GedcomLine line = node.getObject();
+        if (line == null || line.hasID() || !isPoolable(line)) {
+            return;
+        }
+        final String key = line.getLevel() + " " + line.getTagString() + " " + (line.isPointer() ? "@" + line.getPointer() + "@" : line.getValue());
+        final GedcomLine pooled = this.pool.putIfAbsent(key, line);
+        if (pooled != null && pooled != line) {
+            node.setObject(pooled);
+            ++this.shared;
+            this.bytesSaved += size(line);
+        }
+    }
+
+    private static boolean isPoolable(final GedcomLine line) {
+        final GedcomTag tag = line.getTag();
+        return line.isPointer() || tag.equals(GedcomTag.PLAC) || tag.equals(GedcomTag.DATE);
+    }
+
+    /* the line object, and the strings that only it refers to */
+    private static long size(final GedcomLine line) {
+        return 40 + size(line.getTagString()) + size(line.getValue()) + size(line.getPointer());
+    }
+
+    private static long size(final String s) {
+        if (s.isEmpty()) {
+            return 0;
+        }
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; ++i) {
+            latin1 = s.charAt(i) < 0x100;
+        }
+        final long bytes = 16 + (long)s.length() * (latin1 ? 1 : 2);
+        return 24 + ((bytes + 7) & ~7L);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LINES pool: %d lines shared, %d distinct, about %d KiB saved", this.shared, this.pool.size(), this.bytesSaved / 1024);
+    }
+}
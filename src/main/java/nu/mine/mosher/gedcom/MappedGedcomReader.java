@@ -0,0 +1,230 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a whole GEDCOM file (which must be UTF-8) into a {@link GedcomTree},
+ * parsing it on several threads.
+ *
+ * The file is memory-mapped and cut into chunks of about the same size.
+ * Each chunk is moved to start at a level-0 line (a "0 " at the start of
+ * a line), so it holds only whole records; each task finds its own
+ * chunk's boundaries, and then decodes and parses its lines. The parsed
+ * lines are appended to the tree in file order, as each chunk finishes,
+ * so the tree is the same as one read sequentially. A "\n" or "\r" can't
+ * be part of any other character in UTF-8, so looking for boundaries in
+ * the raw bytes is safe.
+ *
+ * CONC and CONT lines are joined into the value of the line they continue
+ * as each chunk is parsed (just as {@link GedcomRecordReader} does), so the
+ * tree never holds them.
+ */
+final class MappedGedcomReader {
+    private static final long CHUNK_SIZE = 16L << 20;
+
+    private MappedGedcomReader() {
+        throw new IllegalStateException();
+    }
+
+    static GedcomTree read(final File file, final int threads) throws IOException, InvalidLevel {
+        return read(file, threads, CHUNK_SIZE);
+    }
+
+    static GedcomTree read(final File file, final int threads, final long chunkSize) throws IOException, InvalidLevel {
+        final GedcomTree gt = new GedcomTree();
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                final List<Future<List<GedcomLine>>> chunks = new ArrayList<>((int)(size / chunkSize) + 1);
+                for (long from = 0; from < size; from += chunkSize) {
+                    final long nominalStart = from;
+                    final long nominalEnd = Math.min(size, from + chunkSize);
+                    chunks.add(pool.submit(() -> {
+                        try {
+                            return parseChunk(channel, size, nominalStart, nominalEnd);
+                        } catch (final IOException e) {
+                            // (a fork-join pool would wrap it in a plain RuntimeException)
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                for (final Future<List<GedcomLine>> chunk : chunks) {
+                    for (final GedcomLine line : get(chunk)) {
+                        gt.appendLine(line);
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return gt;
+    }
+
+    private static List<GedcomLine> get(final Future<List<GedcomLine>> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException)cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /*
+    Parses the records that start within [nominalStart, nominalEnd): from
+    the first level-0 line at or after nominalStart (or the start of the
+    file), up to the first level-0 line at or after nominalEnd. Only the
+    chunk and a look-ahead past it are mapped; the look-ahead starts out
+    as long as the chunk, and is doubled until it holds the end of the
+    last record (which must end within 2 GB of the start of the chunk).
+     */
+    private static List<GedcomLine> parseChunk(final FileChannel channel, final long size, final long nominalStart, final long nominalEnd) throws IOException {
+        // (from one byte early, to see whether nominalStart itself is the start of a line)
+        final long base = nominalStart == 0 ? 0 : nominalStart - 1;
+        final int nominalLength = (int)(nominalEnd - base);
+        long lookAhead = Math.max(1, nominalEnd - nominalStart);
+        while (true) {
+            final long window = Math.min(Math.min(size, nominalEnd + lookAhead) - base, Integer.MAX_VALUE);
+            final MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, base, window);
+
+            final int start = nominalStart == 0 ? 0 : nextRecord(bytes, 1);
+            if (start < 0 || start >= nominalLength) {
+                // a record that began in an earlier chunk covers this whole one
+                return new ArrayList<>(0);
+            }
+            int end = nominalEnd == size ? (int)window : nextRecord(bytes, nominalLength);
+            if (end < 0) {
+                if (base + window < size) {
+                    if (window == Integer.MAX_VALUE) {
+                        throw new IOException("GEDCOM record too long, at byte offset " + (base + start));
+                    }
+                    lookAhead *= 2;
+                    continue;
+                }
+                end = (int)window;
+            }
+
+            final ByteBuffer chunk = bytes.duplicate();
+            chunk.position(start);
+            chunk.limit(end);
+            return join(parseLines(decode(chunk, base + start), nominalStart == 0));
+        }
+    }
+
+    /*
+    Decodes the chunk, failing on any bytes that aren't valid UTF-8 (rather
+    than quietly replacing them, which would change the file's text).
+     */
+    private static CharBuffer decode(final ByteBuffer chunk, final long offset) throws IOException {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(chunk);
+        } catch (final CharacterCodingException e) {
+            throw new IOException("GEDCOM is not valid UTF-8, in the record(s) at byte offset " + offset, e);
+        }
+    }
+
+    /*
+    Finds the first level-0 line that starts at or after the given position
+    (which must be after the first byte), or -1 if there is none.
+     */
+    private static int nextRecord(final ByteBuffer bytes, final int from) {
+        final int limit = bytes.limit() - 1;
+        for (int i = from; i < limit; ++i) {
+            if (bytes.get(i) == '0' && bytes.get(i + 1) == ' ') {
+                final byte prev = bytes.get(i - 1);
+                if (prev == '\n' || prev == '\r') {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static List<GedcomLine> parseLines(final CharBuffer chars, final boolean first) throws IOException {
+        final List<GedcomLine> lines = new ArrayList<>(chars.length() / 32);
+        final String s = chars.toString();
+        final int n = s.length();
+        int i = first && n > 0 && s.charAt(0) == '\uFEFF' ? 1 : 0;
+        while (i < n) {
+            int eol = i;
+            while (eol < n && s.charAt(eol) != '\n' && s.charAt(eol) != '\r') {
+                ++eol;
+            }
+            final GedcomLine line = GedcomRecordReader.parseLine(s.substring(i, eol));
+            if (line != null) {
+                lines.add(line);
+            }
+            i = eol + 1;
+        }
+        return lines;
+    }
+
+    /*
+    Joins each CONC and CONT line into the value of the line it continues
+    (its parent). A chunk holds only whole records, so every continued
+    line is in the same chunk as its continuations.
+     */
+    private static List<GedcomLine> join(final List<GedcomLine> lines) {
+        final List<GedcomLine> joined = new ArrayList<>(lines.size());
+        final List<Integer> stack = new ArrayList<>(16);
+        final Map<Integer, StringBuilder> values = new HashMap<>();
+        for (final GedcomLine line : lines) {
+            final int level = line.getLevel();
+            final String tag = line.getTagString();
+            if (0 < level && level <= stack.size() && (tag.equals("CONT") || tag.equals("CONC"))) {
+                final int parent = stack.get(level - 1);
+                final StringBuilder value = values.computeIfAbsent(parent, k -> new StringBuilder(joined.get(k).getValue()));
+                if (tag.equals("CONT")) {
+                    value.append('\n');
+                }
+                value.append(line.getValue());
+            } else {
+                // (a bad level is left for GedcomTree.appendLine to report)
+                while (stack.size() > Math.min(level, stack.size())) {
+                    stack.remove(stack.size() - 1);
+                }
+                stack.add(joined.size());
+                joined.add(line);
+            }
+        }
+        values.forEach((i, value) -> {
+            final GedcomLine line = joined.get(i);
+            joined.set(i, new GedcomLine(line.getLevel(), "@" + line.getID() + "@", line.getTagString(), value.toString()));
+        });
+        return joined;
+    }
+}
@@ -0,0 +1,134 @@
+package nu.mine.mosher.gedcom;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Table of month names (in upper case), mapping each to its month number
+ * (1 through 12). Lookups go through a perfect hash built when the table is
+ * created, so finding a name takes one hash and one comparison, and can be
+ * done straight from a character buffer without creating a String.
+ */
+final class MonthNames {
+    private static final String[] ENGLISH = {
+        "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC",
+        "JANUARY", "FEBRUARY", "MARCH", "APRIL", "MAY", "JUNE", "JULY", "AUGUST", "SEPTEMBER", "OCTOBER", "NOVEMBER", "DECEMBER",
+    };
+    private static final String[] FRENCH = {
+        "JANV", "FÉVR", "MARS", "AVR", "MAI", "JUIN", "JUIL", "AOÛT", "SEPT", "OCT", "NOV", "DÉC",
+        "JANVIER", "FÉVRIER", "MARS", "AVRIL", "MAI", "JUIN", "JUILLET", "AOÛT", "SEPTEMBRE", "OCTOBRE", "NOVEMBRE", "DÉCEMBRE",
+        "JANVIER", "FEVRIER", "MARS", "AVRIL", "MAI", "JUIN", "JUILLET", "AOUT", "SEPTEMBRE", "OCTOBRE", "NOVEMBRE", "DECEMBRE",
+    };
+    private static final String[] GERMAN = {
+        "JAN", "FEB", "MÄR", "APR", "MAI", "JUN", "JUL", "AUG", "SEP", "OKT", "NOV", "DEZ",
+        "JANUAR", "FEBRUAR", "MÄRZ", "APRIL", "MAI", "JUNI", "JULI", "AUGUST", "SEPTEMBER", "OKTOBER", "NOVEMBER", "DEZEMBER",
+        "JÄNNER", "FEBER", "MAERZ", "APRIL", "MAI", "JUNI", "JULI", "AUGUST", "SEPTEMBER", "OKTOBER", "NOVEMBER", "DEZEMBER",
+    };
+    private static final String[] LATIN = {
+        "IANUARIUS", "FEBRUARIUS", "MARTIUS", "APRILIS", "MAIUS", "IUNIUS", "IULIUS", "AUGUSTUS", "SEPTEMBER", "OCTOBER", "NOVEMBER", "DECEMBER",
+        "JANUARIUS", "FEBRUARIUS", "MARTIUS", "APRILIS", "MAIUS", "JUNIUS", "JULIUS", "AUGUSTUS", "SEPTEMBER", "OCTOBER", "NOVEMBER", "DECEMBER",
+        "IANUARII", "FEBRUARII", "MARTII", "APRILIS", "MAII", "IUNII", "IULII", "AUGUSTI", "SEPTEMBRIS", "OCTOBRIS", "NOVEMBRIS", "DECEMBRIS",
+        "JANUARII", "FEBRUARII", "MARTII", "APRILIS", "MAII", "JUNII", "JULII", "AUGUSTI", "SEPTEMBRIS", "OCTOBRIS", "NOVEMBRIS", "DECEMBRIS",
+    };
+
+    static final MonthNames ENGLISH_ONLY = of("en");
+
+    private final char[][] keys;
+    private final byte[] months;
+    private final int seed;
+    private final int mask;
+
+    /**
+     * Builds a table of the month names for the given languages.
+     *
+     * @param languages any of: en (English), fr (French), de (German), la (Latin)
+     */
+    static MonthNames of(final String... languages) {
+        final Map<String, Integer> names = new LinkedHashMap<>(256);
+        for (final String language : languages) {
+            final String[] list;
+            switch (language.toLowerCase(Locale.ROOT)) {
+                case "en": list = ENGLISH; break;
+                case "fr": list = FRENCH; break;
+                case "de": list = GERMAN; break;
+                case "la": list = LATIN; break;
+                default: throw new IllegalArgumentException("unknown language for month names: " + language);
+            }
+            for (int i = 0; i < list.length; ++i) {
+                final int month = i % 12 + 1;
+                final Integer prev = names.put(list[i], month);
+                if (prev != null && prev != month) {
+                    throw new IllegalArgumentException("conflicting month number for " + list[i]);
+                }
+            }
+        }
+        return new MonthNames(names);
+    }
+
+    /*
+    Find a table size and seed for which no two names hash to the same slot.
+     */
+    private MonthNames(final Map<String, Integer> names) {
+        int size = Integer.highestOneBit(Math.max(names.size(), 8) * 2 - 1) << 1;
+        int trySeed = 1;
+        char[][] tryKeys = new char[size][];
+        while (!fill(names, tryKeys, trySeed, size - 1)) {
+            if (++trySeed >= 1 << 12) {
+                trySeed = 1;
+                size <<= 1;
+            }
+            tryKeys = new char[size][];
+        }
+
+        this.keys = tryKeys;
+        this.seed = trySeed;
+        this.mask = size - 1;
+        this.months = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            if (tryKeys[i] != null) {
+                this.months[i] = (byte)names.get(new String(tryKeys[i])).intValue();
+            }
+        }
+    }
+
+    private static boolean fill(final Map<String, Integer> names, final char[][] keys, final int seed, final int mask) {
+        for (final String name : names.keySet()) {
+            final char[] key = name.toCharArray();
+            final int i = hash(key, 0, key.length, seed) & mask;
+            if (keys[i] != null) {
+                return false;
+            }
+            keys[i] = key;
+        }
+        return true;
+    }
+
+    private static int hash(final char[] s, final int start, final int end, final int seed) {
+        int h = seed;
+        for (int i = start; i < end; ++i) {
+            h = h * 31 + s[i];
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * @return the month number (1-12) of the upper-case name in s[start,end), or 0 if it is not a known name
+     */
+    int lookup(final char[] s, final int start, final int end) {
+        final int slot = hash(s, start, end, this.seed) & this.mask;
+        final char[] key = this.keys[slot];
+        if (key == null || key.length != end - start) {
+            return 0;
+        }
+        for (int i = 0; i < key.length; ++i) {
+            if (key[i] != s[start + i]) {
+                return 0;
+            }
+        }
+        return this.months[slot];
+    }
+}
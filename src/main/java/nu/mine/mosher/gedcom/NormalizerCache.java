@@ -0,0 +1,155 @@
+package nu.mine.mosher.gedcom;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * A bounded, least-recently-used memo in front of a pure String normalizer
+ * (one whose result depends only on its argument). GEDCOM files repeat the
+ * same dates, places, and names over and over, so most calls are hits.
+ *
+ * The entries are split among a fixed number of segments, each a small
+ * access-ordered LinkedHashMap with its own lock, so the cache can be shared
+ * by worker threads (and by all the files fixed in one JVM) without them
+ * all waiting on one lock. The normalizer itself is called outside of any
+ * lock; two threads missing on the same value at once will both compute it,
+ * which is harmless because the result is the same.
+ *
+ * A capacity of zero turns the cache off: every call goes straight to the
+ * normalizer (and counts as a miss).
+ */
+final class NormalizerCache implements UnaryOperator<String> {
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int SEGMENTS = 16;
+
+    private final String name;
+    private final UnaryOperator<String> normalizer;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile boolean enabled;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    NormalizerCache(final String name, final UnaryOperator<String> normalizer) {
+        this(name, normalizer, DEFAULT_CAPACITY);
+    }
+
+    NormalizerCache(final String name, final UnaryOperator<String> normalizer, final int capacity) {
+        this.name = name;
+        this.normalizer = normalizer;
+        for (int i = 0; i < SEGMENTS; ++i) {
+            this.segments[i] = new Segment();
+        }
+        setCapacity(capacity);
+    }
+
+    /**
+     * Changes the maximum number of entries kept, evicting the least recently
+     * used ones if there are now too many. Zero turns off caching.
+     */
+    void setCapacity(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+        // round up, so that small capacities still cache something in every segment
+        final int perSegment = (capacity + SEGMENTS - 1) / SEGMENTS;
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.capacity = perSegment;
+                segment.trim();
+            }
+        }
+        this.enabled = capacity > 0;
+    }
+
+    /**
+     * Forgets every cached result, for example after changing something the
+     * normalizer depends on. The counters are not reset.
+     */
+    void clear() {
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public String apply(final String value) {
+        if (!this.enabled) {
+            this.misses.increment();
+            return this.normalizer.apply(value);
+        }
+
+        final Segment segment = segmentFor(value);
+        String result;
+        synchronized (segment) {
+            result = segment.get(value);
+        }
+        if (result != null) {
+            this.hits.increment();
+            return result;
+        }
+
+        this.misses.increment();
+        result = this.normalizer.apply(value);
+        synchronized (segment) {
+            segment.put(value, result);
+        }
+        return result;
+    }
+
+    long hits() {
+        return this.hits.sum();
+    }
+
+    long misses() {
+        return this.misses.sum();
+    }
+
+    long evictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        final long h = hits();
+        final long total = h + misses();
+        final long pct = total == 0 ? 0 : Math.round(100.0 * h / total);
+        return String.format("%s cache: %d hits, %d misses (%d%% hit rate), %d evictions", this.name, h, misses(), pct, evictions());
+    }
+
+    private Segment segmentFor(final String value) {
+        int h = value.hashCode();
+        h ^= h >>> 16;
+        return this.segments[h & (SEGMENTS - 1)];
+    }
+
+    private final class Segment extends LinkedHashMap<String, String> {
+        private int capacity;
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            if (size() > this.capacity) {
+                NormalizerCache.this.evictions.increment();
+                return true;
+            }
+            return false;
+        }
+
+        private void trim() {
+            while (size() > this.capacity) {
+                remove(keySet().iterator().next());
+                NormalizerCache.this.evictions.increment();
+            }
+        }
+    }
+}
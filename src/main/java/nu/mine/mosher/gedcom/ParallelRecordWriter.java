@@ -0,0 +1,128 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writes the top-level records of a tree, encoding them on several threads.
+ * Each record is encoded (by a {@link GedcomRecordWriter}) into its own
+ * byte buffer, and then the buffers are written in order, so the output
+ * is byte for byte the same as writing the records one after another.
+ * When the output is a file (or stdout), the buffers are written with
+ * one gathering write per batch.
+ *
+ * The lines for the .ids file are made from each record in the same task
+ * that encodes it, and written in order along with the records.
+ *
+ * Records are done in batches, so that only one batch of encoded records
+ * is held in memory at a time.
+ */
+final class ParallelRecordWriter {
+    interface IdsMaker {
+        void append(TreeNode<GedcomLine> record, Appendable ids) throws IOException;
+    }
+
+    private static final int RECORDS_PER_BATCH = 4096;
+
+    /*
+    Each thread reuses one writer into one byte array, for all the records
+    it encodes.
+     */
+    private static final class Encoder {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        GedcomRecordWriter writer;
+        int maxLength;
+    }
+
+    private static final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    private ParallelRecordWriter() {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * @param channel the channel that out writes to, or null if out is not a file
+     * @param ids where to write the .ids lines, or null for none
+     */
+    static void write(final TreeNode<GedcomLine> root, final int maxLength, final int threads, final OutputStream out, final FileChannel channel, final Writer ids, final IdsMaker idsMaker) throws IOException {
+        final List<TreeNode<GedcomLine>> records = new ArrayList<>(root.getChildCount());
+        root.forEach(records::add);
+
+        out.flush();
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int from = 0; from < records.size(); from += RECORDS_PER_BATCH) {
+                final List<TreeNode<GedcomLine>> batch = records.subList(from, Math.min(records.size(), from + RECORDS_PER_BATCH));
+                final ByteBuffer[] encoded = new ByteBuffer[batch.size()];
+                final String[] idLines = new String[batch.size()];
+                try {
+                    ParallelRecords.forEach(batch, pool, (i, record) -> {
+                        try {
+                            encoded[i] = ByteBuffer.wrap(encode(record, maxLength));
+                            if (ids != null) {
+                                final StringBuilder s = new StringBuilder(0);
+                                idsMaker.append(record, s);
+                                idLines[i] = s.toString();
+                            }
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (final UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                if (channel != null) {
+                    writeFully(channel, encoded);
+                } else {
+                    for (final ByteBuffer b : encoded) {
+                        out.write(b.array(), 0, b.limit());
+                    }
+                }
+                if (ids != null) {
+                    for (final String s : idLines) {
+                        ids.write(s);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        out.flush();
+    }
+
+    private static byte[] encode(final TreeNode<GedcomLine> record, final int maxLength) throws IOException {
+        final Encoder encoder = encoders.get();
+        if (encoder.writer == null || encoder.maxLength != maxLength) {
+            encoder.writer = new GedcomRecordWriter(new BufferedWriter(new OutputStreamWriter(encoder.bytes, StandardCharsets.UTF_8)), maxLength);
+            encoder.maxLength = maxLength;
+        }
+        encoder.bytes.reset();
+        encoder.writer.write(record);
+        encoder.writer.flush();
+        return encoder.bytes.toByteArray();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (final ByteBuffer b : buffers) {
+            remaining += b.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+}
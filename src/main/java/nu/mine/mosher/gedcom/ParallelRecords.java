@@ -0,0 +1,59 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes top-level records concurrently on a fork-join pool.
+ */
+class ParallelRecords {
+    interface RecordVisitor {
+        void visit(int index, TreeNode<GedcomLine> record);
+    }
+
+    private static final int RECORDS_PER_TASK = 64;
+
+    private ParallelRecords() {
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Calls the visitor once for each record, in no particular order, and
+     * waits for all the calls to finish. The index passed is the record's
+     * position in the list, so results can be put back in order.
+     */
+    static void forEach(final List<TreeNode<GedcomLine>> records, final ForkJoinPool pool, final RecordVisitor visitor) {
+        pool.invoke(new Task(records, 0, records.size(), visitor));
+    }
+
+    private static class Task extends RecursiveAction {
+        private final List<TreeNode<GedcomLine>> records;
+        private final int from;
+        private final int to;
+        private final RecordVisitor visitor;
+
+        Task(final List<TreeNode<GedcomLine>> records, final int from, final int to, final RecordVisitor visitor) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= RECORDS_PER_TASK) {
+                for (int i = this.from; i < this.to; ++i) {
+                    this.visitor.visit(i, this.records.get(i));
+                }
+            } else {
+                final int mid = (this.from + this.to) >>> 1;
+                invokeAll(
+                    new Task(this.records, this.from, mid, this.visitor),
+                    new Task(this.records, mid, this.to, this.visitor));
+            }
+        }
+    }
+}
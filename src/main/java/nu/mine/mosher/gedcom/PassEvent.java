@@ -0,0 +1,41 @@
+package nu.mine.mosher.gedcom;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder event for one pass (phase) of fixing a file. Record
+ * with, for example, {@code java -XX:StartFlightRecording=filename=fix.jfr ...}
+ *
+ * The node counts are only filled in when --stats is also given (they are
+ * zero otherwise), because taking them means holding a snapshot of the
+ * whole tree during each pass; a recording on its own costs just the
+ * timing and the allocation counter.
+ */
+@Name("nu.mine.mosher.gedcom.Pass")
+@Label("GEDCOM Fixer Pass")
+@Category("GEDCOM Fixer")
+@Description("One pass of fixing a GEDCOM file")
+@StackTrace(false)
+class PassEvent extends Event {
+    @Label("Pass")
+    String pass;
+
+    @Label("Tree Size")
+    @Description("Lines in the tree when the pass started (or, for reading, when it ended)")
+    long treeSize;
+
+    @Label("Nodes Changed")
+    @Description("Existing lines whose content the pass replaced")
+    long nodesChanged;
+
+    @Label("Nodes Added")
+    long nodesAdded;
+
+    @Label("Nodes Deleted")
+    long nodesDeleted;
+
+    @Label("Bytes Allocated")
+    @Description("Bytes allocated by the thread that ran the pass (not by any worker threads it used)")
+    @DataAmount
+    long bytesAllocated;
+}
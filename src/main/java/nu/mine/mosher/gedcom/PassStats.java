@@ -0,0 +1,211 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times the passes of a run, and counts what each one did to the tree.
+ * Each pass is reported as a {@link PassEvent} (when Flight Recorder is
+ * recording them) and, if asked for, in a table at the end of the run.
+ *
+ * The node counts come from comparing the tree before and after the pass,
+ * which costs an extra walk and a map of every node, so they are only
+ * taken for the table (not just because Flight Recorder is recording).
+ * Work that a pass queues in {@link PendingEdits} shows up in the pass
+ * that applies the edits.
+ *
+ * Allocation is counted only on the thread that runs the pass. A pass
+ * that hands work to a pool (with --threads) allocates mostly on the
+ * pool's threads, which come and go with the pass, so for those passes
+ * the count is much too low.
+ */
+final class PassStats {
+    interface Pass {
+        void run() throws IOException, InvalidLevel;
+    }
+
+    interface Read {
+        GedcomTree run() throws IOException, InvalidLevel;
+    }
+
+    private static final class Row {
+        final String pass;
+        final long nanos;
+        final PassEvent counts;
+
+        Row(final String pass, final long nanos, final PassEvent counts) {
+            this.pass = pass;
+            this.nanos = nanos;
+            this.counts = counts;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+    private final boolean table;
+    private final List<Row> rows = new ArrayList<>(32);
+
+    PassStats(final boolean table) {
+        this.table = table;
+    }
+
+    /**
+     * Runs a pass that works on the tree under root.
+     */
+    void run(final String pass, final TreeNode<GedcomLine> root, final Pass body) throws IOException, InvalidLevel {
+        final PassEvent event = new PassEvent();
+        final boolean counting = root != null && this.table;
+        final Map<TreeNode<GedcomLine>, GedcomLine> before = counting ? snapshot(root) : null;
+
+        final long allocated = allocatedBytes();
+        final long start = System.nanoTime();
+        event.begin();
+        body.run();
+        event.end();
+        final long nanos = System.nanoTime() - start;
+        event.bytesAllocated = allocatedBytes() - allocated;
+
+        event.pass = pass;
+        if (counting) {
+            count(before, root, event);
+        }
+        finish(event, nanos);
+    }
+
+    /**
+     * Runs a pass that reads a new tree; every node in it counts as added.
+     */
+    GedcomTree read(final String pass, final Read body) throws IOException, InvalidLevel {
+        final PassEvent event = new PassEvent();
+
+        final long allocated = allocatedBytes();
+        final long start = System.nanoTime();
+        event.begin();
+        final GedcomTree tree = body.run();
+        event.end();
+        final long nanos = System.nanoTime() - start;
+        event.bytesAllocated = allocatedBytes() - allocated;
+
+        event.pass = pass;
+        if (this.table) {
+            event.nodesAdded = event.treeSize = size(tree.getRoot());
+        }
+        finish(event, nanos);
+        return tree;
+    }
+
+    /**
+     * Prints the table (if any). The whole table is printed at once, so
+     * tables from requests being served at the same time (by the daemon)
+     * don't get mixed together.
+     */
+    void print(final PrintStream out) {
+        if (this.rows.isEmpty()) {
+            return;
+        }
+        synchronized (out) {
+            printRows(out);
+        }
+    }
+
+    private void printRows(final PrintStream out) {
+        out.println(String.format("%-28s %10s %10s %10s %10s %10s %12s", "pass", "ms", "lines", "changed", "added", "deleted", "allocated"));
+        long nanos = 0;
+        long allocated = 0;
+        for (final Row row : this.rows) {
+            final PassEvent c = row.counts;
+            out.println(String.format("%-28s %10.1f %10d %10d %10d %10d %12s", row.pass, row.nanos / 1e6, c.treeSize, c.nodesChanged, c.nodesAdded, c.nodesDeleted, bytes(c.bytesAllocated)));
+            nanos += row.nanos;
+            allocated += c.bytesAllocated;
+        }
+        out.println(String.format("%-28s %10.1f %10s %10s %10s %10s %12s", "total", nanos / 1e6, "", "", "", "", bytes(allocated)));
+    }
+
+    private void finish(final PassEvent event, final long nanos) {
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+        if (this.table) {
+            this.rows.add(new Row(event.pass, nanos, event));
+        }
+    }
+
+    private static Map<TreeNode<GedcomLine>, GedcomLine> snapshot(final TreeNode<GedcomLine> root) {
+        final Map<TreeNode<GedcomLine>, GedcomLine> lines = new IdentityHashMap<>(1024);
+        snapshot(root, lines);
+        return lines;
+    }
+
+    private static void snapshot(final TreeNode<GedcomLine> node, final Map<TreeNode<GedcomLine>, GedcomLine> lines) {
+        lines.put(node, node.getObject());
+        node.forEach(c -> snapshot(c, lines));
+    }
+
+    private static void count(final Map<TreeNode<GedcomLine>, GedcomLine> before, final TreeNode<GedcomLine> root, final PassEvent event) {
+        final long kept = countKept(before, root, event);
+        // whatever was there before, but isn't now, is gone
+        event.nodesDeleted = before.size() - kept;
+        event.treeSize = before.size();
+    }
+
+    private static long countKept(final Map<TreeNode<GedcomLine>, GedcomLine> before, final TreeNode<GedcomLine> node, final PassEvent event) {
+        long kept = 0;
+        if (before.containsKey(node)) {
+            if (before.get(node) != node.getObject()) {
+                ++event.nodesChanged;
+            }
+            ++kept;
+        } else {
+            ++event.nodesAdded;
+        }
+        for (final TreeNode<GedcomLine> c : node) {
+            kept += countKept(before, c, event);
+        }
+        return kept;
+    }
+
+    private static long size(final TreeNode<GedcomLine> node) {
+        long n = 1;
+        for (final TreeNode<GedcomLine> c : node) {
+            n += size(c);
+        }
+        return n;
+    }
+
+    private static String bytes(final long n) {
+        if (n < 10L << 10) {
+            return n + " B";
+        }
+        if (n < 10L << 20) {
+            return (n >> 10) + " KiB";
+        }
+        return (n >> 20) + " MiB";
+    }
+
+    private static long allocatedBytes() {
+        return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            if (!bean.isThreadAllocatedMemorySupported()) {
+                return null;
+            }
+            if (!bean.isThreadAllocatedMemoryEnabled()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+            }
+            return bean;
+        } catch (final ClassCastException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Structural edits (added and deleted nodes) queued by the fixing passes,
+ * to be applied after the passes have finished walking the tree.
+ *
+ * Each run (or each parallel task) gets its own instance. A task can also
+ * defer work that must not run concurrently; {@link #replayInto} runs it
+ * later, at the same point in the sequence of added nodes where it was
+ * deferred, so the end result is the same as a sequential run.
+ *
+ * The edits are applied in batches, one batch per parent node, and each
+ * batch rebuilds that parent's list of children just once, so applying
+ * them takes time linear in the number of children of the affected nodes
+ * (instead of a search through the siblings for each deleted node).
+ *
+ * When a {@link ReferenceIndex} is given to {@link #apply(ReferenceIndex)},
+ * the nodes added and deleted are added to and dropped from it.
+ *
+ * All methods are synchronized, so one journal can be shared by several
+ * threads (but then the order of nodes added to the same parent by
+ * different threads is unspecified). After {@link #apply} the journal is
+ * empty and can be reused.
+ */
+class PendingEdits {
+    interface Deferred {
+        void run(PendingEdits edits);
+    }
+
+    private static class ChildToBeAdded {
+        final TreeNode<GedcomLine> parent;
+        final TreeNode<GedcomLine> child;
+        ChildToBeAdded(final TreeNode<GedcomLine> parent, final TreeNode<GedcomLine> child) {
+            this.parent = parent; this.child = child;
+        }
+    }
+
+    private static class DeferredAt {
+        final int position;
+        final Deferred action;
+        DeferredAt(final int position, final Deferred action) {
+            this.position = position; this.action = action;
+        }
+    }
+
+    private final List<ChildToBeAdded> newNodes = new ArrayList<>(256);
+    private final List<TreeNode<GedcomLine>> delNodes = new ArrayList<>(256);
+    private final List<DeferredAt> deferred = new ArrayList<>(0);
+
+    synchronized void add(final TreeNode<GedcomLine> parent, final TreeNode<GedcomLine> child) {
+        this.newNodes.add(new ChildToBeAdded(parent, child));
+    }
+
+    synchronized void delete(final TreeNode<GedcomLine> node) {
+        this.delNodes.add(node);
+    }
+
+    synchronized void defer(final Deferred action) {
+        this.deferred.add(new DeferredAt(this.newNodes.size(), action));
+    }
+
+    /*
+    Visits the queued additions (parent, child), in order.
+     */
+    synchronized void forEachAdded(final BiConsumer<TreeNode<GedcomLine>, TreeNode<GedcomLine>> visitor) {
+        this.newNodes.forEach(a -> visitor.accept(a.parent, a.child));
+    }
+
+    synchronized void forEachDeleted(final Consumer<TreeNode<GedcomLine>> visitor) {
+        this.delNodes.forEach(visitor);
+    }
+
+    synchronized boolean hasDeferred() {
+        return !this.deferred.isEmpty();
+    }
+
+    /**
+     * Moves these edits into the given target, running any deferred work
+     * (against the target) in order along the way.
+     */
+    synchronized void replayInto(final PendingEdits target) {
+        int next = 0;
+        for (final DeferredAt d : this.deferred) {
+            while (next < d.position) {
+                final ChildToBeAdded a = this.newNodes.get(next++);
+                target.add(a.parent, a.child);
+            }
+            d.action.run(target);
+        }
+        while (next < this.newNodes.size()) {
+            final ChildToBeAdded a = this.newNodes.get(next++);
+            target.add(a.parent, a.child);
+        }
+        this.delNodes.forEach(target::delete);
+        clear();
+    }
+
+    /**
+     * Applies the edits to the tree, and clears this journal for reuse.
+     * The result is the same as adding all the new nodes (in the order
+     * they were queued) and then deleting all the old nodes.
+     */
+    synchronized void apply() {
+        apply(null);
+    }
+
+    synchronized void apply(final ReferenceIndex index) {
+        if (!this.deferred.isEmpty()) {
+            throw new IllegalStateException("deferred edits must be replayed before being applied");
+        }
+
+        final Set<TreeNode<GedcomLine>> deleted = Collections.newSetFromMap(new IdentityHashMap<>(this.delNodes.size() * 2));
+        deleted.addAll(this.delNodes);
+
+        final Map<TreeNode<GedcomLine>, List<TreeNode<GedcomLine>>> mapParentToAdded = new IdentityHashMap<>();
+        for (final ChildToBeAdded a : this.newNodes) {
+            mapParentToAdded.computeIfAbsent(a.parent, k -> new ArrayList<>(4)).add(a.child);
+        }
+        for (final TreeNode<GedcomLine> node : this.delNodes) {
+            final TreeNode<GedcomLine> parent = node.parent();
+            if (parent != null) {
+                mapParentToAdded.putIfAbsent(parent, Collections.emptyList());
+            }
+        }
+
+        mapParentToAdded.forEach((parent, added) -> rebuildChildren(parent, added, deleted));
+
+        if (index != null) {
+            for (final ChildToBeAdded a : this.newNodes) {
+                index.add(a.child);
+            }
+            // (after the additions, in case any were made under deleted nodes)
+            for (final TreeNode<GedcomLine> node : this.delNodes) {
+                index.remove(node);
+            }
+        }
+        clear();
+    }
+
+    private static void rebuildChildren(final TreeNode<GedcomLine> parent, final List<TreeNode<GedcomLine>> added, final Set<TreeNode<GedcomLine>> deleted) {
+        final List<TreeNode<GedcomLine>> children = new ArrayList<>(parent.getChildCount() + added.size());
+        for (final TreeNode<GedcomLine> child : parent) {
+            if (!deleted.contains(child)) {
+                children.add(child);
+            }
+        }
+        for (final TreeNode<GedcomLine> child : added) {
+            if (!deleted.contains(child)) {
+                children.add(child);
+            }
+        }
+        parent.removeAllChildren();
+        children.forEach(parent::addChild);
+    }
+
+    private void clear() {
+        this.newNodes.clear();
+        this.delNodes.clear();
+        this.deferred.clear();
+    }
+}
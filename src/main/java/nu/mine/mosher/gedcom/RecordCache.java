@@ -0,0 +1,513 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Results of the record-local passes from the previous run, kept in a file
+ * next to the input file, so that an incremental run only has to fix the
+ * records that have changed.
+ *
+ * Fixing one record can change another: a NOTE pointer causes the NOTE
+ * record to be fixed, and custom tags found in it to be added to the
+ * record with the pointer. So records are cached in groups: each record
+ * along with every record it is connected to by NOTE pointers (usually,
+ * just the one record). A group is identified by a SHA-256 hash of its
+ * records, as they were read, in order, along with the settings that
+ * affect fixing, and a fingerprint of the code that does the fixing (so
+ * no cache from a different build of the fixer, or of gedcom-lib, is
+ * ever used). The cache holds each group's fixed records, and the
+ * edits that fixing them queued, which are replayed in the same order
+ * a full run would have queued them.
+ *
+ * Only the groups seen in the latest run are kept, so the cache doesn't
+ * grow as records come and go.
+ */
+final class RecordCache {
+    interface RecordFixer {
+        void fix(TreeNode<GedcomLine> record, PendingEdits edits);
+    }
+
+    private static final String MAGIC = "gedcom-fixer record cache";
+
+    // guarded by RecordCache.class
+    private static String codeFingerprint;
+
+    private static final int ROOT = -1;
+
+    private final String settings;
+    private final String code;
+    private Map<String, byte[]> previous = new HashMap<>();
+    private final Map<String, byte[]> latest = new HashMap<>();
+    private int hits;
+    private int misses;
+
+    /**
+     * @param settings anything else (such as options) that affects what
+     * the record-local passes do
+     */
+    RecordCache(final String settings) {
+        this(settings, codeFingerprint());
+    }
+
+    RecordCache(final String settings, final String code) {
+        this.settings = settings;
+        this.code = code;
+    }
+
+    /**
+     * Reads the cache file, if there is one. A cache file that can't be
+     * read is ignored: everything just gets fixed again.
+     */
+    void read(final File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!in.readUTF().equals(MAGIC)) {
+                return;
+            }
+            final Map<String, byte[]> entries = new HashMap<>();
+            for (int n = in.readInt(); n > 0; --n) {
+                final String hash = in.readUTF();
+                final byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                entries.put(hash, payload);
+            }
+            this.previous = entries;
+        } catch (final IOException | RuntimeException e) {
+            this.previous = new HashMap<>();
+        }
+    }
+
+    void write(final File file) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeUTF(MAGIC);
+            out.writeInt(this.latest.size());
+            for (final Map.Entry<String, byte[]> entry : this.latest.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Runs the record-local passes on each top-level record under root,
+     * or, for the groups of records that are in the cache, puts the
+     * cached results in their place. The queued edits end up in edits,
+     * in the same order as if every record had been fixed.
+     */
+    void fixRecords(final TreeNode<GedcomLine> root, final ReferenceIndex refs, final PendingEdits edits, final RecordFixer fixer, final int threads) throws IOException {
+        final List<TreeNode<GedcomLine>> records = new ArrayList<>(root.getChildCount());
+        root.forEach(records::add);
+        final List<int[]> groups = group(root, records, refs);
+        final byte[][] input = new byte[records.size()][];
+        for (int i = 0; i < input.length; ++i) {
+            input[i] = serialize(records.get(i));
+        }
+
+        final PendingEdits[] journals = new PendingEdits[records.size()];
+        final List<int[]> changed = new ArrayList<>();
+        final List<String> changedHashes = new ArrayList<>();
+        for (final int[] group : groups) {
+            final String hash = hash(group, input);
+            final byte[] payload = this.previous.get(hash);
+            if (payload != null && install(payload, group, records, root, refs, journals)) {
+                this.latest.put(hash, payload);
+                ++this.hits;
+            } else {
+                changed.add(group);
+                changedHashes.add(hash);
+                ++this.misses;
+            }
+        }
+
+        final byte[][] payloads = new byte[changed.size()][];
+        if (threads <= 1) {
+            for (int g = 0; g < changed.size(); ++g) {
+                payloads[g] = fixGroup(changed.get(g), records, root, journals, fixer);
+            }
+        } else {
+            // groups don't affect each other, so they can be fixed concurrently
+            final List<TreeNode<GedcomLine>> firsts = new ArrayList<>(changed.size());
+            changed.forEach(group -> firsts.add(records.get(group[0])));
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ParallelRecords.forEach(firsts, pool, (g, first) -> payloads[g] = fixGroup(changed.get(g), records, root, journals, fixer));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (int g = 0; g < changed.size(); ++g) {
+            if (payloads[g] != null) {
+                this.latest.put(changedHashes.get(g), payloads[g]);
+            }
+        }
+
+        for (final PendingEdits journal : journals) {
+            journal.replayInto(edits);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final int total = this.hits + this.misses;
+        final long pct = total == 0 ? 0 : Math.round(100.0 * this.hits / total);
+        return String.format("RECORDS cache: %d hits, %d misses (%d%% hit rate)", this.hits, this.misses, pct);
+    }
+
+    /*
+    Groups the records (by index) that are connected by NOTE pointers;
+    each group lists its records in order, and the groups are in order of
+    their first records.
+     */
+    private static List<int[]> group(final TreeNode<GedcomLine> root, final List<TreeNode<GedcomLine>> records, final ReferenceIndex refs) {
+        final Map<TreeNode<GedcomLine>, Integer> index = new IdentityHashMap<>(records.size() * 2);
+        for (int i = 0; i < records.size(); ++i) {
+            index.put(records.get(i), i);
+        }
+
+        final int[] parent = new int[records.size()];
+        for (int i = 0; i < parent.length; ++i) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < records.size(); ++i) {
+            final int from = i;
+            forEachNotePointer(records.get(i), pointer -> {
+                final TreeNode<GedcomLine> target = topLevel(refs.record(pointer), root);
+                final Integer to = target == null ? null : index.get(target);
+                if (to != null) {
+                    parent[find(parent, from)] = find(parent, to);
+                }
+            });
+        }
+
+        final Map<Integer, List<Integer>> members = new HashMap<>();
+        final List<List<Integer>> ordered = new ArrayList<>();
+        for (int i = 0; i < parent.length; ++i) {
+            final List<Integer> group = members.computeIfAbsent(find(parent, i), k -> {
+                final List<Integer> g = new ArrayList<>(1);
+                ordered.add(g);
+                return g;
+            });
+            group.add(i);
+        }
+
+        final List<int[]> groups = new ArrayList<>(ordered.size());
+        for (final List<Integer> g : ordered) {
+            groups.add(g.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return groups;
+    }
+
+    private static int find(final int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private interface PointerVisitor {
+        void visit(String pointer);
+    }
+
+    private static void forEachNotePointer(final TreeNode<GedcomLine> node, final PointerVisitor visitor) {
+        final GedcomLine line = node.getObject();
+        if (line.getTag().equals(GedcomTag.NOTE) && line.isPointer()) {
+            visitor.visit(line.getPointer());
+        }
+        for (final TreeNode<GedcomLine> child : node) {
+            forEachNotePointer(child, visitor);
+        }
+    }
+
+    private static TreeNode<GedcomLine> topLevel(TreeNode<GedcomLine> node, final TreeNode<GedcomLine> root) {
+        while (node != null && node.parent() != root) {
+            node = node.parent();
+        }
+        return node;
+    }
+
+    private String hash(final int[] group, final byte[][] input) {
+        final MessageDigest digest = sha256();
+        digest.update(this.code.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        digest.update(this.settings.getBytes(StandardCharsets.UTF_8));
+        for (final int i : group) {
+            digest.update(intBytes(input[i].length));
+            digest.update(input[i]);
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /*
+    A SHA-256 hash of the class files of the fixer and of gedcom-lib (each
+    jar as a whole, or every class file in a directory of classes), worked
+    out once per JVM. If the code can't be read, a fingerprint that matches
+    nothing is used, so the cache is just never hit.
+     */
+    static synchronized String codeFingerprint() {
+        if (codeFingerprint == null) {
+            try {
+                final MessageDigest digest = sha256();
+                final Set<Path> sources = new LinkedHashSet<>();
+                for (final Class<?> c : new Class<?>[] { RecordCache.class, GedcomLine.class }) {
+                    sources.add(Paths.get(c.getProtectionDomain().getCodeSource().getLocation().toURI()));
+                }
+                for (final Path source : sources) {
+                    digestCode(source, digest);
+                }
+                codeFingerprint = hex(digest.digest());
+            } catch (final IOException | URISyntaxException | RuntimeException e) {
+                codeFingerprint = "unknown code " + UUID.randomUUID();
+            }
+        }
+        return codeFingerprint;
+    }
+
+    private static void digestCode(final Path source, final MessageDigest digest) throws IOException {
+        if (Files.isDirectory(source)) {
+            final List<Path> classes;
+            try (final Stream<Path> files = Files.walk(source)) {
+                classes = files.filter(f -> f.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+            }
+            for (final Path file : classes) {
+                digest.update(source.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(file));
+            }
+        } else {
+            digest.update(Files.readAllBytes(source));
+        }
+    }
+
+    private static byte[] intBytes(final int n) {
+        return new byte[] { (byte)(n >>> 24), (byte)(n >>> 16), (byte)(n >>> 8), (byte)n };
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+    Fixes one group of records, each with its own journal, and returns
+    what to cache for the group (or null if it can't be cached).
+     */
+    private static byte[] fixGroup(final int[] group, final List<TreeNode<GedcomLine>> records, final TreeNode<GedcomLine> root, final PendingEdits[] journals, final RecordFixer fixer) {
+        for (final int i : group) {
+            journals[i] = new PendingEdits();
+            fixer.fix(records.get(i), journals[i]);
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(group.length);
+            for (final int i : group) {
+                if (!writeRecord(out, records.get(i), root, journals[i])) {
+                    return null;
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+    Writes the fixed record, then the edits queued for it, with each node
+    given by its position in the record (in pre-order). Returns false if
+    an edit is for a node that isn't in the record any more.
+     */
+    private static boolean writeRecord(final DataOutputStream out, final TreeNode<GedcomLine> record, final TreeNode<GedcomLine> root, final PendingEdits journal) throws IOException {
+        if (journal.hasDeferred()) {
+            return false;
+        }
+        writeTree(out, record);
+
+        final Map<TreeNode<GedcomLine>, Integer> position = new IdentityHashMap<>();
+        number(record, position);
+        position.put(root, ROOT);
+
+        final List<Integer> deleted = new ArrayList<>();
+        journal.forEachDeleted(node -> deleted.add(position.get(node)));
+        final List<Integer> parents = new ArrayList<>();
+        final List<TreeNode<GedcomLine>> added = new ArrayList<>();
+        journal.forEachAdded((parent, child) -> {
+            parents.add(position.get(parent));
+            added.add(child);
+        });
+        if (deleted.contains(null) || parents.contains(null)) {
+            return false;
+        }
+
+        out.writeInt(deleted.size());
+        for (final int p : deleted) {
+            out.writeInt(p);
+        }
+        out.writeInt(added.size());
+        for (int a = 0; a < added.size(); ++a) {
+            out.writeInt(parents.get(a));
+            writeTree(out, added.get(a));
+        }
+        return true;
+    }
+
+    /*
+    Puts the cached records in place of the group's records (keeping each
+    top-level node, so anything else that refers to it still works), and
+    queues the cached edits. Returns false if the cache entry doesn't fit.
+     */
+    private static boolean install(final byte[] payload, final int[] group, final List<TreeNode<GedcomLine>> records, final TreeNode<GedcomLine> root, final ReferenceIndex refs, final PendingEdits[] journals) {
+        final List<TreeNode<GedcomLine>> fixed = new ArrayList<>(group.length);
+        final List<int[]> deletes = new ArrayList<>(group.length);
+        final List<int[]> addParents = new ArrayList<>(group.length);
+        final List<List<TreeNode<GedcomLine>>> adds = new ArrayList<>(group.length);
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readInt() != group.length) {
+                return false;
+            }
+            for (int k = 0; k < group.length; ++k) {
+                fixed.add(readTree(in));
+                final int[] d = new int[in.readInt()];
+                for (int j = 0; j < d.length; ++j) {
+                    d[j] = in.readInt();
+                }
+                deletes.add(d);
+                final int[] p = new int[in.readInt()];
+                final List<TreeNode<GedcomLine>> a = new ArrayList<>(p.length);
+                for (int j = 0; j < p.length; ++j) {
+                    p[j] = in.readInt();
+                    a.add(readTree(in));
+                }
+                addParents.add(p);
+                adds.add(a);
+            }
+        } catch (final IOException | RuntimeException e) {
+            return false;
+        }
+
+        for (int k = 0; k < group.length; ++k) {
+            final TreeNode<GedcomLine> record = records.get(group[k]);
+            final TreeNode<GedcomLine> cached = fixed.get(k);
+
+            final List<TreeNode<GedcomLine>> old = new ArrayList<>(record.getChildCount());
+            record.forEach(old::add);
+            old.forEach(refs::remove);
+            record.removeAllChildren();
+            record.setObject(cached.getObject());
+            refs.changed(record);
+            final List<TreeNode<GedcomLine>> children = new ArrayList<>(cached.getChildCount());
+            cached.forEach(children::add);
+            for (final TreeNode<GedcomLine> child : children) {
+                record.addChild(child);
+                refs.add(child);
+            }
+
+            final List<TreeNode<GedcomLine>> position = new ArrayList<>();
+            preorder(record, position);
+            final PendingEdits journal = new PendingEdits();
+            for (final int p : deletes.get(k)) {
+                journal.delete(position.get(p));
+            }
+            final int[] parents = addParents.get(k);
+            for (int j = 0; j < parents.length; ++j) {
+                journal.add(parents[j] == ROOT ? root : position.get(parents[j]), adds.get(k).get(j));
+            }
+            journals[group[k]] = journal;
+        }
+        return true;
+    }
+
+    private static void number(final TreeNode<GedcomLine> node, final Map<TreeNode<GedcomLine>, Integer> position) {
+        position.put(node, position.size());
+        node.forEach(c -> number(c, position));
+    }
+
+    private static void preorder(final TreeNode<GedcomLine> node, final List<TreeNode<GedcomLine>> position) {
+        position.add(node);
+        node.forEach(c -> preorder(c, position));
+    }
+
+    private static byte[] serialize(final TreeNode<GedcomLine> record) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        writeTree(out, record);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeTree(final DataOutputStream out, final TreeNode<GedcomLine> node) throws IOException {
+        final GedcomLine line = node.getObject();
+        out.writeInt(line.getLevel());
+        writeString(out, line.getID());
+        writeString(out, line.getTagString());
+        writeString(out, line.isPointer() ? "@" + line.getPointer() + "@" : line.getValue());
+        out.writeInt(node.getChildCount());
+        for (final TreeNode<GedcomLine> child : node) {
+            writeTree(out, child);
+        }
+    }
+
+    private static TreeNode<GedcomLine> readTree(final DataInputStream in) throws IOException {
+        final int level = in.readInt();
+        final String id = readString(in);
+        final String tag = readString(in);
+        final String value = readString(in);
+        final TreeNode<GedcomLine> node = new TreeNode<>(new GedcomLine(level, "@" + id + "@", tag, value));
+        for (int n = in.readInt(); n > 0; --n) {
+            node.addChild(readTree(in));
+        }
+        return node;
+    }
+
+    /* as UTF-16 chars, so any string at all comes back exactly as it was */
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final char[] s = new char[in.readInt()];
+        for (int i = 0; i < s.length; ++i) {
+            s[i] = in.readChar();
+        }
+        return new String(s);
+    }
+}
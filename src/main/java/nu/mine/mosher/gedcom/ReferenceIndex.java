@@ -0,0 +1,214 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the cross-references in a tree: for each ID, the nodes that
+ * have that ID, and the nodes that point to it. It is built with one walk
+ * of the tree, and then kept up to date as the tree is edited, so
+ * finding the references to a record (or remapping an ID) takes time
+ * proportional to the number of references, not the size of the tree.
+ *
+ * The index has to be told about changes: {@link PendingEdits#apply(ReferenceIndex)}
+ * tells it about the nodes added and deleted, {@link #remap} makes its
+ * own changes, and anything else that changes a line's ID or pointer must
+ * call {@link #changed}. Nodes removed from the tree in any other way are
+ * noticed (and dropped from the index) when they are next looked at.
+ *
+ * All methods are synchronized, so the index can be shared by the tasks
+ * that fix records in parallel.
+ */
+final class ReferenceIndex {
+    private final TreeNode<GedcomLine> root;
+
+    // ID -> nodes with that ID, in the order they were indexed
+    private final Map<String, List<TreeNode<GedcomLine>>> definitions = new HashMap<>(8192);
+    // ID -> nodes that point to it
+    private final Map<String, Set<TreeNode<GedcomLine>>> references = new HashMap<>(8192);
+    // each indexed node, and the line it was indexed under
+    private final Map<TreeNode<GedcomLine>, GedcomLine> indexed = new IdentityHashMap<>(16384);
+
+    /**
+     * Creates an empty index for the given tree; {@link #add} the root to
+     * index the whole tree.
+     */
+    ReferenceIndex(final TreeNode<GedcomLine> root) {
+        this.root = root;
+    }
+
+    /**
+     * Gets the node in the tree that currently has the given ID (if more
+     * than one has it, the last one indexed, as with {@link GedcomTree#getNode}),
+     * or null.
+     */
+    synchronized TreeNode<GedcomLine> record(final String id) {
+        final List<TreeNode<GedcomLine>> nodes = this.definitions.get(id);
+        if (nodes == null) {
+            return null;
+        }
+        for (int i = nodes.size() - 1; i >= 0; --i) {
+            final TreeNode<GedcomLine> node = nodes.get(i);
+            if (!attached(node)) {
+                // (removes just this one from nodes, so the ones before it are still to be looked at)
+                unindex(node);
+            } else if (node.getObject().hasID() && node.getObject().getID().equals(id)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the nodes in the tree that currently point to the given ID.
+     */
+    synchronized List<TreeNode<GedcomLine>> referrers(final String id) {
+        final Set<TreeNode<GedcomLine>> nodes = this.references.get(id);
+        if (nodes == null) {
+            return Collections.emptyList();
+        }
+        final List<TreeNode<GedcomLine>> referrers = new ArrayList<>(nodes.size());
+        for (final TreeNode<GedcomLine> node : new ArrayList<>(nodes)) {
+            if (!attached(node)) {
+                unindex(node);
+            } else if (node.getObject().isPointer() && node.getObject().getPointer().equals(id)) {
+                referrers.add(node);
+            }
+        }
+        return referrers;
+    }
+
+    /**
+     * Indexes the given node and all its descendants.
+     */
+    synchronized void add(final TreeNode<GedcomLine> node) {
+        changed(node);
+        for (final TreeNode<GedcomLine> child : node) {
+            add(child);
+        }
+    }
+
+    /**
+     * Drops the given node and all its descendants from the index.
+     */
+    synchronized void remove(final TreeNode<GedcomLine> node) {
+        unindex(node);
+        for (final TreeNode<GedcomLine> child : node) {
+            remove(child);
+        }
+    }
+
+    /**
+     * Re-indexes one node, after its line has been replaced.
+     */
+    synchronized void changed(final TreeNode<GedcomLine> node) {
+        final GedcomLine line = node.getObject();
+        final GedcomLine was = this.indexed.get(node);
+        if (was != null && line != null && sameReferences(was, line)) {
+            // keep its place among the nodes with the same ID
+            this.indexed.put(node, line);
+            return;
+        }
+        unindex(node);
+        if (line == null || !(line.hasID() || line.isPointer())) {
+            return;
+        }
+        if (line.hasID()) {
+            this.definitions.computeIfAbsent(line.getID(), k -> new ArrayList<>(1)).add(node);
+        }
+        if (line.isPointer()) {
+            this.references.computeIfAbsent(line.getPointer(), k -> Collections.newSetFromMap(new IdentityHashMap<>(4))).add(node);
+        }
+        this.indexed.put(node, line);
+    }
+
+    /**
+     * Changes IDs, and all the pointers to them, from the keys of the map
+     * to its values. Only the nodes that have (or point to) one of the
+     * old IDs are touched. Each line is remapped just once, from its
+     * original ID or pointer, so chains (A to B, B to C) are not followed.
+     */
+    synchronized void remap(final Map<String, String> mapRemapIds) {
+        final Set<TreeNode<GedcomLine>> affected = Collections.newSetFromMap(new IdentityHashMap<>(mapRemapIds.size() * 8));
+        for (final String id : mapRemapIds.keySet()) {
+            final List<TreeNode<GedcomLine>> defs = this.definitions.get(id);
+            if (defs != null) {
+                affected.addAll(defs);
+            }
+            final Set<TreeNode<GedcomLine>> refs = this.references.get(id);
+            if (refs != null) {
+                affected.addAll(refs);
+            }
+        }
+
+        for (final TreeNode<GedcomLine> node : affected) {
+            if (!attached(node)) {
+                unindex(node);
+                continue;
+            }
+            final GedcomLine gedcomLine = node.getObject();
+            if (gedcomLine.hasID()) {
+                final String newId = mapRemapIds.get(gedcomLine.getID());
+                if (newId != null) {
+                    node.setObject(new GedcomLine(gedcomLine.getLevel(), "@"+newId+"@", gedcomLine.getTagString(), gedcomLine.getValue()));
+                }
+            }
+            if (gedcomLine.isPointer()) {
+                final String newId = mapRemapIds.get(gedcomLine.getPointer());
+                if (newId != null) {
+                    // assume that no line with a pointer also has an ID (true as of Gedcom 5.5)
+                    node.setObject(new GedcomLine(gedcomLine.getLevel(), "", gedcomLine.getTagString(), "@"+newId+"@"));
+                }
+            }
+            if (node.getObject() != gedcomLine) {
+                changed(node);
+            }
+        }
+    }
+
+    private void unindex(final TreeNode<GedcomLine> node) {
+        final GedcomLine was = this.indexed.remove(node);
+        if (was == null) {
+            return;
+        }
+        if (was.hasID()) {
+            final List<TreeNode<GedcomLine>> defs = this.definitions.get(was.getID());
+            for (int i = defs.size() - 1; i >= 0; --i) {
+                if (defs.get(i) == node) {
+                    defs.remove(i);
+                    break;
+                }
+            }
+            if (defs.isEmpty()) {
+                this.definitions.remove(was.getID());
+            }
+        }
+        if (was.isPointer()) {
+            final Set<TreeNode<GedcomLine>> refs = this.references.get(was.getPointer());
+            refs.remove(node);
+            if (refs.isEmpty()) {
+                this.references.remove(was.getPointer());
+            }
+        }
+    }
+
+    private static boolean sameReferences(final GedcomLine a, final GedcomLine b) {
+        return
+            a.hasID() == b.hasID() && (!a.hasID() || a.getID().equals(b.getID())) &&
+            a.isPointer() == b.isPointer() && (!a.isPointer() || a.getPointer().equals(b.getPointer()));
+    }
+
+    private boolean attached(TreeNode<GedcomLine> node) {
+        while (node.parent() != null) {
+            node = node.parent();
+        }
+        return node == this.root;
+    }
+}
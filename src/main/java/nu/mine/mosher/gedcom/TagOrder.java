@@ -0,0 +1,160 @@
+package nu.mine.mosher.gedcom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The order that lines are sorted into, by tag: one table for the
+ * top-level records, and one for the lines within each kind of record.
+ *
+ * Each table is an int array indexed by {@link GedcomTag#ordinal()},
+ * giving the tag's rank; tags not in the table get {@link #UNKNOWN},
+ * which sorts before all the others. So looking up a rank is just an
+ * array load.
+ *
+ * The tables are written as text, one line per table: the table's name,
+ * followed by its tags in order. For example:
+ * <pre>
+ *   # people: name first
+ *   INDI NAME SEX REFN RIN CHAN FAMC FAMS SOUR OBJE NOTE
+ * </pre>
+ * A file like that can be given with {@code --tag-order}; each table it
+ * lists replaces the built-in one, and the others stay as they are.
+ */
+final class TagOrder {
+    static final int UNKNOWN = -1;
+
+    enum Table {
+        TOP, HEAD, EVENT, INDI, FAM, SOUR, CITATION
+    }
+
+    private static final String[] SCHEMA = {
+        "TOP      HEAD SUBN SUBM INDI FAM REPO SOUR NOTE OBJE TRLR",
+        "HEAD     CHAR LANG PLAC COPR  SOUR DESI DATE SUBM SUBN FILE NOTE  GEDC",
+        "EVENT    TYPE DATE PLAC ADDR PHON AGE AGNC CAUS SOUR OBJE NOTE",
+        "INDI     REFN RIN CHAN  RFN AFN RESN  NAME ALIA SEX FAMC FAMS ASSO DESI ANCI  SOUR OBJE NOTE SUBM",
+        "FAM      REFN RIN CHAN  HUSB WIFE NCHI CHIL  SOUR OBJE NOTE SUBM",
+        "SOUR     REFN RIN CHAN  REPO  TITL AUTH PUBL ABBR  DATA TEXT  OBJE NOTE",
+        "CITATION PAGE QUAY EVEN DATA OBJE NOTE",
+    };
+
+    static final TagOrder DEFAULT = new TagOrder(parse(Arrays.asList(SCHEMA), "built-in tag order", null));
+
+    final int[] top;
+    final int[] head;
+    final int[] event;
+    final int[] indi;
+    final int[] fam;
+    final int[] sour;
+    final int[] citation;
+
+    private TagOrder(final int[][] tables) {
+        this.top = tables[Table.TOP.ordinal()];
+        this.head = tables[Table.HEAD.ordinal()];
+        this.event = tables[Table.EVENT.ordinal()];
+        this.indi = tables[Table.INDI.ordinal()];
+        this.fam = tables[Table.FAM.ordinal()];
+        this.sour = tables[Table.SOUR.ordinal()];
+        this.citation = tables[Table.CITATION.ordinal()];
+    }
+
+    /**
+     * Reads the file, if any, over the built-in tables.
+     */
+    static TagOrder read(final File file) throws IOException {
+        if (file == null) {
+            return DEFAULT;
+        }
+        return DEFAULT.override(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8), file.getPath());
+    }
+
+    TagOrder override(final List<String> lines, final String source) {
+        return new TagOrder(parse(lines, source, tables()));
+    }
+
+    static int rank(final int[] table, final GedcomTag tag) {
+        return table[tag.ordinal()];
+    }
+
+    private int[][] tables() {
+        final int[][] tables = new int[Table.values().length][];
+        tables[Table.TOP.ordinal()] = this.top;
+        tables[Table.HEAD.ordinal()] = this.head;
+        tables[Table.EVENT.ordinal()] = this.event;
+        tables[Table.INDI.ordinal()] = this.indi;
+        tables[Table.FAM.ordinal()] = this.fam;
+        tables[Table.SOUR.ordinal()] = this.sour;
+        tables[Table.CITATION.ordinal()] = this.citation;
+        return tables;
+    }
+
+    private static int[][] parse(final List<String> lines, final String source, final int[][] base) {
+        final int[][] tables = base == null ? new int[Table.values().length][] : base;
+        final boolean[] seen = new boolean[tables.length];
+
+        int n = 0;
+        for (String line : lines) {
+            ++n;
+            final int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            final String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty()) {
+                continue;
+            }
+
+            final Table table = table(words[0], source, n);
+            if (seen[table.ordinal()]) {
+                throw new IllegalArgumentException(source + ":" + n + ": table " + table + " given more than once");
+            }
+            seen[table.ordinal()] = true;
+            tables[table.ordinal()] = compile(words, source, n);
+        }
+
+        for (final Table table : Table.values()) {
+            if (tables[table.ordinal()] == null) {
+                throw new IllegalArgumentException(source + ": missing table " + table);
+            }
+        }
+        return tables;
+    }
+
+    private static int[] compile(final String[] words, final String source, final int n) {
+        final int[] ranks = new int[GedcomTag.values().length];
+        Arrays.fill(ranks, UNKNOWN);
+        for (int i = 1; i < words.length; ++i) {
+            final GedcomTag tag = tag(words[i], source, n);
+            if (ranks[tag.ordinal()] != UNKNOWN) {
+                throw new IllegalArgumentException(source + ":" + n + ": tag " + tag + " given more than once in table " + words[0]);
+            }
+            ranks[tag.ordinal()] = i - 1;
+        }
+        return ranks;
+    }
+
+    private static Table table(final String name, final String source, final int n) {
+        try {
+            return Table.valueOf(name);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(source + ":" + n + ": unknown table " + name + "; expected one of " + Arrays.toString(Table.values()), e);
+        }
+    }
+
+    private static GedcomTag tag(final String name, final String source, final int n) {
+        final GedcomTag tag;
+        try {
+            tag = GedcomTag.valueOf(name);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(source + ":" + n + ": unknown tag " + name, e);
+        }
+        if (tag.equals(GedcomTag.UNKNOWN)) {
+            throw new IllegalArgumentException(source + ":" + n + ": unknown tag " + name);
+        }
+        return tag;
+    }
+}
@@ -0,0 +1,138 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class BatchFixerTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file(final String name, final String contents) throws IOException {
+        final File file = new File(this.folder.getRoot(), name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void directoryGivesItsGedcomFiles() throws IOException {
+        final File b = file("dir/b.ged", "");
+        final File a = file("dir/a.GED", "");
+        file("dir/a.fixed.ged", "");
+        file("dir/notes.txt", "");
+
+        final List<File> inputs = BatchFixer.inputs(Collections.singletonList(b.getParentFile()));
+
+        assertThat(inputs, contains(a, b));
+    }
+
+    @Test
+    public void listFileGivesItsLines() throws IOException {
+        final File list = file("lists/nightly.txt", "# tonight\n\none.ged\n  /abs/two.ged  \n");
+
+        final List<File> inputs = BatchFixer.inputs(Collections.singletonList(list));
+
+        assertThat(inputs, contains(new File(list.getAbsoluteFile().getParentFile(), "one.ged"), new File("/abs/two.ged")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingArgumentFails() throws IOException {
+        BatchFixer.inputs(Collections.singletonList(new File(this.folder.getRoot(), "nothing")));
+    }
+
+    @Test
+    public void outputGoesNextToInput() {
+        assertThat(BatchFixer.outputFile(new File("/data/smith.ged")), is(new File("/data/smith.fixed.ged")));
+        assertThat(BatchFixer.outputFile(new File("/data/smith")), is(new File("/data/smith.fixed.ged")));
+    }
+
+    @Test
+    public void failuresAreIsolatedAndReported() throws IOException {
+        final List<File> inputs = Arrays.asList(file("a.ged", "a"), file("b.ged", "bb"), file("c.ged", "ccc"));
+
+        final BatchFixer batch = new BatchFixer(inputs, 2);
+        batch.run((in, out, err) -> {
+            if (in.getName().equals("b.ged")) {
+                throw new IOException("bad file");
+            }
+            Files.write(out.toPath(), Files.readAllBytes(in.toPath()));
+        }, System.err);
+
+        assertThat(batch.failed(), is(1));
+        assertThat(new String(Files.readAllBytes(new File(this.folder.getRoot(), "a.fixed.ged").toPath()), StandardCharsets.UTF_8), is("a"));
+        assertThat(new File(this.folder.getRoot(), "c.fixed.ged").exists(), is(true));
+
+        final ByteArrayOutputStream report = new ByteArrayOutputStream();
+        batch.report(new PrintStream(report, true, "UTF-8"));
+        assertThat(report.toString("UTF-8"), containsString("BATCH: 2 files fixed, 1 failed"));
+        assertThat(report.toString("UTF-8"), containsString("FAILED: " + inputs.get(1) + ": java.io.IOException: bad file"));
+    }
+
+    @Test
+    public void errorsAreFailuresToo() throws IOException {
+        final List<File> inputs = Arrays.asList(file("a.ged", "a"), file("deep.ged", "b"));
+
+        final BatchFixer batch = new BatchFixer(inputs, 1);
+        batch.run((in, out, err) -> {
+            if (in.getName().equals("deep.ged")) {
+                throw new StackOverflowError();
+            }
+        }, System.err);
+
+        assertThat(batch.failed(), is(1));
+        final ByteArrayOutputStream report = new ByteArrayOutputStream();
+        batch.report(new PrintStream(report, true, "UTF-8"));
+        assertThat(report.toString("UTF-8"), containsString("FAILED: " + inputs.get(1) + ": java.lang.StackOverflowError"));
+    }
+
+    @Test
+    public void messagesAreLabeledWithTheirFile() throws IOException {
+        final List<File> inputs = Arrays.asList(file("a.ged", "a"), file("b.ged", "b"), file("c.ged", "c"));
+
+        final ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        final BatchFixer batch = new BatchFixer(inputs, 3);
+        batch.run((in, out, err) -> {
+            for (int i = 0; i < 100; ++i) {
+                err.println("message " + i);
+                Thread.yield();
+            }
+        }, new PrintStream(messages, true, "UTF-8"));
+
+        final String[] lines = messages.toString("UTF-8").split("\\R");
+        assertThat(lines.length, is(300));
+        // each file's messages are together, and in order
+        for (int f = 0; f < 3; ++f) {
+            final String file = lines[f * 100].substring(0, lines[f * 100].indexOf(": "));
+            for (int i = 0; i < 100; ++i) {
+                assertThat(lines[f * 100 + i], is(file + ": message " + i));
+            }
+        }
+    }
+
+    @Test
+    public void mainFixesEachFileInTheBatch() throws Exception {
+        final String gedcom = "0 HEAD\n1 CHAR UTF-8\n0 @I1@ INDI\n1 NAME John /Smith/\n1 REFN 3b241101-e2bb-4255-8caf-4136c566a962\n0 TRLR\n";
+        final File one = file("batch/one.ged", gedcom);
+        file("batch/two.ged", gedcom);
+
+        GedcomFixer.main("--batch", "--jobs=2", one.getParent());
+
+        final File fixed = new File(one.getParentFile(), "one.fixed.ged");
+        assertThat(new String(Files.readAllBytes(fixed.toPath()), StandardCharsets.UTF_8), containsString("0 @I1@ INDI"));
+        assertThat(new File(one.getParentFile(), "two.fixed.ged").exists(), is(true));
+        assertThat(new File(one.getPath() + ".ids").exists(), is(true));
+    }
+}
@@ -0,0 +1,104 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class CensusNoteRewriterTest {
+    private static final String ALPHABET = "ab x;";
+
+    private static String random(final Random random, final int maxLength) {
+        final StringBuilder s = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; --i) {
+            s.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return s.toString();
+    }
+
+    private static String regexes(final String value, final List<String> labels, final List<String[]> corrections) {
+        String s = value;
+        for (final String label : labels) {
+            s = s.replaceAll("(\\w)" + Pattern.quote(label), "$1; " + Matcher.quoteReplacement(label));
+        }
+        for (final String[] correction : corrections) {
+            s = s.replace(correction[0], correction[1]);
+        }
+        return s;
+    }
+
+    @Test
+    public void labelDoesNotOverlapItself() {
+        final CensusNoteRewriter r = new CensusNoteRewriter().label("aa", false);
+        assertThat(r.rewrite("xaaa"), is("x; aaa"));
+        assertThat(r.rewrite("xaaaa"), is("x; aaaa"));
+        assertThat(r.rewrite("xaaaaa"), is("x; aaa; aa"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void earlierLabelMustNotStartInsideLaterLabel() {
+        new CensusNoteRewriter().label("a", false).label("ba", false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void earlierLabelMustNotOverlapEndOfLaterLabel() {
+        new CensusNoteRewriter().label("ab", false).label("ba", false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void labelMustNotContainSemicolon() {
+        new CensusNoteRewriter().label("b;", false);
+    }
+
+    @Test
+    public void laterLabelMayBeInsideEarlierLabel() {
+        final CensusNoteRewriter r = new CensusNoteRewriter().label("ba", false).label("a", false);
+        // (as with the regexes, the later label also gets a separator inside the earlier one)
+        assertThat(r.rewrite("xbaxa"), is("x; b; ax; a"));
+    }
+
+    /*
+    The one-scan rewrite against the regular expressions it replaces, on
+    random values, for random sets of labels (those that are allowed), with
+    and without a correction.
+     */
+    @Test
+    public void sameAsRegexes() {
+        final Random random = new Random(1);
+        int configurations = 0;
+        while (configurations < 300) {
+            final List<String> labels = new ArrayList<>();
+            final List<String[]> corrections = new ArrayList<>();
+            final CensusNoteRewriter r = new CensusNoteRewriter();
+            try {
+                for (int i = 1 + random.nextInt(3); i > 0; --i) {
+                    String label = random(random, 3);
+                    while (label.isEmpty()) {
+                        label = random(random, 3);
+                    }
+                    r.label(label, false);
+                    labels.add(label);
+                }
+                if (random.nextBoolean()) {
+                    final String text = "b" + random(random, 2);
+                    r.correct(text, text.toUpperCase());
+                    corrections.add(new String[] { text, text.toUpperCase() });
+                }
+            } catch (final IllegalArgumentException notAllowed) {
+                continue;
+            }
+            ++configurations;
+
+            for (int i = 0; i < 2000; ++i) {
+                final String value = random(random, 12);
+                assertThat(labels + " on \"" + value + "\"", r.rewrite(value), is(regexes(value, labels, corrections)));
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import org.junit.*;
+
+import static nu.mine.mosher.gedcom.TestTrees.node;
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class CompactTreeTest {
+    private static String dump(final TreeNode<GedcomLine> node) {
+        final StringBuilder s = new StringBuilder();
+        s.append(node.getObject()).append('\n');
+        node.forEach(c -> s.append(dump(c)));
+        return s.toString();
+    }
+
+    private static TreeNode<GedcomLine> indi() {
+        final TreeNode<GedcomLine> indi = node(null, 0, "@I1@", "INDI", "");
+        node(indi, 1, "", "NAME", "José /García/");
+        final TreeNode<GedcomLine> birt = node(indi, 1, "", "BIRT", "");
+        node(birt, 2, "", "DATE", "1 JAN 1900");
+        node(birt, 2, "", "_CUSTOM", "line one\nline two");
+        node(indi, 1, "", "NOTE", "@N1@");
+        return indi;
+    }
+
+    @Test
+    public void recordsRoundTrip() {
+        final CompactTree store = new CompactTree();
+        final TreeNode<GedcomLine> indi = indi();
+        final TreeNode<GedcomLine> note = node(null, 0, "@N1@", "NOTE", "a note");
+        assertThat(store.add(indi), is(0));
+        assertThat(store.add(note), is(1));
+
+        assertThat(store.recordCount(), is(2));
+        assertThat(dump(store.record(0)), is(dump(indi)));
+        assertThat(dump(store.record(1)), is(dump(note)));
+        assertThat(store.record(0).getObject().getTag(), is(GedcomTag.INDI));
+        assertThat(store.find("N1"), is(1));
+        assertThat(store.find("X"), is(-1));
+    }
+
+    @Test
+    public void replacedRecordIsStoredBack() {
+        final CompactTree store = new CompactTree();
+        store.add(indi());
+        final TreeNode<GedcomLine> view = store.record(0);
+        node(view, 1, "", "SEX", "M");
+        store.replace(0, view);
+
+        assertThat(dump(store.record(0)), is(dump(view)));
+        assertThat(store.find("I1"), is(0));
+        assertThat(store.rows(), is(2 * 6 + 1));
+    }
+
+    @Test
+    public void deletedRecordIsGone() {
+        final CompactTree store = new CompactTree();
+        store.add(indi());
+        store.delete(0);
+        assertThat(store.isDeleted(0), is(true));
+        assertThat(store.find("I1"), is(-1));
+    }
+
+    @Test
+    public void longValueGetsABlockOfItsOwn() {
+        final StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 300000; ++i) {
+            s.append("abcdé");
+        }
+        final CompactTree store = new CompactTree();
+        store.add(node(null, 0, "@N1@", "NOTE", "short"));
+        store.add(node(null, 0, "@N2@", "NOTE", s.toString()));
+        store.add(node(null, 0, "@N3@", "NOTE", "after"));
+        assertThat(store.record(1).getObject().getValue(), is(s.toString()));
+        assertThat(store.record(2).getObject().getValue(), is("after"));
+        assertThat(store.record(0).getObject().getValue(), is("short"));
+    }
+
+    @Test
+    public void unchangedRecordIsNotStoredAgain() {
+        final CompactTree store = new CompactTree();
+        store.add(indi());
+        store.replace(0, store.record(0));
+        assertThat(store.rows(), is(6));
+    }
+
+    @Test
+    public void unusedRowsAreDroppedEventually() {
+        final CompactTree store = new CompactTree();
+        store.add(indi());
+        store.add(node(null, 0, "@N1@", "NOTE", "a note"));
+        store.add(node(null, 0, "@N2@", "NOTE", "another"));
+        store.delete(1);
+        for (int i = 0; i < 100; ++i) {
+            final TreeNode<GedcomLine> view = store.record(0);
+            node(view, 1, "", "_N", Integer.toString(i));
+            store.replace(0, view);
+        }
+
+        assertThat(store.rows(), lessThan(2 * (6 + 100 + 1)));
+        assertThat(store.record(0).getChildCount(), is(3 + 100));
+        assertThat(store.record(2).getObject().getValue(), is("another"));
+        assertThat(store.isDeleted(1), is(true));
+        assertThat(store.find("N2"), is(2));
+        assertThat(store.find("I1"), is(0));
+    }
+
+    @Test
+    public void deletedRecordsTakeNoRowsAfterRebuild() {
+        final CompactTree store = new CompactTree();
+        store.add(node(null, 0, "@N1@", "NOTE", "one"));
+        store.add(node(null, 0, "@N2@", "NOTE", "two"));
+        store.add(node(null, 0, "@N3@", "NOTE", "three"));
+        store.delete(0);
+        store.delete(1);
+
+        assertThat(store.rows(), is(1));
+        assertThat(store.isDeleted(0), is(true));
+        assertThat(store.isDeleted(1), is(true));
+        assertThat(store.find("N3"), is(2));
+        assertThat(store.record(2).getObject().getValue(), is("three"));
+    }
+
+    @Test
+    public void changedIdIsFoundOnlyByTheNewId() {
+        final CompactTree store = new CompactTree();
+        store.add(indi());
+        store.replace(0, node(null, 0, "@I2@", "INDI", ""));
+
+        assertThat(store.find("I1"), is(-1));
+        assertThat(store.find("I2"), is(0));
+    }
+
+    @Test
+    public void changedIdLeavesLaterRecordWithTheOldId() {
+        final CompactTree store = new CompactTree();
+        store.add(indi());
+        store.add(node(null, 0, "@I1@", "INDI", ""));
+        store.replace(0, node(null, 0, "@I2@", "INDI", ""));
+
+        assertThat(store.find("I1"), is(1));
+        assertThat(store.find("I2"), is(0));
+    }
+}
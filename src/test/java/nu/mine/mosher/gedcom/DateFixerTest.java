@@ -0,0 +1,318 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+/*
+DateFixer against the series of regular expressions that it replaced
+(copied here from the old GedcomFixer.fixDate), on random values made
+of the pieces that dates are made of.
+ */
+public class DateFixerTest {
+    private static final String[] PREFIXES = {
+        "BET", "Bet.", "btw", "BTW.", "BEF", "Bef.", "before", "AFT", "aft.", "AFTER", "ABT", "abt.", "C", "c.",
+        "FROM", "from", "TO", "to", "@#DJULIAN@", "@@#DJULIAN@@", "#D",
+    };
+
+    private static final String[] INFIXES = {
+        "-", "–", " AND ", " and ", " TO ", " to ", " - ", "/", " ",
+    };
+
+    private static final String[] MONTHS = {
+        "JAN", "jan", "Feb", "MARCH", "April", "may", "JUNE", "jul", "AUG", "September", "oct", "NOV", "December", "XXX", "févr", "Mär",
+    };
+
+    private static final String[] NUMBERS = {
+        "0", "1", "2", "9", "12", "13", "29", "31", "32", "99", "100", "1066", "1659", "1900", "2013", "99999",
+    };
+
+    private static final String[] SEPARATORS = {
+        " ", " ", " ", " ", "", "-", "–", "/", ".", ". ", " - ", "  ", "\n",
+    };
+
+    private static String pick(final Random random, final String[] strings) {
+        return strings[random.nextInt(strings.length)];
+    }
+
+    /*
+    Half the values are a date-like shape ([prefix] date [infix date]), and
+    the other half are any pieces with any separators between them.
+     */
+    private static String random(final Random random) {
+        final StringBuilder s = new StringBuilder();
+        if (random.nextBoolean()) {
+            if (random.nextInt(4) > 0) {
+                s.append(pick(random, PREFIXES)).append(random.nextInt(8) > 0 ? " " : pick(random, SEPARATORS));
+            }
+            date(random, s);
+            if (random.nextBoolean()) {
+                s.append(pick(random, INFIXES));
+                date(random, s);
+            }
+        } else {
+            for (int i = 1 + random.nextInt(7); i > 0; --i) {
+                final int kind = random.nextInt(3);
+                s.append(pick(random, kind == 0 ? PREFIXES : kind == 1 ? MONTHS : NUMBERS));
+                if (i > 1) {
+                    s.append(pick(random, SEPARATORS));
+                }
+            }
+        }
+        return s.toString();
+    }
+
+    private static void date(final Random random, final StringBuilder s) {
+        switch (random.nextInt(6)) {
+            case 0: s.append(pick(random, NUMBERS)).append(' ').append(pick(random, MONTHS)).append(' ').append(pick(random, NUMBERS)); break;
+            case 1: s.append(pick(random, MONTHS)).append(' ').append(pick(random, NUMBERS)); break;
+            case 2: s.append(pick(random, NUMBERS)).append('/').append(pick(random, NUMBERS)).append('/').append(pick(random, NUMBERS)); break;
+            case 3: s.append(pick(random, NUMBERS)).append(' ').append(pick(random, MONTHS)); break;
+            case 4: s.append(pick(random, MONTHS)); break;
+            default: s.append(pick(random, NUMBERS)); break;
+        }
+    }
+
+    /*
+    The result, or else the exception (as the regexes did, DateFixer throws
+    on a number too big for an int, and on a month number over 12).
+     */
+    private static String outcome(final Function<String, String> fixer, final String value) {
+        try {
+            return fixer.apply(value);
+        } catch (final RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    @Test
+    public void sameAsRegexes() {
+        final Random random = new Random(1);
+        final DateFixer fixer = new DateFixer();
+        for (int i = 0; i < 400000; ++i) {
+            final String value = random(random);
+            assertThat(value, outcome(fixer::fix, value), is(outcome(DateFixerTest::regexes, value)));
+        }
+    }
+
+    @Test
+    public void unchangedValueIsTheSameString() {
+        final String value = "01 JAN 1900";
+        assertThat(new DateFixer().fix(value), sameInstance(value));
+    }
+
+
+
+    private static final Map<String, Integer> mapMonthNameToNumber = new HashMap<>(24,1);
+
+    static {
+        mapMonthNameToNumber.put("JAN", 1);
+        mapMonthNameToNumber.put("FEB", 2);
+        mapMonthNameToNumber.put("MAR", 3);
+        mapMonthNameToNumber.put("APR", 4);
+        mapMonthNameToNumber.put("MAY", 5);
+        mapMonthNameToNumber.put("JUN", 6);
+        mapMonthNameToNumber.put("JUL", 7);
+        mapMonthNameToNumber.put("AUG", 8);
+        mapMonthNameToNumber.put("SEP", 9);
+        mapMonthNameToNumber.put("OCT", 10);
+        mapMonthNameToNumber.put("NOV", 11);
+        mapMonthNameToNumber.put("DEC", 12);
+        mapMonthNameToNumber.put("JANUARY", 1);
+        mapMonthNameToNumber.put("FEBRUARY", 2);
+        mapMonthNameToNumber.put("MARCH", 3);
+        mapMonthNameToNumber.put("APRIL", 4);
+        mapMonthNameToNumber.put("MAY", 5);
+        mapMonthNameToNumber.put("JUNE", 6);
+        mapMonthNameToNumber.put("JULY", 7);
+        mapMonthNameToNumber.put("AUGUST", 8);
+        mapMonthNameToNumber.put("SEPTEMBER", 9);
+        mapMonthNameToNumber.put("OCTOBER", 10);
+        mapMonthNameToNumber.put("NOVEMBER", 11);
+        mapMonthNameToNumber.put("DECEMBER", 12);
+    }
+
+    private static final String monthName[] = {
+            "UNKNOWN_MONTH",
+            "JAN",
+            "FEB",
+            "MAR",
+            "APR",
+            "MAY",
+            "JUN",
+            "JUL",
+            "AUG",
+            "SEP",
+            "OCT",
+            "NOV",
+            "DEC",
+    };
+
+    private static final Pattern DATE_BET = Pattern.compile("(?:BET|BTW)\\.? (.*)(?:–|-| AND )(.*)");
+    private static final Pattern DATE_BEF = Pattern.compile("(?:BEF\\.?|BEFORE) (.*)");
+    private static final Pattern DATE_AFT = Pattern.compile("(?:AFT\\.?|AFTER) (.*)");
+    private static final Pattern DATE_ABT = Pattern.compile("(?:ABT|C)\\.? (.*)");
+    private static final Pattern DATE_FROMTO = Pattern.compile("FROM (.*) TO (.*)");
+    private static final Pattern DATE_FROM = Pattern.compile("FROM (.*)");
+    private static final Pattern DATE_TO = Pattern.compile("TO (.*)");
+    private static final Pattern DATE_Y_TO_Y = Pattern.compile("([0-9]+)(?:–|-)([0-9]+)");
+
+    static class dt {
+        String s;
+        int m;
+        int y;
+    }
+
+    private static String regexes(String value) {
+        Matcher matcher;
+
+        value = value.toUpperCase();
+
+        if (value.contains("#D")) {
+            value = value.replaceAll("@+#DJULIAN@+ ", "");
+        }
+
+        if ((matcher = DATE_BET.matcher(value)).matches()) {
+            final dt d2 = fixSingleDate(matcher.group(2));
+            final dt d1 = fixSingleDate(matcher.group(1), d2.y, d2.m);
+            if (d1.s.equals("0")) {
+                value = "BEF " + d2.s;
+            } else if (d2.s.equals("0")) {
+                value = "AFT " + d1.s;
+            } else {
+                value = "BET " + d1.s + " AND " + d2.s;
+            }
+        } else if ((matcher = DATE_BEF.matcher(value)).matches()) {
+            final dt d = fixSingleDate(matcher.group(1));
+            value = "BEF " + d.s;
+        } else if ((matcher = DATE_AFT.matcher(value)).matches()) {
+            final dt d = fixSingleDate(matcher.group(1));
+            value = "AFT " + d.s;
+        } else if ((matcher = DATE_FROMTO.matcher(value)).matches()) {
+            final dt d2 = fixSingleDate(matcher.group(2));
+            final dt d1 = fixSingleDate(matcher.group(1), d2.y, d2.m);
+            if (d1.s.equals("0")) {
+                value = "TO " + d2.s;
+            } else if (d2.s.equals("0")) {
+                value = "FROM " + d1.s;
+            } else {
+                value = "FROM " + d1.s + " TO " + d2.s;
+            }
+        } else if ((matcher = DATE_TO.matcher(value)).matches()) {
+            final dt d = fixSingleDate(matcher.group(1));
+            value = "TO " + d.s;
+        } else if ((matcher = DATE_FROM.matcher(value)).matches()) {
+            final dt d = fixSingleDate(matcher.group(1));
+            value = "FROM " + d.s;
+        } else if ((matcher = DATE_ABT.matcher(value)).matches()) {
+            final dt d = fixSingleDate(matcher.group(1));
+            value = "ABT " + d.s;
+        } else if ((matcher = DATE_Y_TO_Y.matcher(value)).matches()) {
+            final dt d1 = fixSingleDate(matcher.group(1));
+            final dt d2 = fixSingleDate(matcher.group(2));
+            value = "FROM " + d1.s + " TO " + d2.s;
+        } else {
+            final dt d = fixSingleDate(value);
+            if (!d.s.equals("0")) {
+                value = d.s;
+            }
+        }
+        return value;
+    }
+
+    private static final Pattern DATE_SLASHES = Pattern.compile("([0-9]+)/([0-9]+)/([0-9]+)");
+    private static final Pattern DATE_DMY = Pattern.compile("([0-9]+) ([A-Za-z]+) ([0-9]+)");
+    private static final Pattern DATE_MY = Pattern.compile("([A-Za-z]+) ([0-9]+)");
+    private static final Pattern DATE_M = Pattern.compile("([A-Za-z]+)");
+    private static final Pattern DATE_DM = Pattern.compile("([0-9]+) ([A-Za-z]+)");
+    private static final Pattern DATE_Y_OR_D = Pattern.compile("([0-9]+)");
+
+    private static dt fixSingleDate(final String date) {
+        return fixSingleDate(date, 0, 0);
+    }
+
+    private static dt fixSingleDate(final String date, int hintYear, int hintMonth) {
+        int year = 0, month = 0, day = 0;
+        Matcher m;
+
+
+        if ((m = DATE_SLASHES.matcher(date)).matches()) {
+            int g1 = Integer.parseInt(m.group(1));
+            int g2 = Integer.parseInt(m.group(2));
+            int g3 = Integer.parseInt(m.group(3));
+            /* y/m/d,  m/d/y,  or  d/m/y */
+            if (g1 >= 31) {
+                year = g1;
+                month = g2;
+                day = g3;
+            } else if (g1 > 12) {
+                day = g1;
+                month = g2;
+                year = g3;
+            } else {
+                /* TODO: warn if g2 <= 12 */
+                month = g1;
+                day = g2;
+                year = g3;
+            }
+        } else if ((m = DATE_DMY.matcher(date)).matches()) {
+            day = Integer.parseInt(m.group(1));
+            month = fixMonth(m.group(2));
+            year = Integer.parseInt(m.group(3));
+        } else if ((m = DATE_MY.matcher(date)).matches()) {
+            month = fixMonth(m.group(1));
+            year = Integer.parseInt(m.group(2));
+        } else if ((m = DATE_M.matcher(date)).matches()) {
+            month = fixMonth(m.group(1));
+        } else if ((m = DATE_DM.matcher(date)).matches()) {
+            day = Integer.parseInt(m.group(1));
+            month = fixMonth(m.group(2));
+        } else if ((m = DATE_Y_OR_D.matcher(date)).matches()) {
+            int x = Integer.parseInt(m.group(1));
+            if (x <= 31) {
+                day = x;
+            } else {
+                year = x;
+                hintMonth = 0;
+            }
+        } else {
+            hintMonth = 0;
+            hintYear = 0;
+        }
+
+        if (year == 0) {
+            year = hintYear;
+        }
+        if (month == 0) {
+            month = hintMonth;
+        }
+        dt ret = new dt();
+        if (month > 0 && day > 0) {
+            ret.s = String.format("%02d %s %d", day, monthName[month], year);
+        } else if (month > 0) {
+            ret.s = String.format("%s %d", monthName[month], year);
+        } else {
+            ret.s = String.format("%d", year);
+        }
+        ret.m = month;
+        ret.y = year;
+        return ret;
+    }
+
+    private static int fixMonth(String month) {
+        final Integer m = mapMonthNameToNumber.get(month);
+        if (m == null) {
+            /* TODO: warning invalid month name */
+            return 0;
+        }
+        return m;
+    }
+}
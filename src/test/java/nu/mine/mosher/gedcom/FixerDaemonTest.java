@@ -0,0 +1,151 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class FixerDaemonTest {
+    private static final String GEDCOM =
+        "0 HEAD\n" +
+        "1 CHAR UTF-8\n" +
+        "0 @I1@ INDI\n" +
+        "1 NAME John /Smith/\n" +
+        "1 REFN 3b241101-e2bb-4255-8caf-4136c566a962\n" +
+        "1 BIRT\n" +
+        "2 DATE 12 MAR 1850\n" +
+        "2 PLAC Hartford, CT, USA\n" +
+        "0 TRLR\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File socket;
+    private FixerDaemon daemon;
+    private Thread serving;
+
+    @Before
+    public void setUp() throws IOException {
+        this.socket = new File(this.folder.getRoot(), "fixer.sock");
+        this.daemon = new FixerDaemon(this.socket.toPath(), 2);
+        final GedcomFixerOptions options = GedcomFixerOptions.parse("--daemon=" + this.socket);
+        this.serving = new Thread(() -> {
+            try {
+                this.daemon.serve((cwd, args, gedcom, out, ids) -> GedcomFixer.fixRequest(options, cwd, args, gedcom, out, ids));
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.serving.start();
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        this.daemon.close();
+        this.serving.join();
+        assertThat(this.socket.exists(), is(false));
+    }
+
+    private File gedcom() throws IOException {
+        final File file = new File(this.folder.getRoot(), "in.ged");
+        Files.write(file.toPath(), GEDCOM.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String expected(final File in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BufferedOutputStream buffered = new BufferedOutputStream(out);
+        GedcomFixer.run(GedcomFixerOptions.parse(in.getPath()), buffered);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void fixesFileByName() throws Exception {
+        final File in = gedcom();
+        final String expected = expected(in);
+        final File ids = new File(in.getPath() + ".ids");
+        Files.delete(ids.toPath());
+
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final int status = FixerClient.run(new String[] { this.socket.getPath(), in.getPath() }, new ByteArrayInputStream(new byte[0]), stdout, System.err);
+
+        assertThat(status, is(0));
+        assertThat(stdout.toString("UTF-8"), is(expected));
+        assertThat(stdout.toString("UTF-8"), containsString("2 PLAC Hartford, Connecticut, USA"));
+        assertThat(new String(Files.readAllBytes(ids.toPath()), StandardCharsets.UTF_8), is("3b241101-e2bb-4255-8caf-4136c566a962,I1" + System.lineSeparator()));
+    }
+
+    @Test
+    public void fixesGedcomSentOnStdin() throws Exception {
+        final String expected = expected(gedcom());
+        final File ids = new File(this.folder.getRoot(), "stdin.ids");
+
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final int status = FixerClient.run(new String[] { this.socket.getPath(), "--ids=" + ids, "--threads=2", "-" }, new ByteArrayInputStream(GEDCOM.getBytes(StandardCharsets.UTF_8)), stdout, System.err);
+
+        assertThat(status, is(0));
+        assertThat(stdout.toString("UTF-8"), is(expected));
+        assertThat(new String(Files.readAllBytes(ids.toPath()), StandardCharsets.UTF_8), containsString(",I1"));
+    }
+
+    @Test
+    public void fixesStreamRequests() throws Exception {
+        final File in = gedcom();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final BufferedOutputStream buffered = new BufferedOutputStream(expected);
+        GedcomFixer.run(GedcomFixerOptions.parse("--stream", in.getPath()), buffered);
+        final File ids = new File(in.getPath() + ".ids");
+
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final int status = FixerClient.run(new String[] { this.socket.getPath(), "--stream", in.getPath() }, new ByteArrayInputStream(new byte[0]), stdout, System.err);
+
+        assertThat(status, is(0));
+        assertThat(stdout.toString("UTF-8"), is(expected.toString("UTF-8")));
+        assertThat(stdout.toString("UTF-8"), containsString("2 PLAC Hartford, Connecticut, USA"));
+        assertThat(ids.exists(), is(false));
+    }
+
+    @Test
+    public void reportsErrors() throws Exception {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final int status = FixerClient.run(new String[] { this.socket.getPath(), "--month-names=fr", "-" }, new ByteArrayInputStream(GEDCOM.getBytes(StandardCharsets.UTF_8)), stdout, new PrintStream(stderr, true, "UTF-8"));
+
+        assertThat(status, is(1));
+        assertThat(stderr.toString("UTF-8"), containsString("must be given to the daemon"));
+        assertThat(stdout.size(), is(0));
+    }
+
+    @Test(timeout = 10000)
+    public void remapFileNamedDashIsNotStdin() throws Exception {
+        final File in = gedcom();
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final int status = FixerClient.run(new String[] { this.socket.getPath(), in.getPath(), "-" }, new ByteArrayInputStream(new byte[0]), stdout, new PrintStream(stderr, true, "UTF-8"));
+
+        // (there is no file named "-", but the daemon answers instead of waiting for a GEDCOM)
+        assertThat(status, is(1));
+        assertThat(stderr.toString("UTF-8"), containsString("FileNotFoundException"));
+    }
+
+    @Test
+    public void servesRequestsOneAfterAnother() throws Exception {
+        final File in = gedcom();
+        final String expected = expected(in);
+        for (int i = 0; i < 5; ++i) {
+            final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            assertThat(FixerClient.run(new String[] { this.socket.getPath(), in.getPath() }, new ByteArrayInputStream(new byte[0]), stdout, System.err), is(0));
+            assertThat(stdout.toString("UTF-8"), is(expected));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(Parameterized.class)
+public class GedcomCensusNoteFixerTest {
+    private static final CensusNoteRewriter ancestry = new CensusNoteRewriter()
+        .label("Age", true)
+        .label("Marital", true)
+        .label("Relation", true)
+        .label("Census Post", false)
+        .correct("Marital status", "Marital Status");
+
+    @Parameters(name = "NOTE {0}")
+    public static Iterable<Object[]> data() {
+        return Arrays.asList(new Object[][]{
+                {"Age: 34Marital status: MarriedRelation to Head: Wife", "Age: 34; Marital Status: Married; Relation to Head: Wife"},
+                {"Age: 34; Marital Status: Married", "Age: 34; Marital Status: Married"},
+                {"Age: 3Relation to Head: SonCensus Post Office: Hartford", "Age: 3; Relation to Head: Son; Census Post Office: Hartford"},
+                {"Marital status: Single", "Marital Status: Single"},
+                {"Relation to Head: Son Age: 3", "Relation to Head: Son Age: 3"},
+                {"Age: xAgeAge", "Age: x; AgeAge"},
+                {"Age: xAgeAgeAge", "Age: x; AgeAge; Age"},
+                {"", ""},
+        });
+    }
+
+    private final String note;
+    private final String expected;
+
+    public GedcomCensusNoteFixerTest(final String note, final String expected) {
+        this.note = note;
+        this.expected = expected;
+    }
+
+    @Test
+    public void nominal() {
+        assertThat(ancestry.rewrite(this.note), is(this.expected));
+    }
+
+    @Test
+    public void moreLabelsInOnePass() {
+        final CensusNoteRewriter more = new CensusNoteRewriter()
+            .label("Age", true)
+            .label("Birth Year", false)
+            .label("Home in", false);
+        assertThat(more.rewrite("Age: 34Birth Year: abt 1846Home in 1880: Hartford"), is("Age: 34; Birth Year: abt 1846; Home in 1880: Hartford"));
+        assertThat(more.appliesTo("Age: 34"), is(true));
+        assertThat(more.appliesTo("Home in 1880: Hartford"), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void correctionMustKeepLength() {
+        new CensusNoteRewriter().correct("status", "Condition");
+    }
+}
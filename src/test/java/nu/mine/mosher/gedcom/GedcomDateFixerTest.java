@@ -5,7 +5,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.Matchers.*;
@@ -15,9 +17,10 @@ import static org.hamcrest.Matchers.*;
  */
 @RunWith(Parameterized.class)
 public class GedcomDateFixerTest {
-    @Parameters(name = "DATE {0}")
+    @Parameters(name = "DATE {0} ({2})")
     public static Iterable<Object[]> data() {
-        return Arrays.asList(new Object[][]{
+        final List<Object[]> data = new ArrayList<>();
+        for (final Object[] english : Arrays.asList(new Object[][]{
             {"01 JAN 1900", "01 JAN 1900"},
             {"1 JAN 1900", "01 JAN 1900"},
             {"01 jan 1900", "01 JAN 1900"},
@@ -72,20 +75,59 @@ public class GedcomDateFixerTest {
 
             {"1 XXX 1900", "1900"},
             {"XXX 1900", "1900"},
-        });
+        })) {
+            data.add(new Object[] { english[0], english[1], "en" });
+        }
+
+        data.addAll(Arrays.asList(new Object[][]{
+            {"12 janvier 1850", "12 JAN 1850", "en,fr"},
+            {"1 févr 1790", "01 FEB 1790", "en,fr"},
+            {"1 FEVRIER 1790", "01 FEB 1790", "en,fr"},
+            {"août 1901", "AUG 1901", "en,fr"},
+            {"Bet. 1 janv 1800–3 mars 1801", "BET 01 JAN 1800 AND 03 MAR 1801", "en,fr"},
+            {"déc", "DEC 0", "en,fr"},
+
+            {"3 März 1850", "03 MAR 1850", "en,de"},
+            {"Mai 1890", "MAY 1890", "en,de"},
+            {"12 Okt 1870", "12 OCT 1870", "en,de"},
+            {"Jänner 1900", "JAN 1900", "en,de"},
+            {"abt 2 Dezember 1799", "ABT 02 DEC 1799", "en,de"},
+
+            {"15 Octobris 1701", "15 OCT 1701", "en,la"},
+            {"Ianuarius 1650", "JAN 1650", "en,la"},
+            {"Bef. 5 Iunii 1700", "BEF 05 JUN 1700", "en,la"},
+
+            {"17 April 1899", "17 APR 1899", "en,fr,de,la"},
+            {"1 mai 1890", "01 MAY 1890", "en,fr,de,la"},
+
+            // unknown (non-English) month names are dropped, or, if not ASCII, left as they are
+            {"12 janvier 1850", "1850", "en"},
+            {"Mai 1890", "1890", "en"},
+            {"3 März 1850", "3 MÄRZ 1850", "en"},
+            {"15 Octobris 1701", "1701", "en"},
+        }));
+        return data;
     }
 
     private final String input;
     private final String expected;
+    private final String languages;
 
 
-    public GedcomDateFixerTest(final String input, final String expected) {
+    public GedcomDateFixerTest(final String input, final String expected, final String languages) {
         this.input = input;
         this.expected = expected;
+        this.languages = languages;
+    }
+
+    @After
+    public void tearDown() {
+        DateFixer.setMonthNames(MonthNames.ENGLISH_ONLY);
     }
 
     @Test
     public void test() {
+        DateFixer.setMonthNames(MonthNames.of(this.languages.split(",")));
         assertThat(GedcomFixer.fixDate(this.input), equalTo(this.expected));
     }
 }
@@ -0,0 +1,188 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class GedcomFixerTest {
+    private static final String GEDCOM =
+        "0 HEAD\n" +
+        "1 CHAR UTF-8\n" +
+        "0 @I1@ INDI\n" +
+        "1 NAME John /Smith/\n" +
+        "1 BIRT\n" +
+        "2 DATE 12 MAR 1850\n" +
+        "0 TRLR\n";
+
+    private static final FileTime LONG_AGO = FileTime.fromMillis(1000000000000L);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File in;
+    private File out;
+
+    @Before
+    public void setUp() throws IOException, InvalidLevel {
+        this.in = this.folder.newFile("in.ged");
+        Files.write(this.in.toPath(), GEDCOM.getBytes(StandardCharsets.UTF_8));
+        this.out = new File(this.folder.getRoot(), "fixed.ged");
+        GedcomFixer.main("--output=" + this.out, this.in.getPath());
+        Files.setLastModifiedTime(this.out.toPath(), LONG_AGO);
+    }
+
+    @Test
+    public void unchangedOutputKeepsItsModificationTime() throws IOException, InvalidLevel {
+        final byte[] before = Files.readAllBytes(this.out.toPath());
+
+        GedcomFixer.main("--output=" + this.out, this.in.getPath());
+
+        assertThat(Files.getLastModifiedTime(this.out.toPath()), is(LONG_AGO));
+        assertThat(Files.readAllBytes(this.out.toPath()), is(before));
+        // (and no temporary file is left behind)
+        assertThat(this.folder.getRoot().list(), arrayContainingInAnyOrder("in.ged", "in.ged.ids", "fixed.ged"));
+    }
+
+    @Test
+    public void changedOutputIsReplaced() throws IOException, InvalidLevel {
+        Files.write(this.in.toPath(), GEDCOM.replace("12 MAR 1850", "13 MAR 1850").getBytes(StandardCharsets.UTF_8));
+
+        GedcomFixer.main("--output=" + this.out, this.in.getPath());
+
+        assertThat(Files.getLastModifiedTime(this.out.toPath()), not(LONG_AGO));
+        assertThat(new String(Files.readAllBytes(this.out.toPath()), StandardCharsets.UTF_8), containsString("13 MAR 1850"));
+    }
+
+    @Test
+    public void shortOutputNameIsAllowed() throws IOException, InvalidLevel {
+        final File o = new File(this.folder.getRoot(), "o");
+
+        GedcomFixer.main("--output=" + o, this.in.getPath());
+
+        assertThat(Files.readAllBytes(o.toPath()), is(Files.readAllBytes(this.out.toPath())));
+        assertThat(this.folder.getRoot().list(), arrayContainingInAnyOrder("in.ged", "in.ged.ids", "fixed.ged", "o"));
+    }
+
+    @Test
+    public void threadsDoNotChangeTheOutput() throws IOException, InvalidLevel {
+        final File shared = this.folder.newFile("shared.ged");
+        Files.write(shared.toPath(), sharedNotes(300, 7).getBytes(StandardCharsets.UTF_8));
+
+        final String sequential = fix("--threads=1", shared.getPath());
+
+        assertThat(fix("--threads=4", shared.getPath()), is(sequential));
+        // (the NOTE records really were fixed, and the custom tags extracted)
+        assertThat(sequential, containsString("0 @N0@ NOTE Census\r\n1 CONT of 1870.\r\n1 CONT More text.\r\n"));
+        assertThat(sequential, containsString("2 _APID 1,7602::0\r\n"));
+    }
+
+    /*
+    Already sorted, with RINs, _ROOT, and family IDs as a full run would
+    make them, so that only the record-local fixes have anything to do.
+     */
+    private static final String LOCAL_FIXES_ONLY =
+        "0 HEAD\n" +
+        "1 _ROOT @I1@\n" +
+        "1 CHAR UTF-8\n" +
+        "0 @I1@ INDI\n" +
+        "1 RIN I1\n" +
+        "1 NAME John  /Smith/\n" +
+        "1 SEX M\n" +
+        "1 FAMS @F1_2@\n" +
+        "1 NOTE First part\n" +
+        "2 CONC  and more\n" +
+        "2 CONT second line\n" +
+        "1 BIRT\n" +
+        "2 DATE 12 mar 1850\n" +
+        "2 PLAC Boston, Suffolk, MA, USA\n" +
+        "1 _FUN\n" +
+        "2 DATE 1910\n" +
+        "1 _MILT Civil War\n" +
+        "0 @I2@ INDI\n" +
+        "1 RIN I2\n" +
+        "1 NAME Mary /Jones/\n" +
+        "1 SEX F\n" +
+        "1 FAMS @F1_2@\n" +
+        "1 BIRT\n" +
+        "2 DATE abt 1852\n" +
+        "1 RESI\n" +
+        "2 NOTE Lived  with her sister\n" +
+        "0 @F1_2@ FAM\n" +
+        "1 RIN F1_2\n" +
+        "1 HUSB @I1@\n" +
+        "1 WIFE @I2@\n" +
+        "1 _SEPR\n" +
+        "2 DATE 1880\n" +
+        "0 TRLR\n";
+
+    @Test
+    public void streamFixesRecordsLikeAFullRun() throws IOException, InvalidLevel {
+        final File local = this.folder.newFile("local.ged");
+        Files.write(local.toPath(), LOCAL_FIXES_ONLY.getBytes(StandardCharsets.UTF_8));
+
+        final String full = fix(local.getPath());
+
+        assertThat(fix("--stream", local.getPath()), is(full));
+        // (and the fixes really were made)
+        assertThat(full, containsString("1 NAME John /Smith/\r\n1 SEX M\r\n1 FAMS @F1_2@\r\n1 NOTE First part and more\r\n2 CONT second line\r\n"));
+        assertThat(full, containsString("2 DATE 12 MAR 1850\r\n2 PLAC Boston, Suffolk, Massachusetts, USA\r\n"));
+        assertThat(full, containsString("1 EVEN\r\n2 TYPE funeral\r\n2 DATE 1910\r\n1 EVEN\r\n2 TYPE military\r\n2 NOTE Civil War\r\n"));
+        assertThat(full, containsString("1 EVEN\r\n2 TYPE separation\r\n2 DATE 1880\r\n"));
+    }
+
+    @Test
+    public void streamSkipsLinesOutsideOfAnyRecord() throws IOException, InvalidLevel {
+        final File local = this.folder.newFile("local.ged");
+        Files.write(local.toPath(), LOCAL_FIXES_ONLY.getBytes(StandardCharsets.UTF_8));
+        final File stray = this.folder.newFile("stray.ged");
+        Files.write(stray.toPath(), ("1 NOTE stray\n2 CONT lines\n" + LOCAL_FIXES_ONLY).getBytes(StandardCharsets.UTF_8));
+
+        assertThat(fix("--stream", stray.getPath()), is(fix("--stream", local.getPath())));
+    }
+
+    /*
+    Individuals whose events (some with values, which the fixer moves into
+    NOTEs) point to NOTE records that are shared among them, and that
+    have custom tags in their text.
+     */
+    private static String sharedNotes(final int individuals, final int notes) {
+        final StringBuilder s = new StringBuilder(GEDCOM.length() * individuals);
+        s.append("0 HEAD\n1 CHAR UTF-8\n");
+        for (int i = 0; i < individuals; ++i) {
+            s.append("0 @I").append(i).append("@ INDI\n");
+            s.append("1 NAME John  /Smith").append(i).append("/\n");
+            s.append("1 RESI Relation to Head of House: Son\n");
+            s.append("2 DATE 1 jan 1870\n");
+            s.append("2 NOTE @N").append(i % notes).append("@\n");
+            s.append("1 EVEN Farmer\n");
+            s.append("2 NOTE @N").append((i + 1) % notes).append("@\n");
+            s.append("1 BIRT\n");
+            s.append("2 NOTE @N").append((i + 2) % notes).append("@\n");
+            s.append("1 _APID ").append(i).append("\n");
+        }
+        for (int i = 0; i < notes; ++i) {
+            s.append("0 @N").append(i).append("@ NOTE Census  of 1870.  _APID 1,7602::").append(i).append("  More text.\n");
+        }
+        s.append("0 TRLR\n");
+        return s.toString();
+    }
+
+    private static String fix(final String... args) throws IOException, InvalidLevel {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final BufferedOutputStream out = new BufferedOutputStream(bytes)) {
+            GedcomFixer.run(GedcomFixerOptions.parse(args), out);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
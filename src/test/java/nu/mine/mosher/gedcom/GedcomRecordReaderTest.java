@@ -0,0 +1,113 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import org.junit.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class GedcomRecordReaderTest {
+    private static final String GEDCOM =
+        "﻿1 NOTE stray\n" +
+        "2 CONT lines\n" +
+        "0 HEAD\n" +
+        "1 CHAR UTF-8\n" +
+        "\n" +
+        "0 @I1@ INDI\r\n" +
+        "1 NAME John /Smith/\r\n" +
+        "1 NOTE a long\r\n" +
+        "2 CONC  note\r\n" +
+        "2 SOUR @S1@\r\n" +
+        "2 CONT second line\r\n" +
+        "1 BIRT\n" +
+        "2 DATE 1850\n" +
+        "0 TRLR\n";
+
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    public void readsOneRecordAtATime() throws IOException {
+        try (final GedcomRecordReader reader = reader(GEDCOM)) {
+            assertThat(reader.next().getObject().getTagString(), is("HEAD"));
+
+            final TreeNode<GedcomLine> indi = reader.next();
+            assertThat(indi.getObject().getID(), is("I1"));
+            assertThat(indi.getChildCount(), is(3));
+            final TreeNode<GedcomLine> birt = last(indi);
+            assertThat(birt.getObject().getTagString(), is("BIRT"));
+            assertThat(birt.children().next().getObject().getValue(), is("1850"));
+
+            assertThat(reader.next().getObject().getTagString(), is("TRLR"));
+            assertThat(reader.next(), nullValue());
+        }
+    }
+
+    @Test
+    public void joinsContinuationLines() throws IOException {
+        try (final GedcomRecordReader reader = reader(GEDCOM)) {
+            reader.next();
+            final Iterator<TreeNode<GedcomLine>> i = reader.next().children();
+            i.next();
+            final TreeNode<GedcomLine> note = i.next();
+
+            // (even with a SOUR between the CONC and the CONT)
+            assertThat(note.getObject().getValue(), is("a long note\nsecond line"));
+            assertThat(note.getChildCount(), is(1));
+            assertThat(note.children().next().getObject().getPointer(), is("S1"));
+        }
+    }
+
+    @Test
+    public void skipsLinesOutsideOfAnyRecord() throws IOException {
+        try (final GedcomRecordReader reader = reader(GEDCOM)) {
+            assertThat(reader.next().getObject().getTagString(), is("HEAD"));
+        }
+        final String skipped = new String(this.err.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(skipped, containsString("Skipping line outside of any record: "));
+        assertThat(skipped.split("\n").length, is(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsASkippedLevel() throws IOException {
+        try (final GedcomRecordReader reader = reader("0 HEAD\n2 CHAR UTF-8\n")) {
+            reader.next();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAMissingLevel() throws IOException {
+        try (final GedcomRecordReader reader = reader("HEAD\n")) {
+            reader.next();
+        }
+    }
+
+    @Test
+    public void parsesALine() throws IOException {
+        final GedcomLine line = GedcomRecordReader.parseLine("  1 @N1@ NOTE  two spaces");
+        assertThat(line.getLevel(), is(1));
+        assertThat(line.getID(), is("N1"));
+        assertThat(line.getTagString(), is("NOTE"));
+        assertThat(line.getValue(), is(" two spaces"));
+        assertThat(GedcomRecordReader.parseLine("   "), nullValue());
+    }
+
+    private GedcomRecordReader reader(final String gedcom) {
+        return new GedcomRecordReader(new BufferedReader(new StringReader(gedcom)), new PrintStream(this.err, true));
+    }
+
+    private static TreeNode<GedcomLine> last(final TreeNode<GedcomLine> node) {
+        TreeNode<GedcomLine> last = null;
+        for (final TreeNode<GedcomLine> child : node) {
+            last = child;
+        }
+        return last;
+    }
+}
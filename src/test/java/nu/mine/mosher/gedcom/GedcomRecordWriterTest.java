@@ -0,0 +1,111 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+import org.junit.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+/*
+The main output is written by GedcomRecordWriter, which splits long values
+into CONC and CONT lines as it writes them. It used to be written by
+gedcom-lib (GedcomUnconcatenator, then Gedcom.writeFile), so these check
+that the two give the same bytes.
+ */
+public class GedcomRecordWriterTest {
+    private static final int MAX_LENGTH = 60;
+
+    private static GedcomTree read(final String gedcom) throws IOException, InvalidLevel {
+        final GedcomTree gt = Gedcom.readFile(new BufferedInputStream(new ByteArrayInputStream(gedcom.getBytes(StandardCharsets.UTF_8))));
+        new GedcomConcatenator(gt).concatenate();
+        gt.setCharset(StandardCharsets.UTF_8);
+        return gt;
+    }
+
+    private static byte[] library(final String gedcom) throws IOException, InvalidLevel {
+        final GedcomTree gt = read(gedcom);
+        gt.setMaxLength(MAX_LENGTH);
+        new GedcomUnconcatenator(gt).unconcatenate();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BufferedOutputStream buffered = new BufferedOutputStream(out);
+        Gedcom.writeFile(gt, buffered);
+        buffered.flush();
+        return out.toByteArray();
+    }
+
+    private static byte[] inline(final String gedcom) throws IOException, InvalidLevel {
+        final GedcomTree gt = read(gedcom);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GedcomRecordWriter writer = new GedcomRecordWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), MAX_LENGTH);
+        writer.write(gt.getRoot());
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private static String repeat(final String s, final int n) {
+        final StringBuilder r = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            r.append(s);
+        }
+        return r.toString();
+    }
+
+    @Test
+    public void sameAsLibraryOnContinuations() throws IOException, InvalidLevel {
+        final String gedcom =
+            "0 HEAD\r\n" +
+            "1 CHAR UTF-8\r\n" +
+            "0 @N1@ NOTE " + repeat("x", 59) + "\r\n" +
+            "0 @N2@ NOTE " + repeat("x", 60) + "\r\n" +
+            "0 @N3@ NOTE " + repeat("x", 61) + "\r\n" +
+            "0 @N4@ NOTE " + repeat("abcdefghi ", 25) + "\r\n" +
+            "1 CONT second line\r\n" +
+            "1 CONT\r\n" +
+            "1 CONT " + repeat("y", 130) + "\r\n" +
+            "1 CONC  joined with a space\r\n" +
+            "0 @I1@ INDI\r\n" +
+            "1 NAME José /García/\r\n" +
+            "1 NOTE " + repeat("é", 59) + "😀" + repeat("z", 70) + "\r\n" +
+            "2 SOUR @S1@\r\n" +
+            "1 NOTE " + repeat(" ", 70) + "\r\n" +
+            "1 FAMS @F1@\r\n" +
+            "0 TRLR\r\n";
+
+        assertThat(new String(inline(gedcom), StandardCharsets.UTF_8), containsString("CONC"));
+        assertThat(inline(gedcom), is(library(gedcom)));
+    }
+
+    @Test
+    public void sameAsLibraryOnRandomValues() throws IOException, InvalidLevel {
+        final String chars = "ab  .\né\uD83D";
+        final Random random = new Random(1);
+        final StringBuilder gedcom = new StringBuilder("0 HEAD\r\n1 CHAR UTF-8\r\n");
+        for (int i = 0; i < 2000; ++i) {
+            gedcom.append("0 @N").append(i).append("@ NOTE ");
+            for (int n = random.nextInt(200); n > 0; --n) {
+                final char c = chars.charAt(random.nextInt(chars.length()));
+                if (c == '\n') {
+                    gedcom.append("\r\n1 CONT ");
+                } else if (Character.isHighSurrogate(c)) {
+                    gedcom.append(c).append('\uDE00');
+                } else {
+                    gedcom.append(c);
+                }
+            }
+            gedcom.append('x').append("\r\n");
+        }
+        gedcom.append("0 TRLR\r\n");
+
+        assertThat(inline(gedcom.toString()), is(library(gedcom.toString())));
+    }
+}
@@ -0,0 +1,220 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import nu.mine.mosher.gedcom.date.DatePeriod;
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+import nu.mine.mosher.gedcom.model.Event;
+import nu.mine.mosher.gedcom.model.Loader;
+import nu.mine.mosher.gedcom.model.Person;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class GedcomSortTest {
+    private static final String[] INDI_LINES = {
+        "1 NAME John /Smith/", "1 SEX M", "1 RIN 7", "1 CHAN", "1 FAMS @F1@", "1 FAMC @F2@",
+        "1 SOUR @S1@", "1 NOTE a note", "1 _APID 1,7602::1", "1 _MILT",
+    };
+    private static final String[] FAM_LINES = {
+        "1 HUSB @I1@", "1 WIFE @I2@", "1 NCHI 3", "1 RIN 8", "1 SOUR @S1@", "1 NOTE a note", "1 _STAT married",
+    };
+    private static final String[] INDI_EVENTS = { "BIRT", "CHR", "DEAT", "BURI", "RESI", "OCCU", "CENS" };
+    private static final String[] FAM_EVENTS = { "MARR", "DIV", "ENGA", "CENS" };
+    private static final String[] DATES = { "1850", "1 JAN 1850", "1860", "ABT 1870", "1850", "FROM 1880 TO 1890" };
+
+    private static final int INDIVIDUALS = 400;
+    private static final int FAMILIES = 150;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sortChildrenMatchesTheOriginalComparators() throws IOException, InvalidLevel {
+        final String gedcom = gedcom(new Random(1));
+
+        final GedcomTree original = read(gedcom);
+        final Loader originalLoader = new Loader(original, "original");
+        originalLoader.parse();
+        final GedcomTree keyed = read(gedcom);
+        final Loader keyedLoader = new Loader(keyed, "keyed");
+        keyedLoader.parse();
+
+        int sorted = 0;
+        for (final TreeNode<GedcomLine> record : original.getRoot()) {
+            final GedcomTag tag = record.getObject().getTag();
+            if (tag.equals(GedcomTag.INDI)) {
+                record.sort((node1, node2) -> compareIndi(node1, node2, originalLoader));
+                ++sorted;
+            } else if (tag.equals(GedcomTag.FAM)) {
+                record.sort((node1, node2) -> compareFam(node1, node2, originalLoader));
+                ++sorted;
+            }
+        }
+        for (final TreeNode<GedcomLine> record : keyed.getRoot()) {
+            final GedcomTag tag = record.getObject().getTag();
+            if (tag.equals(GedcomTag.INDI)) {
+                GedcomFixer.sortChildren(record, TagOrder.DEFAULT.indi, keyedLoader, false);
+            } else if (tag.equals(GedcomTag.FAM)) {
+                GedcomFixer.sortChildren(record, TagOrder.DEFAULT.fam, keyedLoader, true);
+            }
+        }
+
+        assertThat(sorted, is(INDIVIDUALS + FAMILIES));
+        assertThat(lines(keyed.getRoot()), is(lines(original.getRoot())));
+    }
+
+    @Test
+    public void threadsDoNotChangeTheOrder() throws IOException, InvalidLevel {
+        final File in = this.folder.newFile("in.ged");
+        Files.write(in.toPath(), gedcom(new Random(2)).getBytes(StandardCharsets.UTF_8));
+
+        final String sequential = fix("--threads=1", in.getPath());
+
+        assertThat(fix("--threads=4", in.getPath()), is(sequential));
+    }
+
+    /*
+    INDI and FAM records with their lines shuffled: events (dated and not)
+    mixed in with other lines, and families with several children, some
+    born on the same date and some with no birth date at all.
+     */
+    private static String gedcom(final Random rnd) {
+        final StringBuilder s = new StringBuilder(64 * 1024);
+        s.append("0 HEAD\n1 CHAR UTF-8\n");
+        for (int i = 0; i < INDIVIDUALS; ++i) {
+            s.append("0 @I").append(i).append("@ INDI\n");
+            for (int n = rnd.nextInt(10); n > 0; --n) {
+                if (rnd.nextBoolean()) {
+                    s.append(INDI_LINES[rnd.nextInt(INDI_LINES.length)]).append('\n');
+                } else {
+                    event(s, INDI_EVENTS[rnd.nextInt(INDI_EVENTS.length)], rnd);
+                }
+            }
+        }
+        for (int i = 0; i < FAMILIES; ++i) {
+            s.append("0 @F").append(i).append("@ FAM\n");
+            for (int n = rnd.nextInt(12); n > 0; --n) {
+                final int pick = rnd.nextInt(3);
+                if (pick == 0) {
+                    s.append(FAM_LINES[rnd.nextInt(FAM_LINES.length)]).append('\n');
+                } else if (pick == 1) {
+                    event(s, FAM_EVENTS[rnd.nextInt(FAM_EVENTS.length)], rnd);
+                } else {
+                    s.append("1 CHIL @I").append(rnd.nextInt(INDIVIDUALS)).append("@\n");
+                }
+            }
+        }
+        s.append("0 TRLR\n");
+        return s.toString();
+    }
+
+    private static void event(final StringBuilder s, final String tag, final Random rnd) {
+        s.append("1 ").append(tag).append('\n');
+        if (rnd.nextInt(3) > 0) {
+            s.append("2 DATE ").append(DATES[rnd.nextInt(DATES.length)]).append('\n');
+        }
+        if (rnd.nextBoolean()) {
+            s.append("2 PLAC Boston, Suffolk, Massachusetts, USA\n");
+        }
+    }
+
+    /*
+    The comparators as they were before sortChildren, looking everything up
+    on each comparison.
+     */
+    private static int compareIndi(final TreeNode<GedcomLine> node1, final TreeNode<GedcomLine> node2, final Loader loader) {
+        final Event event1 = loader.lookUpEvent(node1);
+        final Event event2 = loader.lookUpEvent(node2);
+        if (event1 == null && event2 == null) {
+            return compareTags(node1, node2, TagOrder.DEFAULT.indi);
+        }
+        return compareEvents(event1, event2);
+    }
+
+    private static int compareFam(final TreeNode<GedcomLine> node1, final TreeNode<GedcomLine> node2, final Loader loader) {
+        final Event event1 = loader.lookUpEvent(node1);
+        final Event event2 = loader.lookUpEvent(node2);
+        if (event1 == null && event2 == null) {
+            int c = compareTags(node1, node2, TagOrder.DEFAULT.fam);
+            if (c == 0) {
+                final GedcomLine line1 = node1.getObject();
+                final GedcomLine line2 = node2.getObject();
+                if (line1.getTag().equals(GedcomTag.CHIL)) {
+                    final Person person1 = loader.lookUpPerson(loader.getGedcom().getNode(line1.getPointer()));
+                    final Person person2 = loader.lookUpPerson(loader.getGedcom().getNode(line2.getPointer()));
+                    c = person1.getBirth().compareTo(person2.getBirth());
+                }
+                if (c == 0) {
+                    final String v1 = line1.isPointer() ? line1.getPointer() : line1.getValue();
+                    final String v2 = line2.isPointer() ? line2.getPointer() : line2.getValue();
+                    c = v1.compareTo(v2);
+                }
+            }
+            return c;
+        }
+        return compareEvents(event1, event2);
+    }
+
+    private static int compareEvents(final Event event1, final Event event2) {
+        if (event1 == null) {
+            return -1;
+        }
+        if (event2 == null) {
+            return +1;
+        }
+        final DatePeriod d1 = event1.getDate();
+        final DatePeriod d2 = event2.getDate();
+        if (d1 == null && d2 == null) {
+            return 0;
+        }
+        if (d2 == null) {
+            return -1;
+        }
+        if (d1 == null) {
+            return +1;
+        }
+        return d1.compareTo(d2);
+    }
+
+    private static int compareTags(final TreeNode<GedcomLine> node1, final TreeNode<GedcomLine> node2, final int[] order) {
+        return Integer.compare(TagOrder.rank(order, node1.getObject().getTag()), TagOrder.rank(order, node2.getObject().getTag()));
+    }
+
+    private static GedcomTree read(final String gedcom) throws IOException, InvalidLevel {
+        return Gedcom.readFile(new BufferedInputStream(new ByteArrayInputStream(gedcom.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static String lines(final TreeNode<GedcomLine> node) {
+        final StringBuilder s = new StringBuilder();
+        lines(node, s);
+        return s.toString();
+    }
+
+    private static void lines(final TreeNode<GedcomLine> node, final StringBuilder s) {
+        final GedcomLine line = node.getObject();
+        if (line != null) {
+            s.append(line.getLevel()).append(' ').append(line.getID()).append(' ').append(line.getTagString()).append(' ').append(line.getPointer()).append(' ').append(line.getValue()).append('\n');
+        }
+        node.forEach(c -> lines(c, s));
+    }
+
+    private static String fix(final String... args) throws IOException, InvalidLevel {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final BufferedOutputStream out = new BufferedOutputStream(bytes)) {
+            GedcomFixer.run(GedcomFixerOptions.parse(args), out);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(Parameterized.class)
+public class GedcomSpacingFixerTest {
+    private static final String[] PIECES = { " ", "  ", "   ", "\n", "\n\n", " \n", "\n ", "a", "bc", ".", "\t", "\r\n" };
+
+    @Parameters(name = "NOTE {index}")
+    public static Iterable<Object[]> data() {
+        final List<Object[]> data = new ArrayList<>(Arrays.asList(new Object[][]{
+                {"", ""},
+                {"x", "x"},
+                {"a b c", "a b c"},
+                {"a  b", "a\nb"},
+                {"a   b", "a\nb"},
+                {"a    b", "a\n\nb"},
+                {"a      b", "a\n\nb"},
+                {"a\n\n\n\nb", "a\n\nb"},
+                {"a \n b", "a\nb"},
+                {"a \n  b", "a\n\nb"},
+                {" a ", " a "},
+                {"  a  ", "\na\n"},
+                {"\n\n \n\n", "\n\n\n\n"},
+                {"Line one  Line two      Line three  ", "Line one\nLine two\n\nLine three\n"},
+        }));
+
+        // and lots of random ones, compared against the original implementation
+        final Random rnd = new Random(1);
+        for (int i = 0; i < 200; ++i) {
+            final StringBuilder s = new StringBuilder();
+            for (int n = rnd.nextInt(40); n > 0; --n) {
+                s.append(PIECES[rnd.nextInt(PIECES.length)]);
+            }
+            data.add(new Object[]{s.toString(), originalFixSpacing(s.toString())});
+        }
+        return data;
+    }
+
+    private final String note;
+    private final String expected;
+
+    public GedcomSpacingFixerTest(final String note, final String expected) {
+        this.note = note;
+        this.expected = expected;
+    }
+
+    @Test
+    public void nominal() {
+        assertThat(GedcomFixer.fixSpacing(this.note), is(this.expected));
+    }
+
+    @Test
+    public void matchesOriginal() {
+        assertThat(GedcomFixer.fixSpacing(this.note), is(originalFixSpacing(this.note)));
+    }
+
+    private static String originalFixSpacing(String value) {
+        while (value.contains("  ")) {
+            value = value.replace("  ", "\n");
+        }
+        while (value.contains("\n\n\n")) {
+            value = value.replace("\n\n\n", "\n\n");
+        }
+        while (value.contains("\n ")) {
+            value = value.replace("\n ", "\n");
+        }
+        while (value.contains(" \n")) {
+            value = value.replace(" \n", "\n");
+        }
+        return value;
+    }
+}
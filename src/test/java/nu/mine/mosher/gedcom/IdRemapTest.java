@@ -0,0 +1,67 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class IdRemapTest {
+    @Test
+    public void roundsCompose() {
+        final IdRemap remap = new IdRemap();
+        remap.rename("I1", "I100");
+        remap.endRound();
+        assertThat(remap.current("I1"), is("I100"));
+
+        remap.rename("I100", "R5");
+        remap.rename("I2", "I7");
+        remap.endRound();
+        assertThat(remap.toMap(), allOf(hasEntry("I1", "R5"), hasEntry("I2", "I7")));
+        // (and a line that had I100 all along)
+        assertThat(remap.toMap(), hasEntry("I100", "R5"));
+        assertThat(remap.toMap().size(), is(3));
+    }
+
+    @Test
+    public void chainsWithinARoundAreNotFollowed() {
+        final IdRemap remap = new IdRemap();
+        remap.rename("A", "B");
+        remap.rename("B", "C");
+        assertThat(remap.renamed("A"), is("B"));
+        remap.endRound();
+        assertThat(remap.current("A"), is("B"));
+        assertThat(remap.current("B"), is("C"));
+    }
+
+    @Test
+    public void cycleIsASwap() {
+        final IdRemap remap = new IdRemap();
+        remap.rename("A", "B");
+        remap.rename("B", "A");
+        remap.endRound();
+        remap.rename("A", "B");
+        remap.endRound();
+        // the second round renames what is now A (originally B) back to B
+        assertThat(remap.current("A"), is("B"));
+        assertThat(remap.current("B"), is("B"));
+        assertThat(remap.toMap().containsKey("B"), is(false));
+    }
+
+    @Test
+    public void renameBackToOriginalIsDropped() {
+        final IdRemap remap = new IdRemap();
+        remap.rename("A", "X");
+        remap.endRound();
+        remap.rename("X", "A");
+        remap.endRound();
+        assertThat(remap.toMap().containsKey("A"), is(false));
+        assertThat(remap.current("A"), is("A"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void roundMustBeEnded() {
+        final IdRemap remap = new IdRemap();
+        remap.rename("A", "B");
+        remap.toMap();
+    }
+}
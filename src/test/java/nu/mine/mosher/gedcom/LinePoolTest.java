@@ -0,0 +1,34 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import org.junit.*;
+
+import static nu.mine.mosher.gedcom.TestTrees.node;
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class LinePoolTest {
+    @Test
+    public void repeatedLinesAreShared() {
+        final TreeNode<GedcomLine> root = new TreeNode<>();
+        final TreeNode<GedcomLine> i1 = node(root, 0, "@I1@", "INDI", "");
+        final TreeNode<GedcomLine> birt1 = node(i1, 1, "", "BIRT", "");
+        final TreeNode<GedcomLine> plac1 = node(birt1, 2, "", "PLAC", "Hartford, Connecticut");
+        final TreeNode<GedcomLine> sour1 = node(birt1, 2, "", "SOUR", "@S1@");
+        final TreeNode<GedcomLine> i2 = node(root, 0, "@I2@", "INDI", "");
+        final TreeNode<GedcomLine> birt2 = node(i2, 1, "", "BIRT", "");
+        final TreeNode<GedcomLine> plac2 = node(birt2, 2, "", "PLAC", "Hartford, Connecticut");
+        final TreeNode<GedcomLine> sour2 = node(birt2, 2, "", "SOUR", "@S1@");
+        final TreeNode<GedcomLine> sour3 = node(i2, 1, "", "SOUR", "@S1@");
+
+        final LinePool pool = new LinePool();
+        pool.intern(root);
+
+        assertThat(plac2.getObject(), sameInstance(plac1.getObject()));
+        assertThat(sour2.getObject(), sameInstance(sour1.getObject()));
+        // (a different level is a different line)
+        assertThat(sour3.getObject(), not(sameInstance(sour1.getObject())));
+        assertThat(birt2.getObject(), not(sameInstance(birt1.getObject())));
+        assertThat(pool.toString(), startsWith("LINES pool: 2 lines shared, 3 distinct"));
+    }
+}
@@ -0,0 +1,111 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import nu.mine.mosher.gedcom.exception.InvalidLevel;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class MappedGedcomReaderTest {
+    private static final String GEDCOM =
+        "﻿0 HEAD\r\n" +
+        "1 CHAR UTF-8\r\n" +
+        "0 @I1@ INDI\r\n" +
+        "1 NAME José /García/\r\n" +
+        "1 NOTE a long\r\n" +
+        "2 CONC  note\r\n" +
+        "2 SOUR @S1@\r\n" +
+        "2 CONT second line\r\n" +
+        "\r\n" +
+        "0 @I2@ INDI\n" +
+        "1 FAMS @F1@\n" +
+        "0 @F1@ FAM\r" +
+        "1 HUSB @I2@\r" +
+        "0 TRLR\r\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = this.folder.newFile("in.ged");
+        Files.write(this.file.toPath(), GEDCOM.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readsWholeFileAsOneChunk() throws IOException, InvalidLevel {
+        final GedcomTree gt = MappedGedcomReader.read(this.file, 1);
+        assertThat(gt.getRoot().getChildCount(), is(5));
+        assertThat(gt.getNode("I1").getObject().getTagString(), is("INDI"));
+        assertThat(gt.getNode("F1").children().next().getObject().getPointer(), is("I2"));
+        assertThat(gt.toString(), containsString("José /García/"));
+        assertThat(gt.getNode("I1").children().next().getObject().getValue(), is("José /García/"));
+        assertThat(gt.toString(), not(containsString("CONC")));
+        assertThat(gt.toString(), not(containsString("CONT")));
+    }
+
+    @Test
+    public void joinsContinuationLines() throws IOException, InvalidLevel {
+        final GedcomTree gt = MappedGedcomReader.read(this.file, 1);
+        final Iterator<TreeNode<GedcomLine>> i = gt.getNode("I1").children();
+        i.next();
+        final TreeNode<GedcomLine> note = i.next();
+        assertThat(note.getObject().getValue(), is("a long note\nsecond line"));
+        assertThat(note.getChildCount(), is(1));
+        assertThat(note.children().next().getObject().getPointer(), is("S1"));
+    }
+
+    @Test
+    public void anyChunkSizeGivesTheSameTree() throws IOException, InvalidLevel {
+        final String expected = MappedGedcomReader.read(this.file, 1).toString();
+        for (long chunkSize = 1; chunkSize <= GEDCOM.length() + 1; ++chunkSize) {
+            assertThat("chunk size " + chunkSize, MappedGedcomReader.read(this.file, 3, chunkSize).toString(), is(expected));
+        }
+    }
+
+    @Test
+    public void emptyFileGivesEmptyTree() throws IOException, InvalidLevel {
+        final File empty = this.folder.newFile("empty.ged");
+        assertThat(MappedGedcomReader.read(empty, 2).getRoot().getChildCount(), is(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void badLineFails() throws IOException, InvalidLevel {
+        final File bad = this.folder.newFile("bad.ged");
+        Files.write(bad.toPath(), "0 HEAD\n0 @I1@ INDI\nX NAME\n0 TRLR\n".getBytes(StandardCharsets.UTF_8));
+        MappedGedcomReader.read(bad, 2, 4);
+    }
+
+    @Test(expected = IOException.class)
+    public void badUtf8Fails() throws IOException, InvalidLevel {
+        final File bad = this.folder.newFile("bad.ged");
+        final byte[] bytes = "0 HEAD\n0 @I1@ INDI\n1 NAME Jos\u00e9\n0 TRLR\n".getBytes(StandardCharsets.ISO_8859_1);
+        Files.write(bad.toPath(), bytes);
+        MappedGedcomReader.read(bad, 2, 8);
+    }
+
+    @Test
+    public void recordMuchLongerThanChunk() throws IOException, InvalidLevel {
+        final StringBuilder gedcom = new StringBuilder("0 HEAD\n0 @N1@ NOTE start\n");
+        for (int i = 0; i < 2000; ++i) {
+            gedcom.append("1 CONC ").append(i).append('\n');
+        }
+        gedcom.append("0 @N2@ NOTE after\n0 TRLR\n");
+        final File big = this.folder.newFile("big.ged");
+        Files.write(big.toPath(), gedcom.toString().getBytes(StandardCharsets.UTF_8));
+
+        final String expected = MappedGedcomReader.read(big, 1).toString();
+        assertThat(MappedGedcomReader.read(big, 4, 16).toString(), is(expected));
+        assertThat(MappedGedcomReader.read(big, 4, 16).getNode("N2").getObject().getValue(), is("after"));
+    }
+}
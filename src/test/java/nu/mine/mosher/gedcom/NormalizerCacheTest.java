@@ -0,0 +1,62 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class NormalizerCacheTest {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private String upper(final String s) {
+        this.calls.incrementAndGet();
+        return s.toUpperCase();
+    }
+
+    @Test
+    public void repeatedValueIsComputedOnce() {
+        final NormalizerCache cache = new NormalizerCache("test", this::upper);
+        assertThat(cache.apply("abt 1880"), is("ABT 1880"));
+        assertThat(cache.apply("abt 1880"), is("ABT 1880"));
+        assertThat(cache.apply("abt 1880"), is("ABT 1880"));
+        assertThat(this.calls.get(), is(1));
+        assertThat(cache.hits(), is(2L));
+        assertThat(cache.misses(), is(1L));
+    }
+
+    @Test
+    public void zeroCapacityDisablesCaching() {
+        final NormalizerCache cache = new NormalizerCache("test", this::upper, 0);
+        assertThat(cache.apply("x"), is("X"));
+        assertThat(cache.apply("x"), is("X"));
+        assertThat(this.calls.get(), is(2));
+        assertThat(cache.hits(), is(0L));
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        final NormalizerCache cache = new NormalizerCache("test", this::upper, 16);
+        for (int i = 0; i < 1000; ++i) {
+            assertThat(cache.apply("v" + i), is("V" + i));
+        }
+        assertThat(cache.evictions(), greaterThanOrEqualTo(1000L - 16L));
+    }
+
+    @Test
+    public void shrinkingEvicts() {
+        final NormalizerCache cache = new NormalizerCache("test", this::upper, 1024);
+        for (int i = 0; i < 100; ++i) {
+            cache.apply("v" + i);
+        }
+        assertThat(cache.evictions(), is(0L));
+        cache.setCapacity(0);
+        assertThat(cache.evictions(), is(100L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacity() {
+        new NormalizerCache("test", this::upper, -1);
+    }
+}
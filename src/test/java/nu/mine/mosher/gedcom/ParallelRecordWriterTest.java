@@ -0,0 +1,84 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static nu.mine.mosher.gedcom.TestTrees.node;
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class ParallelRecordWriterTest {
+    private static final ParallelRecordWriter.IdsMaker IDS = (record, ids) -> {
+        ids.append(record.getObject().getID());
+        ids.append("\n");
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static TreeNode<GedcomLine> tree(final int records) {
+        final TreeNode<GedcomLine> root = new TreeNode<>();
+        node(root, 0, "", "HEAD", "");
+        for (int i = 1; i <= records; ++i) {
+            final TreeNode<GedcomLine> indi = node(root, 0, "@I" + i + "@", "INDI", "");
+            node(indi, 1, "", "NAME", "José " + i + " /García/");
+            final StringBuilder note = new StringBuilder();
+            for (int j = 0; j < i % 7; ++j) {
+                note.append("a fairly long note, with more than sixty characters in it, ");
+            }
+            node(indi, 1, "", "NOTE", note.toString() + "\nend");
+        }
+        node(root, 0, "", "TRLR", "");
+        return root;
+    }
+
+    private static byte[] sequential(final TreeNode<GedcomLine> root) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GedcomRecordWriter writer = new GedcomRecordWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), 60);
+        writer.write(root);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void streamOutputIsSameAsSequential() throws IOException {
+        final TreeNode<GedcomLine> root = tree(10000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StringWriter ids = new StringWriter();
+
+        ParallelRecordWriter.write(root, 60, 3, out, null, ids, IDS);
+
+        assertThat(out.toByteArray(), is(sequential(root)));
+        assertThat(ids.toString(), startsWith("\nI1\nI2\n"));
+        assertThat(ids.toString(), endsWith("\nI10000\n\n"));
+    }
+
+    @Test
+    public void channelOutputIsSameAsSequential() throws IOException {
+        final TreeNode<GedcomLine> root = tree(5000);
+        final File file = this.folder.newFile("out.ged");
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            ParallelRecordWriter.write(root, 60, 2, out, out.getChannel(), null, null);
+        }
+
+        assertThat(Files.readAllBytes(file.toPath()), is(sequential(root)));
+    }
+
+    @Test
+    public void emptyTreeWritesNothing() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelRecordWriter.write(new TreeNode<>(), 60, 2, out, null, new StringWriter(), IDS);
+        assertThat(out.size(), is(0));
+    }
+}
@@ -0,0 +1,122 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nu.mine.mosher.gedcom.TestTrees.node;
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class RecordCacheTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static TreeNode<GedcomLine> tree(final String date) {
+        final TreeNode<GedcomLine> root = new TreeNode<>();
+        final TreeNode<GedcomLine> indi = node(root, 0, "@I1@", "INDI", "");
+        final TreeNode<GedcomLine> birt = node(indi, 1, "", "BIRT", "");
+        node(birt, 2, "", "DATE", date);
+        node(indi, 1, "", "NOTE", "@N1@");
+        node(root, 0, "@N1@", "NOTE", "some note");
+        node(root, 0, "@I2@", "INDI", "");
+        return root;
+    }
+
+    /* marks each DATE as fixed, and queues a new child for each record */
+    private static RecordCache.RecordFixer fixer(final TreeNode<GedcomLine> root, final AtomicInteger calls) {
+        return (record, edits) -> {
+            calls.incrementAndGet();
+            new FusedTraversal().post(node -> {
+                final GedcomLine line = node.getObject();
+                if (line.getTag().equals(GedcomTag.DATE)) {
+                    node.setObject(new GedcomLine(line.getLevel(), "", "DATE", "fixed " + line.getValue()));
+                }
+            }).traverse(record);
+            edits.add(record, new TreeNode<>(new GedcomLine(1, "", "_FIXED", "")));
+            edits.add(root, new TreeNode<>(new GedcomLine(0, "", "_DONE", record.getObject().getID())));
+        };
+    }
+
+    private static String fixTree(final TreeNode<GedcomLine> root, final File file, final AtomicInteger calls) throws IOException {
+        return fixTree(root, file, calls, new RecordCache("test"));
+    }
+
+    private static String fixTree(final TreeNode<GedcomLine> root, final File file, final AtomicInteger calls, final RecordCache cache) throws IOException {
+        cache.read(file);
+        final ReferenceIndex refs = new ReferenceIndex(root);
+        refs.add(root);
+        final PendingEdits edits = new PendingEdits();
+        cache.fixRecords(root, refs, edits, fixer(root, calls), 1);
+        cache.write(file);
+        edits.apply(refs);
+        return dump(root);
+    }
+
+    private static String dump(final TreeNode<GedcomLine> node) {
+        final StringBuilder s = new StringBuilder();
+        if (node.getObject() != null) {
+            s.append(node.getObject()).append('\n');
+        }
+        node.forEach(c -> s.append(dump(c)));
+        return s.toString();
+    }
+
+    @Test
+    public void unchangedRecordsAreReused() throws IOException {
+        final File file = new File(this.folder.getRoot(), "in.ged.cache");
+
+        final AtomicInteger cold = new AtomicInteger();
+        final String expected = fixTree(tree("1 JAN 1900"), file, cold);
+        assertThat(cold.get(), is(3));
+
+        final AtomicInteger warm = new AtomicInteger();
+        final TreeNode<GedcomLine> root = tree("1 JAN 1900");
+        final TreeNode<GedcomLine> indi = root.children().next();
+        assertThat(fixTree(root, file, warm), is(expected));
+        assertThat(warm.get(), is(0));
+        assertThat(root.children().next(), sameInstance(indi));
+        assertThat(expected, containsString("DATE fixed 1 JAN 1900"));
+        assertThat(expected, containsString("_DONE I2"));
+    }
+
+    @Test
+    public void changedRecordIsFixedWithTheRecordsItPointsTo() throws IOException {
+        final File file = new File(this.folder.getRoot(), "in.ged.cache");
+        fixTree(tree("1 JAN 1900"), file, new AtomicInteger());
+
+        final AtomicInteger calls = new AtomicInteger();
+        final String fixed = fixTree(tree("2 JAN 1900"), file, calls);
+        // I1 and (via the NOTE pointer) N1 are fixed again; I2 is not
+        assertThat(calls.get(), is(2));
+        assertThat(fixed, is(fixTree(tree("2 JAN 1900"), new File(this.folder.getRoot(), "other.cache"), new AtomicInteger())));
+    }
+
+    @Test
+    public void corruptCacheIsIgnored() throws IOException {
+        final File file = this.folder.newFile("in.ged.cache");
+        final AtomicInteger calls = new AtomicInteger();
+        fixTree(tree("1 JAN 1900"), file, calls);
+        assertThat(calls.get(), is(3));
+    }
+
+    @Test
+    public void cacheFromOtherCodeIsIgnored() throws IOException {
+        final File file = new File(this.folder.getRoot(), "in.ged.cache");
+        fixTree(tree("1 JAN 1900"), file, new AtomicInteger(), new RecordCache("test", "build 1"));
+
+        final AtomicInteger calls = new AtomicInteger();
+        fixTree(tree("1 JAN 1900"), file, calls, new RecordCache("test", "build 2"));
+        assertThat(calls.get(), is(3));
+    }
+
+    @Test
+    public void codeFingerprintIsAHashOfTheCode() {
+        assertThat(RecordCache.codeFingerprint().matches("[0-9a-f]{64}"), is(true));
+        assertThat(RecordCache.codeFingerprint(), is(RecordCache.codeFingerprint()));
+    }
+}
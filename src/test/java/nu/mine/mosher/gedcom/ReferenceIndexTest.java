@@ -0,0 +1,109 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+import org.junit.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static nu.mine.mosher.gedcom.TestTrees.node;
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class ReferenceIndexTest {
+    private TreeNode<GedcomLine> root;
+    private TreeNode<GedcomLine> indi;
+    private TreeNode<GedcomLine> famc;
+    private TreeNode<GedcomLine> fam;
+    private TreeNode<GedcomLine> chil;
+    private ReferenceIndex refs;
+
+    @Before
+    public void setUp() {
+        this.root = new TreeNode<>();
+        this.indi = node(this.root, 0, "@I1@", "INDI", "");
+        this.famc = node(this.indi, 1, "", "FAMC", "@F1@");
+        this.fam = node(this.root, 0, "@F1@", "FAM", "");
+        this.chil = node(this.fam, 1, "", "CHIL", "@I1@");
+        this.refs = new ReferenceIndex(this.root);
+        this.refs.add(this.root);
+    }
+
+    @Test
+    public void findsRecordsAndReferrers() {
+        assertThat(this.refs.record("I1"), sameInstance(this.indi));
+        assertThat(this.refs.record("F1"), sameInstance(this.fam));
+        assertThat(this.refs.record("X"), nullValue());
+        assertThat(this.refs.referrers("I1"), contains(this.chil));
+        assertThat(this.refs.referrers("F1"), contains(this.famc));
+        assertThat(this.refs.referrers("X"), empty());
+    }
+
+    @Test
+    public void keepsUpWithEdits() {
+        final PendingEdits edits = new PendingEdits();
+        final TreeNode<GedcomLine> husb = new TreeNode<>(new GedcomLine(1, "", "HUSB", "@I1@"));
+        edits.add(this.fam, husb);
+        edits.delete(this.chil);
+        edits.apply(this.refs);
+
+        assertThat(this.refs.referrers("I1"), contains(husb));
+    }
+
+    @Test
+    public void dropsNodesRemovedBehindItsBack() {
+        this.fam.removeChild(this.chil);
+        assertThat(this.refs.referrers("I1"), empty());
+    }
+
+    @Test
+    public void recordIsNotFoundOnceRemovedBehindItsBack() {
+        this.root.removeChild(this.fam);
+        assertThat(this.refs.record("F1"), nullValue());
+    }
+
+    @Test
+    public void recordFallsBackToEarlierNodeWithTheId() {
+        final TreeNode<GedcomLine> fam2 = node(this.root, 0, "@F1@", "FAM", "");
+        this.refs.add(fam2);
+        assertThat(this.refs.record("F1"), sameInstance(fam2));
+
+        this.root.removeChild(fam2);
+        assertThat(this.refs.record("F1"), sameInstance(this.fam));
+    }
+
+    @Test
+    public void recordIsNotFoundByAnIdItNoLongerHas() {
+        this.fam.setObject(new GedcomLine(0, "@F2@", "FAM", ""));
+        assertThat(this.refs.record("F1"), nullValue());
+    }
+
+    @Test
+    public void remapsIdsAndPointers() {
+        final Map<String, String> map = new HashMap<>();
+        map.put("I1", "I9");
+        map.put("F1", "F_I9");
+        this.refs.remap(map);
+
+        assertThat(this.indi.getObject().getID(), is("I9"));
+        assertThat(this.famc.getObject().getPointer(), is("F_I9"));
+        assertThat(this.fam.getObject().getID(), is("F_I9"));
+        assertThat(this.chil.getObject().getPointer(), is("I9"));
+        assertThat(this.refs.record("I9"), sameInstance(this.indi));
+        assertThat(this.refs.record("I1"), nullValue());
+        assertThat(this.refs.referrers("I9"), contains(this.chil));
+    }
+
+    @Test
+    public void remapDoesNotFollowChains() {
+        final Map<String, String> map = new HashMap<>();
+        map.put("I1", "F1");
+        map.put("F1", "F2");
+        this.refs.remap(map);
+
+        assertThat(this.indi.getObject().getID(), is("F1"));
+        assertThat(this.fam.getObject().getID(), is("F2"));
+        assertThat(this.chil.getObject().getPointer(), is("F1"));
+        assertThat(this.famc.getObject().getPointer(), is("F2"));
+    }
+}
@@ -0,0 +1,62 @@
+package nu.mine.mosher.gedcom;
+
+import org.junit.*;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+public class TagOrderTest {
+    @Test
+    public void builtInOrder() {
+        final TagOrder order = TagOrder.DEFAULT;
+        assertThat(TagOrder.rank(order.top, GedcomTag.HEAD), is(0));
+        assertThat(TagOrder.rank(order.top, GedcomTag.TRLR), is(9));
+        assertThat(TagOrder.rank(order.indi, GedcomTag.REFN), lessThan(TagOrder.rank(order.indi, GedcomTag.NAME)));
+        assertThat(TagOrder.rank(order.indi, GedcomTag.NAME), lessThan(TagOrder.rank(order.indi, GedcomTag.SOUR)));
+        assertThat(TagOrder.rank(order.fam, GedcomTag.HUSB), lessThan(TagOrder.rank(order.fam, GedcomTag.CHIL)));
+        assertThat(TagOrder.rank(order.citation, GedcomTag.PAGE), is(0));
+    }
+
+    @Test
+    public void unlistedTagsAreUnknown() {
+        assertThat(TagOrder.rank(TagOrder.DEFAULT.indi, GedcomTag.BIRT), is(TagOrder.UNKNOWN));
+        assertThat(TagOrder.rank(TagOrder.DEFAULT.indi, GedcomTag.UNKNOWN), is(TagOrder.UNKNOWN));
+    }
+
+    @Test
+    public void overrideReplacesOnlyTheTablesGiven() {
+        final TagOrder order = TagOrder.DEFAULT.override(Arrays.asList(
+            "# people: name first",
+            "",
+            "INDI  NAME SEX   REFN  # then the rest",
+            "   "), "test");
+        assertThat(TagOrder.rank(order.indi, GedcomTag.NAME), is(0));
+        assertThat(TagOrder.rank(order.indi, GedcomTag.SEX), is(1));
+        assertThat(TagOrder.rank(order.indi, GedcomTag.REFN), is(2));
+        assertThat(TagOrder.rank(order.indi, GedcomTag.RIN), is(TagOrder.UNKNOWN));
+        assertThat(order.fam, sameInstance(TagOrder.DEFAULT.fam));
+        assertThat(TagOrder.rank(TagOrder.DEFAULT.indi, GedcomTag.REFN), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTable() {
+        TagOrder.DEFAULT.override(Arrays.asList("PERSON NAME SEX"), "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTag() {
+        TagOrder.DEFAULT.override(Arrays.asList("INDI NAME _UID"), "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void repeatedTag() {
+        TagOrder.DEFAULT.override(Arrays.asList("INDI NAME SEX NAME"), "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void repeatedTable() {
+        TagOrder.DEFAULT.override(Arrays.asList("INDI NAME", "INDI SEX"), "test");
+    }
+}
@@ -0,0 +1,24 @@
+package nu.mine.mosher.gedcom;
+
+import nu.mine.mosher.collection.TreeNode;
+
+/*
+Builds trees of GEDCOM lines for the tests.
+ */
+final class TestTrees {
+    private TestTrees() {
+        throw new IllegalStateException();
+    }
+
+    /*
+    Makes a node for the line, and adds it as the last child of parent
+    (unless parent is null).
+     */
+    static TreeNode<GedcomLine> node(final TreeNode<GedcomLine> parent, final int level, final String id, final String tag, final String value) {
+        final TreeNode<GedcomLine> node = new TreeNode<>(new GedcomLine(level, id, tag, value));
+        if (parent != null) {
+            parent.addChild(node);
+        }
+        return node;
+    }
+}